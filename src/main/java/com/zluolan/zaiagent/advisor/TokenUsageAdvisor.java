@@ -0,0 +1,125 @@
+package com.zluolan.zaiagent.advisor;
+
+import com.zluolan.zaiagent.token.TokenCounter;
+import com.zluolan.zaiagent.token.TokenLedger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token 用量 Advisor
+ * 统计每次请求的提示 token 数，并按会话累计提示和输出 token 数。
+ * 排在记忆等 Advisor 之后执行，统计的是最终发送给模型的完整提示；
+ * 本次请求的账本会放入请求和响应上下文（{@link #TOKEN_LEDGER}），供后续 Advisor 和调用方读取。
+ */
+@Slf4j
+@Component
+public class TokenUsageAdvisor implements CallAdvisor, StreamAdvisor {
+
+    /**
+     * 上下文中会话账本的键
+     */
+    public static final String TOKEN_LEDGER = "token_ledger";
+
+    /**
+     * 上下文中本次提示 token 数的键
+     */
+    public static final String PROMPT_TOKENS = "prompt_tokens";
+
+    // 最多保留的会话账本数，超出后淘汰最久未使用的会话
+    private static final int MAX_CONVERSATIONS = 1024;
+
+    private final TokenCounter tokenCounter;
+
+    private final Map<String, TokenLedger> ledgers = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TokenLedger> eldest) {
+            return size() > MAX_CONVERSATIONS;
+        }
+    };
+
+    public TokenUsageAdvisor(TokenCounter tokenCounter) {
+        this.tokenCounter = tokenCounter;
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest request, CallAdvisorChain chain) {
+        TokenLedger ledger = ledgerFor(request);
+        ChatClientRequest counted = recordPrompt(request, ledger);
+        ChatClientResponse response = chain.nextCall(counted);
+        return recordCompletion(response, ledger);
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest request, StreamAdvisorChain chain) {
+        TokenLedger ledger = ledgerFor(request);
+        ChatClientRequest counted = recordPrompt(request, ledger);
+        return new ChatClientMessageAggregator().aggregateChatClientResponse(chain.nextStream(counted),
+                aggregated -> recordCompletion(aggregated, ledger));
+    }
+
+    /**
+     * 获取会话的 token 账本
+     *
+     * @param conversationId 会话 id
+     * @return 账本，会话不存在时返回 null
+     */
+    public TokenLedger getLedger(String conversationId) {
+        synchronized (ledgers) {
+            return ledgers.get(conversationId);
+        }
+    }
+
+    private TokenLedger ledgerFor(ChatClientRequest request) {
+        Object conversationId = request.context().get(ChatMemory.CONVERSATION_ID);
+        if (conversationId == null) {
+            // 没有会话 id 时只统计本次请求
+            return new TokenLedger(tokenCounter);
+        }
+        synchronized (ledgers) {
+            return ledgers.computeIfAbsent(conversationId.toString(), id -> new TokenLedger(tokenCounter));
+        }
+    }
+
+    private ChatClientRequest recordPrompt(ChatClientRequest request, TokenLedger ledger) {
+        int promptTokens = ledger.recordPrompt(null, request.prompt().getInstructions());
+        log.debug("Prompt tokens: {}, conversation total: {}", promptTokens, ledger.getTotalTokens());
+        return request.mutate()
+                .context(TOKEN_LEDGER, ledger)
+                .context(PROMPT_TOKENS, promptTokens)
+                .build();
+    }
+
+    private ChatClientResponse recordCompletion(ChatClientResponse response, TokenLedger ledger) {
+        if (response == null) {
+            return null;
+        }
+        ledger.recordCompletion(response.chatResponse());
+        return response.mutate()
+                .context(TOKEN_LEDGER, ledger)
+                .build();
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        // 在记忆、RAG 等改写提示的 Advisor 之后执行
+        return Ordered.LOWEST_PRECEDENCE - 100;
+    }
+}
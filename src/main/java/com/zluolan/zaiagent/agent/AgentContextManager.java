@@ -0,0 +1,179 @@
+package com.zluolan.zaiagent.agent;
+
+import com.zluolan.zaiagent.token.TokenCounter;
+import com.zluolan.zaiagent.token.TokenLedger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 智能体上下文管理器，每次运行一个实例
+ * <p>
+ * 通过本次运行的 {@link TokenLedger} 获取每条消息的 token 估算值，总量超过预算时按以下顺序压缩较早的轮次：
+ * <ol>
+ *     <li>截断较早轮次中的工具返回结果</li>
+ *     <li>仍然超出时，成对丢弃最早的“助手工具调用 + 工具响应”，并留下一条省略说明</li>
+ * </ol>
+ * 系统消息和用户消息（任务本身）、最近 N 轮以及尚未得到响应的工具调用始终保留，
+ * 工具调用与其响应要么同时保留，要么同时丢弃，保证发送给模型的消息序列合法。
+ */
+@Slf4j
+public class AgentContextManager {
+
+    // 截断标记；已截断的结果写回上下文后再次压缩时不能重复截断
+    private static final Pattern TRUNCATION_MARKER = Pattern.compile("\\.\\.\\.\\[已截断 \\d+ 字符]$");
+
+    /**
+     * 上下文压缩策略
+     *
+     * @param tokenBudget           上下文 token 预算
+     * @param keepRecentTurns       始终原样保留的最近轮数
+     * @param maxToolResponseChars  较早轮次中单个工具结果保留的最大字符数
+     */
+    public record Policy(int tokenBudget, int keepRecentTurns, int maxToolResponseChars) {
+
+        public Policy {
+            Assert.isTrue(tokenBudget > 0, "tokenBudget must be positive");
+            Assert.isTrue(keepRecentTurns >= 0, "keepRecentTurns cannot be negative");
+            Assert.isTrue(maxToolResponseChars > 0, "maxToolResponseChars must be positive");
+        }
+    }
+
+    private final Policy policy;
+
+    // 本次运行的 token 账本，按消息对象缓存估算值
+    private final TokenLedger tokenLedger;
+
+    public AgentContextManager(Policy policy) {
+        this(policy, new TokenLedger(new TokenCounter()));
+    }
+
+    public AgentContextManager(Policy policy, TokenLedger tokenLedger) {
+        Assert.notNull(policy, "policy cannot be null");
+        Assert.notNull(tokenLedger, "tokenLedger cannot be null");
+        this.policy = policy;
+        this.tokenLedger = tokenLedger;
+    }
+
+    /**
+     * 估算消息列表的 token 总数
+     */
+    public int estimateTokens(List<Message> messages) {
+        return tokenLedger.count(messages);
+    }
+
+    /**
+     * 估算单条消息的 token 数（带缓存）
+     */
+    public int estimateTokens(Message message) {
+        return tokenLedger.count(message);
+    }
+
+    /**
+     * 在超出预算时压缩上下文
+     *
+     * @param messages 当前上下文
+     * @return 未超出预算时返回原列表，否则返回压缩后的新列表
+     */
+    public List<Message> compact(List<Message> messages) {
+        int total = estimateTokens(messages);
+        if (total <= policy.tokenBudget()) {
+            return messages;
+        }
+        List<Message> result = new ArrayList<>(messages);
+        int compactableEnd = compactableEnd(result);
+
+        // 第一阶段：截断较早轮次的工具结果
+        for (int i = 0; i < compactableEnd && total > policy.tokenBudget(); i++) {
+            if (result.get(i) instanceof ToolResponseMessage toolResponseMessage) {
+                ToolResponseMessage truncated = truncate(toolResponseMessage);
+                if (truncated != toolResponseMessage) {
+                    total += estimateTokens(truncated) - estimateTokens(toolResponseMessage);
+                    result.set(i, truncated);
+                }
+            }
+        }
+
+        // 第二阶段：成对丢弃最早的工具调用及其响应
+        int dropped = 0;
+        int insertAt = -1;
+        int i = 0;
+        while (i < compactableEnd && total > policy.tokenBudget()) {
+            Message message = result.get(i);
+            if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()
+                    && i + 1 < compactableEnd && result.get(i + 1) instanceof ToolResponseMessage) {
+                total -= estimateTokens(message) + estimateTokens(result.get(i + 1));
+                result.remove(i + 1);
+                result.remove(i);
+                compactableEnd -= 2;
+                dropped++;
+                if (insertAt < 0) {
+                    insertAt = i;
+                }
+                continue;
+            }
+            i++;
+        }
+        if (dropped > 0) {
+            UserMessage note = new UserMessage("[上下文已压缩：省略了更早的 " + dropped + " 轮工具调用及结果]");
+            result.add(insertAt, note);
+            total += estimateTokens(note);
+        }
+
+        log.info("上下文压缩: {} 条消息 -> {} 条，估算 token {} (预算 {})",
+                messages.size(), result.size(), total, policy.tokenBudget());
+        return result;
+    }
+
+    /**
+     * 可压缩区域的结束位置（不含）：最近 keepRecentTurns 轮及其之后的消息不参与压缩。
+     * 一轮从用户消息或助手消息开始，紧随其后的工具响应属于同一轮；
+     * 末尾尚未得到响应的工具调用也在保留区内。
+     */
+    private int compactableEnd(List<Message> messages) {
+        int turns = 0;
+        int end = messages.size();
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof ToolResponseMessage) {
+                continue;
+            }
+            if (turns >= policy.keepRecentTurns()) {
+                break;
+            }
+            turns++;
+            end = i;
+        }
+        return end;
+    }
+
+    private ToolResponseMessage truncate(ToolResponseMessage message) {
+        int limit = policy.maxToolResponseChars();
+        boolean changed = false;
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(message.getResponses().size());
+        for (ToolResponseMessage.ToolResponse response : message.getResponses()) {
+            String data = response.responseData();
+            if (data != null && data.length() > limit && !isTruncated(data, limit)) {
+                data = data.substring(0, limit) + "...[已截断 " + (response.responseData().length() - limit) + " 字符]";
+                changed = true;
+            }
+            responses.add(new ToolResponseMessage.ToolResponse(response.id(), response.name(), data));
+        }
+        return changed ? new ToolResponseMessage(responses, message.getMetadata()) : message;
+    }
+
+    /**
+     * 是否为此前截断的结果：不超过 limit 的前缀加上截断标记
+     */
+    private static boolean isTruncated(String data, int limit) {
+        Matcher matcher = TRUNCATION_MARKER.matcher(data);
+        return matcher.find() && matcher.start() <= limit;
+    }
+}
@@ -0,0 +1,56 @@
+package com.zluolan.zaiagent.agent;
+
+import com.zluolan.zaiagent.token.TokenCounter;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.util.Assert;
+
+/**
+ * 智能体定义：一类智能体所有运行共享的不可变部分
+ * <p>
+ * 客户端、工具、模型选项和提示词只在启动时构建一次，
+ * 每次运行只创建持有 messageList / state / currentStep 的轻量智能体实例。
+ *
+ * @param name           智能体名称
+ * @param systemPrompt   系统提示词
+ * @param nextStepPrompt 首轮注入的下一步提示词
+ * @param maxSteps       最大步数
+ * @param chatClient     共享的对话客户端（线程安全）
+ * @param availableTools 可用的工具
+ * @param chatOptions    模型选项模板，每次运行复制一份使用
+ * @param toolExecutor   共享的并发工具执行器
+ * @param runScheduler   流式运行使用的调度器
+ * @param contextPolicy  上下文压缩策略
+ * @param tokenCounter   共享的 token 估算器
+ * @param loopPolicy     重复/停滞检测策略
+ * @param budget         单次运行的预算
+ */
+public record AgentDefinition(String name,
+                              String systemPrompt,
+                              String nextStepPrompt,
+                              int maxSteps,
+                              ChatClient chatClient,
+                              ToolCallback[] availableTools,
+                              ChatOptions chatOptions,
+                              ConcurrentToolExecutor toolExecutor,
+                              AgentRunScheduler runScheduler,
+                              AgentContextManager.Policy contextPolicy,
+                              TokenCounter tokenCounter,
+                              StepHistoryAnalyzer.Policy loopPolicy,
+                              RunBudget.Limits budget) {
+
+    public AgentDefinition {
+        Assert.hasText(name, "name cannot be empty");
+        Assert.isTrue(maxSteps > 0, "maxSteps must be positive");
+        Assert.notNull(chatClient, "chatClient cannot be null");
+        Assert.notNull(availableTools, "availableTools cannot be null");
+        Assert.notNull(chatOptions, "chatOptions cannot be null");
+        Assert.notNull(toolExecutor, "toolExecutor cannot be null");
+        Assert.notNull(runScheduler, "runScheduler cannot be null");
+        Assert.notNull(contextPolicy, "contextPolicy cannot be null");
+        Assert.notNull(tokenCounter, "tokenCounter cannot be null");
+        Assert.notNull(loopPolicy, "loopPolicy cannot be null");
+        Assert.notNull(budget, "budget cannot be null");
+    }
+}
@@ -0,0 +1,130 @@
+package com.zluolan.zaiagent.agent;
+
+import com.zluolan.zaiagent.exception.BusinessException;
+import com.zluolan.zaiagent.exception.ErrorCode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 智能体运行调度器
+ * <p>
+ * 智能体运行会在 LLM 和工具 I/O 上阻塞数分钟，不能占用公共 ForkJoin 池。
+ * 每次运行使用独立的虚拟线程，同时运行数由公平信号量限制，超出部分按到达顺序排队，
+ * 排队数达到上限时立即拒绝，由调用方返回 429。
+ */
+@Slf4j
+@Component
+public class AgentRunScheduler {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // 同时运行的智能体上限，公平模式保证按到达顺序获得运行许可
+    private final Semaphore runSlots;
+
+    private final int maxConcurrentRuns;
+
+    // 等待队列上限
+    private final int queueCapacity;
+
+    // 已接纳（运行中 + 排队中）的运行数
+    private final AtomicInteger admitted = new AtomicInteger();
+
+    private final Timer waitTimer;
+
+    private final Counter rejectedCounter;
+
+    public AgentRunScheduler(@Value("${agent.scheduler.max-concurrent-runs:16}") int maxConcurrentRuns,
+                             @Value("${agent.scheduler.queue-capacity:64}") int queueCapacity,
+                             ObjectProvider<MeterRegistry> meterRegistryProvider) {
+        Assert.isTrue(maxConcurrentRuns > 0, "maxConcurrentRuns must be positive");
+        Assert.isTrue(queueCapacity >= 0, "queueCapacity cannot be negative");
+        this.maxConcurrentRuns = maxConcurrentRuns;
+        this.queueCapacity = queueCapacity;
+        this.runSlots = new Semaphore(maxConcurrentRuns, true);
+
+        MeterRegistry registry = meterRegistryProvider.getIfAvailable(() -> Metrics.globalRegistry);
+        Gauge.builder("agent.run.queue.depth", this, AgentRunScheduler::getQueueDepth)
+                .description("等待运行的智能体数")
+                .register(registry);
+        Gauge.builder("agent.run.active", this, AgentRunScheduler::getActiveRuns)
+                .description("正在运行的智能体数")
+                .register(registry);
+        this.waitTimer = Timer.builder("agent.run.wait")
+                .description("智能体运行在队列中的等待时间")
+                .register(registry);
+        this.rejectedCounter = Counter.builder("agent.run.rejected")
+                .description("因队列已满被拒绝的运行数")
+                .register(registry);
+    }
+
+    /**
+     * 提交一次智能体运行
+     *
+     * @param task 运行任务
+     * @throws BusinessException 等待队列已满时抛出 {@link ErrorCode#TOO_MANY_REQUEST_ERROR}
+     */
+    public void submit(Runnable task) {
+        if (admitted.incrementAndGet() > maxConcurrentRuns + queueCapacity) {
+            admitted.decrementAndGet();
+            rejectedCounter.increment();
+            log.warn("智能体运行队列已满，拒绝请求 (running={}, queued={})", getActiveRuns(), getQueueDepth());
+            throw new BusinessException(ErrorCode.TOO_MANY_REQUEST_ERROR);
+        }
+        long enqueuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    runSlots.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    admitted.decrementAndGet();
+                    return;
+                }
+                waitTimer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+                try {
+                    task.run();
+                } finally {
+                    runSlots.release();
+                    admitted.decrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            admitted.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 正在运行的智能体数
+     */
+    public int getActiveRuns() {
+        return maxConcurrentRuns - runSlots.availablePermits();
+    }
+
+    /**
+     * 排队等待的智能体数
+     */
+    public int getQueueDepth() {
+        return Math.max(0, admitted.get() - getActiveRuns());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,17 +1,27 @@
 package com.zluolan.zaiagent.agent;
 
+import com.zluolan.zaiagent.agent.modle.AgentEventType;
 import com.zluolan.zaiagent.agent.modle.AgentState;
+import com.zluolan.zaiagent.agent.modle.FinishReason;
+import com.zluolan.zaiagent.exception.BusinessException;
+import com.zluolan.zaiagent.exception.ErrorCode;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.jsoup.internal.StringUtil;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.http.MediaType;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.Map;
 
 /**
  * 抽象基础代理类，用于管理代理状态和执行流程。  
@@ -36,12 +46,31 @@ public abstract class BaseAgent {
     // 执行控制  
     private int maxSteps = 10;  
     private int currentStep = 0;  
+
+    // 运行结束的原因，运行结束前为 null
+    @Setter(AccessLevel.NONE)
+    private FinishReason finishReason;
   
     // LLM  
     private ChatClient chatClient;
+
+    // 流式运行的调度器
+    private AgentRunScheduler runScheduler;
   
     // Memory（需要自主维护会话上下文）  
     private List<Message> messageList = new ArrayList<>();
+
+    // 流式运行时的 SSE 连接，仅在 runStream 执行期间存在
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile SseEmitter emitter;
+
+    // 取消标记和执行运行的线程，用于客户端断开时停止运行
+    @Setter(AccessLevel.NONE)
+    private volatile boolean cancelled = false;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile Thread runnerThread;
   
     /**  
      * 运行代理  
@@ -64,7 +93,7 @@ public abstract class BaseAgent {
         List<String> results = new ArrayList<>();
         String pdfPath = null;
         try {  
-            for (int i = 0; i < maxSteps && state != AgentState.FINISHED; i++) {  
+            for (int i = 0; i < maxSteps && state != AgentState.FINISHED && !cancelled; i++) {  
                 int stepNumber = i + 1;  
                 currentStep = stepNumber;  
                 log.info("Executing step " + stepNumber + "/" + maxSteps);  
@@ -82,9 +111,11 @@ public abstract class BaseAgent {
                 }
             }  
             // 检查是否超出步骤限制  
-            if (currentStep >= maxSteps) {  
-                state = AgentState.FINISHED;  
+            resolveFinishReason();
+            if (finishReason == FinishReason.MAX_STEPS) {  
                 results.add("Terminated: Reached max steps (" + maxSteps + ")");  
+            } else if (finishReason != FinishReason.FINISHED) {
+                results.add("Terminated: " + finishReason);
             }
             // 如果生成了 PDF，直接返回文件路径
             if (pdfPath != null) {
@@ -103,24 +134,32 @@ public abstract class BaseAgent {
 
     /**
      * 运行代理（流式输出）
+     * <p>
+     * 以带类型的 SSE 事件推送执行过程，事件类型见 {@link AgentEventType}
      *
      * @param userPrompt 用户提示词
      * @return SseEmitter实例
+     * @throws BusinessException 调度器排队已满时抛出 {@link ErrorCode#TOO_MANY_REQUEST_ERROR}
      */
     public SseEmitter runStream(String userPrompt) {
         // 创建SseEmitter，设置较长的超时时间
         SseEmitter emitter = new SseEmitter(300000L); // 5分钟超时
 
-        // 使用线程异步处理，避免阻塞主线程
-        CompletableFuture.runAsync(() -> {
+        // 交给调度器在虚拟线程上异步执行，避免阻塞主线程和公共线程池
+        runScheduler.submit(() -> {
+            // 排队期间客户端已断开，直接放弃
+            if (cancelled) {
+                return;
+            }
+            runnerThread = Thread.currentThread();
             try {
                 if (this.state != AgentState.IDLE) {
-                    emitter.send("错误：无法从状态运行代理: " + this.state);
+                    sendEvent(emitter, AgentEventType.ERROR, Map.of("message", "无法从状态运行代理: " + this.state));
                     emitter.complete();
                     return;
                 }
                 if (StringUtil.isBlank(userPrompt)) {
-                    emitter.send("错误：不能使用空提示词运行代理");
+                    sendEvent(emitter, AgentEventType.ERROR, Map.of("message", "不能使用空提示词运行代理"));
                     emitter.complete();
                     return;
                 }
@@ -129,63 +168,194 @@ public abstract class BaseAgent {
                 state = AgentState.RUNNING;
                 // 记录消息上下文
                 messageList.add(new UserMessage(userPrompt));
+                // 思考过程和工具事件通过 emitter 实时推送
+                this.emitter = emitter;
 
                 try {
-                    for (int i = 0; i < maxSteps && state != AgentState.FINISHED; i++) {
+                    for (int i = 0; i < maxSteps && state != AgentState.FINISHED && !cancelled; i++) {
                         int stepNumber = i + 1;
                         currentStep = stepNumber;
                         log.info("Executing step " + stepNumber + "/" + maxSteps);
 
                         // 单步执行
                         String stepResult = step();
-                        String result = "Step " + stepNumber + ": " + stepResult;
 
                         // 发送每一步的结果
-                        emitter.send(result);
+                        sendEvent(AgentEventType.STEP, Map.of("step", stepNumber, "content", stepResult));
                     }
-                    // 检查是否超出步骤限制
-                    if (currentStep >= maxSteps) {
-                        state = AgentState.FINISHED;
-                        emitter.send("执行结束: 达到最大步骤 (" + maxSteps + ")");
+                    if (cancelled) {
+                        log.info("{} 运行已取消，停止于第 {} 步", name, currentStep);
+                        return;
                     }
+                    // 检查是否超出步骤限制
+                    resolveFinishReason();
+                    sendEvent(AgentEventType.FINAL, Map.of(
+                            "content", getFinalAnswer(),
+                            "steps", currentStep,
+                            "reason", finishReason.name()));
                     // 正常完成
                     emitter.complete();
                 } catch (Exception e) {
+                    if (cancelled) {
+                        log.info("{} 运行已取消: {}", name, e.getMessage());
+                        return;
+                    }
                     state = AgentState.ERROR;
                     log.error("执行智能体失败", e);
                     try {
-                        emitter.send("执行错误: " + e.getMessage());
+                        sendEvent(emitter, AgentEventType.ERROR, Map.of("message", "执行错误: " + e.getMessage()));
                         emitter.complete();
                     } catch (Exception ex) {
                         emitter.completeWithError(ex);
                     }
                 } finally {
                     // 清理资源
+                    this.emitter = null;
                     this.cleanup();
                 }
             } catch (Exception e) {
                 emitter.completeWithError(e);
+            } finally {
+                runnerThread = null;
+                // 清除取消时设置的中断标记
+                Thread.interrupted();
             }
         });
 
-        // 设置超时和完成回调
+        // 超时、出错或客户端断开时取消仍在进行的运行
         emitter.onTimeout(() -> {
-            this.state = AgentState.ERROR;
-            this.cleanup();
             log.warn("SSE connection timed out");
+            cancel("SSE 连接超时");
         });
 
+        emitter.onError(e -> cancel("SSE 连接异常: " + e.getMessage()));
+
         emitter.onCompletion(() -> {
-            if (this.state == AgentState.RUNNING) {
-                this.state = AgentState.FINISHED;
+            if (this.state == AgentState.RUNNING || this.state == AgentState.IDLE) {
+                cancel("客户端断开连接");
             }
-            this.cleanup();
             log.info("SSE connection completed");
         });
 
         return emitter;
     }
 
+    /**
+     * 协作式取消当前运行
+     * <p>
+     * 设置取消标记让步骤循环退出，并中断运行线程：阻塞中的流式模型请求（blockLast 被中断时会取消订阅）、
+     * 工具执行等待、终端子进程以及虚拟线程上的 Socket 读写都会随之结束。
+     * 资源清理统一由运行线程退出时完成，这里不调用 {@link #cleanup()}，避免在运行线程仍在收尾时重复清理。
+     *
+     * @param reason 取消原因
+     */
+    public void cancel(String reason) {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        if (state == AgentState.RUNNING) {
+            state = AgentState.FINISHED;
+        }
+        log.info("{} 取消运行: {}", name, reason);
+        Thread thread = runnerThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * 提前结束运行并记录原因，当前步骤结束后步骤循环退出
+     *
+     * @param reason 结束原因
+     */
+    protected void finish(FinishReason reason) {
+        this.finishReason = reason;
+        this.state = AgentState.FINISHED;
+    }
+
+    /**
+     * 步骤循环退出后确定结束原因：未提前结束时，完成任务为 FINISHED，否则为 MAX_STEPS
+     */
+    private void resolveFinishReason() {
+        if (finishReason != null) {
+            return;
+        }
+        if (state == AgentState.FINISHED) {
+            finishReason = FinishReason.FINISHED;
+        } else {
+            state = AgentState.FINISHED;
+            finishReason = currentStep >= maxSteps ? FinishReason.MAX_STEPS : FinishReason.FINISHED;
+        }
+    }
+
+    /**
+     * 是否处于流式运行中，流式运行时子类应推送增量事件
+     */
+    protected boolean isStreaming() {
+        return emitter != null;
+    }
+
+    /**
+     * 向当前运行的 SSE 连接推送事件，非流式运行时忽略
+     *
+     * @param type 事件类型
+     * @param data 事件数据，序列化为 JSON
+     */
+    protected void sendEvent(AgentEventType type, Object data) {
+        SseEmitter current = this.emitter;
+        if (current == null) {
+            return;
+        }
+        try {
+            sendEvent(current, type, data);
+        } catch (IOException e) {
+            // 写入失败说明客户端已断开，没有必要继续消耗模型和工具资源
+            log.debug("推送 SSE 事件失败: {}", e.getMessage());
+            cancel("客户端断开连接");
+        } catch (Exception e) {
+            log.debug("推送 SSE 事件失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 创建一个只包含一条 error 事件的 SseEmitter，用于运行被拒绝等无法启动的情况
+     *
+     * @param message 错误信息
+     * @return 已完成的 SseEmitter
+     */
+    public static SseEmitter errorEmitter(String message) {
+        SseEmitter emitter = new SseEmitter();
+        try {
+            sendEvent(emitter, AgentEventType.ERROR, Map.of("message", message));
+            emitter.complete();
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    private static void sendEvent(SseEmitter emitter, AgentEventType type, Object data) throws IOException {
+        emitter.send(SseEmitter.event()
+                .name(type.getEventName())
+                .data(data, MediaType.APPLICATION_JSON));
+    }
+
+    /**
+     * 获取最终回答：最后一条有文本内容的助手消息
+     *
+     * @return 最终回答，没有则返回空字符串
+     */
+    protected String getFinalAnswer() {
+        for (int i = messageList.size() - 1; i >= 0; i--) {
+            if (messageList.get(i) instanceof AssistantMessage assistantMessage
+                    && !StringUtil.isBlank(assistantMessage.getText())) {
+                return assistantMessage.getText();
+            }
+        }
+        return "";
+    }
+
     /**  
      * 执行单个步骤  
      *  
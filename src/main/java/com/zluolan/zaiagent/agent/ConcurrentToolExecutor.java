@@ -0,0 +1,193 @@
+package com.zluolan.zaiagent.agent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.execution.ToolExecutionException;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 并发工具执行器
+ * <p>
+ * 替代 ToolCallingManager 的串行执行：同一条助手消息中的多个工具调用在虚拟线程上并发执行，
+ * 每个工具有独立的并发上限，结果按原始调用顺序写回 ToolResponseMessage，保证对话历史确定。
+ */
+@Slf4j
+public class ConcurrentToolExecutor {
+
+    // 每个工具调用一个虚拟线程，阻塞在网络 I/O 上不会占用平台线程
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // 未单独配置的工具默认并发上限
+    private final int defaultConcurrency;
+
+    // 按工具名单独配置的并发上限
+    private final Map<String, Integer> concurrencyLimits;
+
+    // 工具名 -> 信号量，跨所有智能体运行共享
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    public ConcurrentToolExecutor(int defaultConcurrency, Map<String, Integer> concurrencyLimits) {
+        Assert.isTrue(defaultConcurrency > 0, "defaultConcurrency must be positive");
+        this.defaultConcurrency = defaultConcurrency;
+        this.concurrencyLimits = concurrencyLimits != null ? Map.copyOf(concurrencyLimits) : Map.of();
+    }
+
+    /**
+     * 工具执行过程监听器，回调可能来自不同的虚拟线程
+     */
+    public interface ToolExecutionListener {
+
+        ToolExecutionListener NOOP = new ToolExecutionListener() {
+        };
+
+        /**
+         * 工具开始执行（已获取并发许可）
+         */
+        default void onToolStart(AssistantMessage.ToolCall toolCall) {
+        }
+
+        /**
+         * 工具执行结束
+         */
+        default void onToolFinish(AssistantMessage.ToolCall toolCall, String result, long elapsedMillis) {
+        }
+    }
+
+    /**
+     * 执行响应中的全部工具调用
+     *
+     * @param prompt       本轮发送给模型的提示（用于构建对话历史和工具上下文）
+     * @param chatResponse 包含工具调用的模型响应
+     * @param tools        可用的工具
+     * @return 工具执行结果，conversationHistory 包含助手消息和工具响应
+     */
+    public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse, ToolCallback[] tools) {
+        return executeToolCalls(prompt, chatResponse, tools, ToolExecutionListener.NOOP);
+    }
+
+    /**
+     * 执行响应中的全部工具调用，并通知监听器每个工具的开始和结束
+     */
+    public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse, ToolCallback[] tools,
+                                                ToolExecutionListener listener) {
+        Assert.notNull(prompt, "prompt cannot be null");
+        Assert.notNull(chatResponse, "chatResponse cannot be null");
+
+        AssistantMessage assistantMessage = chatResponse.getResults().stream()
+                .map(Generation::getOutput)
+                .filter(AssistantMessage::hasToolCalls)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No tool call requested by the chat model"));
+        List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getToolCalls();
+
+        ToolContext toolContext = new ToolContext(Map.of());
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(toolCalls.size());
+        boolean returnDirect = true;
+
+        if (toolCalls.size() == 1) {
+            // 单个调用无需切换线程
+            AssistantMessage.ToolCall toolCall = toolCalls.get(0);
+            ToolCallback callback = resolve(toolCall, tools);
+            returnDirect = callback.getToolMetadata().returnDirect();
+            responses.add(new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(),
+                    callWithPermit(callback, toolCall, toolContext, listener)));
+        } else {
+            List<Future<String>> futures = new ArrayList<>(toolCalls.size());
+            try {
+                for (AssistantMessage.ToolCall toolCall : toolCalls) {
+                    ToolCallback callback = resolve(toolCall, tools);
+                    returnDirect = returnDirect && callback.getToolMetadata().returnDirect();
+                    futures.add(executor.submit(() -> callWithPermit(callback, toolCall, toolContext, listener)));
+                }
+                // 按提交顺序收集，保证响应顺序与调用顺序一致
+                for (int i = 0; i < toolCalls.size(); i++) {
+                    AssistantMessage.ToolCall toolCall = toolCalls.get(i);
+                    responses.add(new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(),
+                            await(futures.get(i))));
+                }
+            } finally {
+                futures.forEach(future -> future.cancel(true));
+            }
+        }
+
+        List<Message> conversationHistory = new ArrayList<>(prompt.getInstructions());
+        conversationHistory.add(assistantMessage);
+        conversationHistory.add(new ToolResponseMessage(responses, Map.of()));
+        return ToolExecutionResult.builder()
+                .conversationHistory(conversationHistory)
+                .returnDirect(returnDirect)
+                .build();
+    }
+
+    private ToolCallback resolve(AssistantMessage.ToolCall toolCall, ToolCallback[] tools) {
+        for (ToolCallback tool : tools) {
+            if (tool.getToolDefinition().name().equals(toolCall.name())) {
+                return tool;
+            }
+        }
+        throw new IllegalStateException("No ToolCallback found for tool name: " + toolCall.name());
+    }
+
+    private String callWithPermit(ToolCallback callback, AssistantMessage.ToolCall toolCall, ToolContext toolContext,
+                                  ToolExecutionListener listener) {
+        Semaphore semaphore = permits.computeIfAbsent(toolCall.name(),
+                name -> new Semaphore(concurrencyLimits.getOrDefault(name, defaultConcurrency), true));
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Tool execution interrupted: " + toolCall.name();
+        }
+        long start = System.currentTimeMillis();
+        String result = null;
+        try {
+            listener.onToolStart(toolCall);
+            String arguments = toolCall.arguments() == null || toolCall.arguments().isBlank() ? "{}" : toolCall.arguments();
+            result = callback.call(arguments, toolContext);
+            return result;
+        } catch (ToolExecutionException e) {
+            // 与 DefaultToolExecutionExceptionProcessor 保持一致，把异常信息返回给模型
+            log.warn("工具 {} 执行失败: {}", toolCall.name(), e.getMessage());
+            result = e.getMessage();
+            return result;
+        } finally {
+            semaphore.release();
+            long elapsed = System.currentTimeMillis() - start;
+            log.debug("工具 {} 耗时 {} ms", toolCall.name(), elapsed);
+            listener.onToolFinish(toolCall, result, elapsed);
+        }
+    }
+
+    private String await(Future<String> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Tool execution interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.zluolan.zaiagent.agent;
+
+import com.zluolan.zaiagent.agent.modle.FinishReason;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * 单次运行的预算，每次运行一个实例
+ * <p>
+ * 步数不能反映真实开销（一步可能 2 秒也可能 2 分钟），因此额外限制墙钟时间、token 总量和工具执行时间。
+ * 任一预算的使用比例达到 summarizeThreshold 时，智能体应停止调用工具，强制总结并结束。
+ */
+public class RunBudget {
+
+    /**
+     * 预算上限，值为 0 表示不限制
+     *
+     * @param wallClock          墙钟时间上限（从第一步开始计算）
+     * @param maxTokens          提示 + 输出 token 总量上限
+     * @param maxToolTime        工具执行时间上限
+     * @param summarizeThreshold 使用比例达到该值时强制总结（0~1）
+     */
+    public record Limits(Duration wallClock, long maxTokens, Duration maxToolTime, double summarizeThreshold) {
+
+        public Limits {
+            Assert.isTrue(wallClock != null && !wallClock.isNegative(), "wallClock cannot be negative");
+            Assert.isTrue(maxTokens >= 0, "maxTokens cannot be negative");
+            Assert.isTrue(maxToolTime != null && !maxToolTime.isNegative(), "maxToolTime cannot be negative");
+            Assert.isTrue(summarizeThreshold > 0 && summarizeThreshold <= 1, "summarizeThreshold must be in (0, 1]");
+        }
+
+        /**
+         * 不限制
+         */
+        public static Limits unlimited() {
+            return new Limits(Duration.ZERO, 0, Duration.ZERO, 1.0);
+        }
+    }
+
+    private final Limits limits;
+
+    // 已使用的 token 总数
+    private final LongSupplier usedTokens;
+
+    private final LongSupplier nanoClock;
+
+    private long startNanos = -1;
+
+    private long toolNanos;
+
+    public RunBudget(Limits limits, LongSupplier usedTokens) {
+        this(limits, usedTokens, System::nanoTime);
+    }
+
+    RunBudget(Limits limits, LongSupplier usedTokens, LongSupplier nanoClock) {
+        Assert.notNull(limits, "limits cannot be null");
+        Assert.notNull(usedTokens, "usedTokens cannot be null");
+        this.limits = limits;
+        this.usedTokens = usedTokens;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * 开始计时，重复调用无效
+     */
+    public void start() {
+        if (startNanos < 0) {
+            startNanos = nanoClock.getAsLong();
+        }
+    }
+
+    /**
+     * 累计工具执行时间
+     */
+    public void addToolTime(long nanos) {
+        toolNanos += nanos;
+    }
+
+    /**
+     * 是否有预算已经完全用尽
+     *
+     * @return 用尽的预算对应的结束原因，没有则返回 null
+     */
+    public FinishReason exhausted() {
+        return check(1.0);
+    }
+
+    /**
+     * 是否有预算接近用尽，需要强制总结
+     *
+     * @return 接近用尽的预算对应的结束原因，没有则返回 null
+     */
+    public FinishReason nearlyExhausted() {
+        return check(limits.summarizeThreshold());
+    }
+
+    private FinishReason check(double ratio) {
+        if (!limits.wallClock().isZero() && startNanos >= 0
+                && nanoClock.getAsLong() - startNanos >= limits.wallClock().toNanos() * ratio) {
+            return FinishReason.WALL_CLOCK_BUDGET;
+        }
+        if (limits.maxTokens() > 0 && usedTokens.getAsLong() >= limits.maxTokens() * ratio) {
+            return FinishReason.TOKEN_BUDGET;
+        }
+        if (!limits.maxToolTime().isZero() && toolNanos >= limits.maxToolTime().toNanos() * ratio) {
+            return FinishReason.TOOL_TIME_BUDGET;
+        }
+        return null;
+    }
+
+    /**
+     * 已用时间
+     */
+    public Duration elapsed() {
+        return startNanos < 0 ? Duration.ZERO : Duration.ofNanos(nanoClock.getAsLong() - startNanos);
+    }
+
+    public Duration getToolTime() {
+        return Duration.ofNanos(toolNanos);
+    }
+}
@@ -0,0 +1,195 @@
+package com.zluolan.zaiagent.agent;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 步骤历史分析器，每次运行一个实例
+ * <p>
+ * 为每一步的思考文本和工具调用生成指纹，发现以下两类无效步骤：
+ * <ul>
+ *     <li>循环：工具调用序列以周期 p（1..maxPeriod）重复，例如 A,A,A 或 A,B,A,B</li>
+ *     <li>停滞：连续若干步的内容（思考 + 工具调用）几乎相同，按词集合的 Jaccard 相似度判断</li>
+ * </ul>
+ * 每一步都是一次完整的模型请求，尽早发现可以避免一直空转到 maxSteps。
+ */
+public class StepHistoryAnalyzer {
+
+    /**
+     * 检测策略
+     *
+     * @param maxPeriod       检测的最大循环周期
+     * @param stallSimilarity 判定为“几乎相同”的相似度阈值（0~1）
+     * @param stallSteps      连续多少步几乎相同判定为停滞
+     */
+    public record Policy(int maxPeriod, double stallSimilarity, int stallSteps) {
+
+        public Policy {
+            Assert.isTrue(maxPeriod > 0, "maxPeriod must be positive");
+            Assert.isTrue(stallSimilarity > 0 && stallSimilarity <= 1, "stallSimilarity must be in (0, 1]");
+            Assert.isTrue(stallSteps > 1, "stallSteps must be greater than 1");
+        }
+    }
+
+    /**
+     * 分析结果
+     */
+    public enum Verdict {
+        /**
+         * 正常
+         */
+        OK,
+        /**
+         * 工具调用循环
+         */
+        CYCLE,
+        /**
+         * 停滞
+         */
+        STALL
+    }
+
+    // 周期为 1（同一调用）时需要的连续次数，偶尔重试一次是正常的
+    private static final int SINGLE_CALL_REPEATS = 3;
+
+    // 周期大于 1 时需要的重复次数
+    private static final int PERIOD_REPEATS = 2;
+
+    private final Policy policy;
+
+    // 每一步的精确指纹
+    private final List<String> fingerprints = new ArrayList<>();
+
+    // 每一步的词集合，用于相似度比较
+    private final List<Set<String>> shingles = new ArrayList<>();
+
+    // 连续相似的步数
+    private int similarRun = 1;
+
+    public StepHistoryAnalyzer(Policy policy) {
+        Assert.notNull(policy, "policy cannot be null");
+        this.policy = policy;
+    }
+
+    /**
+     * 记录一步模型输出并判断是否陷入循环或停滞
+     *
+     * @param assistantMessage 本步的助手消息
+     * @return 分析结果
+     */
+    public Verdict observe(AssistantMessage assistantMessage) {
+        String thought = assistantMessage.getText() == null ? "" : assistantMessage.getText();
+        List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getToolCalls();
+        String calls = toolCalls.stream()
+                .map(toolCall -> toolCall.name() + ":" + normalize(toolCall.arguments()))
+                .sorted()
+                .collect(Collectors.joining(";"));
+        // 有工具调用时以调用为准，思考文本措辞变化不影响循环判断
+        fingerprints.add(calls.isEmpty() ? "text:" + normalize(thought) : calls);
+
+        Set<String> current = shingle(thought + " " + calls);
+        if (!shingles.isEmpty() && !current.isEmpty()
+                && jaccard(shingles.get(shingles.size() - 1), current) >= policy.stallSimilarity()) {
+            similarRun++;
+        } else {
+            similarRun = 1;
+        }
+        shingles.add(current);
+
+        if (detectCycle()) {
+            return Verdict.CYCLE;
+        }
+        if (similarRun >= policy.stallSteps()) {
+            return Verdict.STALL;
+        }
+        return Verdict.OK;
+    }
+
+    /**
+     * 最近的指纹序列是否由同一个长度为 p 的片段重复构成
+     */
+    private boolean detectCycle() {
+        int size = fingerprints.size();
+        for (int period = 1; period <= policy.maxPeriod(); period++) {
+            int repeats = period == 1 ? SINGLE_CALL_REPEATS : PERIOD_REPEATS;
+            int window = period * repeats;
+            if (window > size) {
+                break;
+            }
+            boolean cycle = true;
+            for (int i = size - window; i < size - period && cycle; i++) {
+                cycle = fingerprints.get(i).equals(fingerprints.get(i + period));
+            }
+            if (cycle) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 切分为词集合：英文和数字按单词（小写），中日韩文字按相邻两字
+     */
+    static Set<String> shingle(String text) {
+        Set<String> result = new HashSet<>();
+        StringBuilder word = new StringBuilder();
+        char previousCjk = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x2E80 && Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+                previousCjk = 0;
+                continue;
+            }
+            if (!word.isEmpty()) {
+                result.add(word.toString());
+                word.setLength(0);
+            }
+            if (Character.isLetterOrDigit(c)) {
+                result.add(previousCjk != 0 ? String.valueOf(previousCjk) + c : String.valueOf(c));
+                previousCjk = c;
+            } else {
+                previousCjk = 0;
+            }
+        }
+        if (!word.isEmpty()) {
+            result.add(word.toString());
+        }
+        return result;
+    }
+
+    static double jaccard(Set<String> a, Set<String> b) {
+        if (a.isEmpty() && b.isEmpty()) {
+            return 1.0;
+        }
+        int intersection = 0;
+        Set<String> smaller = a.size() <= b.size() ? a : b;
+        Set<String> larger = smaller == a ? b : a;
+        for (String token : smaller) {
+            if (larger.contains(token)) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (a.size() + b.size() - intersection);
+    }
+}
@@ -2,7 +2,10 @@ package com.zluolan.zaiagent.agent;
 
 import cn.hutool.core.collection.CollUtil;
 import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import com.zluolan.zaiagent.agent.modle.AgentEventType;
 import com.zluolan.zaiagent.agent.modle.AgentState;
+import com.zluolan.zaiagent.agent.modle.FinishReason;
+import com.zluolan.zaiagent.token.TokenLedger;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
@@ -10,16 +13,19 @@ import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.ToolResponseMessage;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.model.tool.ToolCallingManager;
 import org.springframework.ai.model.tool.ToolExecutionResult;
 import org.springframework.ai.tool.ToolCallback;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -37,12 +43,35 @@ public class ToolCallAgent extends ReActAgent {
     // 保存了工具调用信息的响应
     private ChatResponse toolCallChatResponse;
 
-    // 工具调用管理者
-    private final ToolCallingManager toolCallingManager;
+    // 工具执行器，并发执行同一轮中的多个工具调用
+    private final ConcurrentToolExecutor toolExecutor;
 
     // 禁用内置的工具调用机制，自己维护上下文
     private final ChatOptions chatOptions;
 
+    // 本次运行的 token 账本：每轮提示和累计用量
+    private final TokenLedger tokenLedger;
+
+    // 上下文管理，超出 token 预算时压缩较早的工具结果
+    private final AgentContextManager contextManager;
+
+    // 步骤历史分析，发现重复调用和停滞
+    private final StepHistoryAnalyzer stepHistoryAnalyzer;
+
+    // 是否已经因为重复/停滞提醒过模型
+    private boolean repetitionWarned = false;
+
+    // 本次运行的墙钟时间、token 和工具时间预算
+    private final RunBudget runBudget;
+
+    // 强制总结时使用的模型选项，从不携带工具
+    private final ChatOptions summaryChatOptions;
+
+    private static final String SUMMARIZE_PROMPT = """
+            本次任务的执行预算即将用完，不要再调用任何工具。
+            请根据目前已经获得的信息直接给出最终回答：总结已完成的工作和结论，并说明还有哪些未完成的部分。
+            """;
+
     // 首次注入的提示
     private String nextStepPrompt;
     private boolean injectedFirstStep = false;  // 标记位
@@ -51,12 +80,37 @@ public class ToolCallAgent extends ReActAgent {
     private static final Pattern FINISH_PATTERN =
             Pattern.compile(".*(已完成任务|任务完成|执行完毕|完成).*");
 
-    public ToolCallAgent(ToolCallback[] availableTools) {
+    /**
+     * 基于共享的智能体定义创建一次运行，只初始化本次运行的可变状态
+     *
+     * @param definition 智能体定义
+     */
+    public ToolCallAgent(AgentDefinition definition) {
         super();
-        this.availableTools = availableTools;
-        this.toolCallingManager = ToolCallingManager.builder().build();
-        // 禁用 Spring AI 内置的工具调用机制，自己维护选项和消息上下文
-        this.chatOptions = DashScopeChatOptions.builder()
+        this.setName(definition.name());
+        this.setSystemPrompt(definition.systemPrompt());
+        this.setNextStepPrompt(definition.nextStepPrompt());
+        this.setMaxSteps(definition.maxSteps());
+        this.setChatClient(definition.chatClient());
+        this.setRunScheduler(definition.runScheduler());
+        this.availableTools = definition.availableTools();
+        this.toolExecutor = definition.toolExecutor();
+        // ChatClient 会把工具回调写入传入的选项对象，每次运行使用独立副本，避免并发运行互相修改
+        this.chatOptions = definition.chatOptions().copy();
+        this.tokenLedger = new TokenLedger(definition.tokenCounter());
+        this.contextManager = new AgentContextManager(definition.contextPolicy(), tokenLedger);
+        this.stepHistoryAnalyzer = new StepHistoryAnalyzer(definition.loopPolicy());
+        this.runBudget = new RunBudget(definition.budget(), tokenLedger::getTotalTokens);
+        this.summaryChatOptions = definition.chatOptions().copy();
+    }
+
+    /**
+     * 创建禁用 Spring AI 内置工具调用机制的模型选项，由智能体自己维护选项和消息上下文
+     *
+     * @return 模型选项模板
+     */
+    public static ChatOptions defaultChatOptions() {
+        return DashScopeChatOptions.builder()
                 .withInternalToolExecutionEnabled(false)
                 .build();
     }
@@ -74,11 +128,26 @@ public class ToolCallAgent extends ReActAgent {
             injectedFirstStep = true;
         }
 
+        // 预算接近用尽时不再调用工具，强制总结并结束
+        runBudget.start();
+        FinishReason budgetReason = runBudget.nearlyExhausted();
+        if (budgetReason != null) {
+            summarizeAndFinish(budgetReason);
+            return false;
+        }
+
+        // 每轮都会重发完整上下文，超出预算时先压缩
+        setMessageList(contextManager.compact(getMessageList()));
         List<Message> messageList = getMessageList();
+        int promptTokens = tokenLedger.recordPrompt(getSystemPrompt(), messageList);
+        log.info("{} 第 {} 步提示约 {} tokens，本次运行累计 {} tokens",
+                getName(), getCurrentStep(), promptTokens, tokenLedger.getTotalTokens());
         Prompt prompt = new Prompt(messageList, chatOptions);
         try {
-            // 获取带工具选项的响应
-            ChatResponse chatResponse = getChatClient().prompt(prompt)
+            // 获取带工具选项的响应，流式运行时边生成边推送思考内容
+            ChatResponse chatResponse = isStreaming()
+                    ? streamChatResponse(prompt, availableTools)
+                    : getChatClient().prompt(prompt)
                     .system(getSystemPrompt())
                     .toolCallbacks(availableTools)
                     .call()
@@ -86,6 +155,7 @@ public class ToolCallAgent extends ReActAgent {
 
             // 记录响应，用于 Act
             this.toolCallChatResponse = chatResponse;
+            tokenLedger.recordCompletion(chatResponse);
             AssistantMessage assistantMessage = chatResponse.getResult().getOutput();
 
             // 输出提示信息
@@ -103,6 +173,12 @@ public class ToolCallAgent extends ReActAgent {
                 log.info(toolCallInfo);
             }
 
+            // 检测重复调用和停滞，避免空转到 maxSteps
+            StepHistoryAnalyzer.Verdict verdict = stepHistoryAnalyzer.observe(assistantMessage);
+            if (verdict != StepHistoryAnalyzer.Verdict.OK) {
+                return handleRepetition(verdict, assistantMessage);
+            }
+
             // ✅ 第二步：兜底逻辑（正则匹配）
             if (toolCallList.isEmpty()) {
                 if (result != null && FINISH_PATTERN.matcher(result).find()) {
@@ -134,6 +210,10 @@ public class ToolCallAgent extends ReActAgent {
                 return true;
             }
         } catch (Exception e) {
+            if (isCancelled()) {
+                // 运行已取消，模型请求被中断属于预期情况
+                return false;
+            }
             log.error("{} 的思考过程遇到了问题: {}", getName(), e.getMessage());
             getMessageList().add(
                     new AssistantMessage("处理时遇到错误: " + e.getMessage()));
@@ -141,6 +221,137 @@ public class ToolCallAgent extends ReActAgent {
         }
     }
 
+    /**
+     * 处理重复或停滞：第一次注入纠正提示并跳过本步的工具调用，再次出现则提前结束运行
+     *
+     * @return 始终返回 false，本步不执行工具
+     */
+    private boolean handleRepetition(StepHistoryAnalyzer.Verdict verdict, AssistantMessage assistantMessage) {
+        FinishReason reason = verdict == StepHistoryAnalyzer.Verdict.CYCLE
+                ? FinishReason.LOOP_DETECTED : FinishReason.STALLED;
+        if (repetitionWarned) {
+            log.warn("{} 在提醒后仍然{}，提前结束运行", getName(), verdict == StepHistoryAnalyzer.Verdict.CYCLE ? "重复调用" : "没有进展");
+            if (!assistantMessage.hasToolCalls() && assistantMessage.getText() != null) {
+                getMessageList().add(assistantMessage);
+            }
+            finish(reason);
+            return false;
+        }
+        repetitionWarned = true;
+        log.warn("{} 检测到{}，注入纠正提示", getName(), verdict == StepHistoryAnalyzer.Verdict.CYCLE ? "重复的工具调用" : "连续几步没有进展");
+        // 不记录本步的工具调用，保证工具调用与响应成对出现
+        getMessageList().add(new UserMessage("""
+                你最近几步在重复相同的操作，没有取得新的进展。不要再用相同的参数调用相同的工具。
+                请根据已经获得的结果换一种方法继续；如果任务已经完成或无法继续，请直接调用 `doTerminate` 工具结束。
+                """));
+        return false;
+    }
+
+    /**
+     * 预算接近用尽：不带工具再请求一次模型，让它基于已有信息给出总结作为最终回答，然后结束运行。
+     * 如果预算已经完全用尽，则不再请求模型直接结束。
+     *
+     * @param reason 接近用尽的预算
+     */
+    private void summarizeAndFinish(FinishReason reason) {
+        log.warn("{} 的预算接近用尽 ({})，已用时 {}，token {}，工具耗时 {}，强制总结", getName(), reason,
+                runBudget.elapsed(), tokenLedger.getTotalTokens(), runBudget.getToolTime());
+        if (runBudget.exhausted() != null) {
+            finish(reason);
+            return;
+        }
+        getMessageList().add(new UserMessage(SUMMARIZE_PROMPT));
+        setMessageList(contextManager.compact(getMessageList()));
+        tokenLedger.recordPrompt(getSystemPrompt(), getMessageList());
+        Prompt prompt = new Prompt(getMessageList(), summaryChatOptions);
+        try {
+            ChatResponse chatResponse = isStreaming()
+                    ? streamChatResponse(prompt, new ToolCallback[0])
+                    : getChatClient().prompt(prompt)
+                    .system(getSystemPrompt())
+                    .call()
+                    .chatResponse();
+            tokenLedger.recordCompletion(chatResponse);
+            String summary = chatResponse.getResult().getOutput().getText();
+            if (summary != null && !summary.isBlank()) {
+                // 只保留文本，即使模型仍然返回了工具调用也不再执行
+                getMessageList().add(new AssistantMessage(summary));
+            }
+        } catch (Exception e) {
+            if (!isCancelled()) {
+                log.error("{} 强制总结失败: {}", getName(), e.getMessage());
+            }
+        }
+        finish(reason);
+    }
+
+    /**
+     * 以流式方式调用模型：增量文本作为 thinking 事件推送，同时拼装完整的助手消息和工具调用
+     *
+     * @param prompt 提示
+     * @param tools  本次请求可用的工具
+     * @return 聚合后的完整响应，供 act() 使用
+     */
+    private ChatResponse streamChatResponse(Prompt prompt, ToolCallback[] tools) {
+        StringBuilder text = new StringBuilder();
+        List<AssistantMessage.ToolCall> toolCalls = new ArrayList<>();
+        AtomicReference<ChatResponseMetadata> metadata = new AtomicReference<>();
+        int stepNumber = getCurrentStep();
+
+        getChatClient().prompt(prompt)
+                .system(getSystemPrompt())
+                .toolCallbacks(tools)
+                .stream()
+                .chatResponse()
+                .doOnNext(chunk -> {
+                    if (chunk.getMetadata() != null) {
+                        metadata.set(chunk.getMetadata());
+                    }
+                    if (chunk.getResult() == null || chunk.getResult().getOutput() == null) {
+                        return;
+                    }
+                    AssistantMessage output = chunk.getResult().getOutput();
+                    String delta = output.getText();
+                    if (delta != null && !delta.isEmpty()) {
+                        text.append(delta);
+                        sendEvent(AgentEventType.THINKING, Map.of("step", stepNumber, "delta", delta));
+                    }
+                    mergeToolCalls(toolCalls, output.getToolCalls());
+                })
+                .blockLast();
+
+        AssistantMessage assistantMessage = new AssistantMessage(text.toString(), Map.of(), toolCalls);
+        ChatResponse.Builder builder = ChatResponse.builder()
+                .generations(List.of(new Generation(assistantMessage)));
+        if (metadata.get() != null) {
+            builder.metadata(metadata.get());
+        }
+        return builder.build();
+    }
+
+    /**
+     * 合并流式分片中的工具调用：带新 id 的分片是新调用，缺少 id 的分片是上一个调用参数的续写
+     */
+    private static void mergeToolCalls(List<AssistantMessage.ToolCall> merged, List<AssistantMessage.ToolCall> chunkCalls) {
+        for (AssistantMessage.ToolCall call : chunkCalls) {
+            AssistantMessage.ToolCall last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            boolean continuation = last != null
+                    && (call.id() == null || call.id().isEmpty() || call.id().equals(last.id()));
+            if (!continuation) {
+                merged.add(call);
+                continue;
+            }
+            String name = call.name() == null || call.name().isEmpty() ? last.name() : last.name() + call.name();
+            if (call.name() != null && call.name().equals(last.name())) {
+                // 部分模型在每个分片中重复完整的工具名
+                name = last.name();
+            }
+            String arguments = (last.arguments() == null ? "" : last.arguments())
+                    + (call.arguments() == null ? "" : call.arguments());
+            merged.set(merged.size() - 1, new AssistantMessage.ToolCall(last.id(), last.type(), name, arguments));
+        }
+    }
+
     /**
      * 执行工具调用并处理结果
      *
@@ -153,8 +364,10 @@ public class ToolCallAgent extends ReActAgent {
         }
         // 调用工具
         Prompt prompt = new Prompt(getMessageList(), chatOptions);
+        long start = System.nanoTime();
         ToolExecutionResult toolExecutionResult =
-                toolCallingManager.executeToolCalls(prompt, toolCallChatResponse);
+                toolExecutor.executeToolCalls(prompt, toolCallChatResponse, availableTools, toolEventListener());
+        runBudget.addToolTime(System.nanoTime() - start);
 
         // 记录消息上下文，conversationHistory 已经包含了助手消息和工具调用返回的结果
         setMessageList(toolExecutionResult.conversationHistory());
@@ -177,4 +390,41 @@ public class ToolCallAgent extends ReActAgent {
         log.info(results);
         return results;
     }
+
+    @Override
+    protected void cleanup() {
+        log.info("{} 运行结束，原因 {}，耗时 {}，工具耗时 {}，共 {} 次模型请求，提示 {} tokens，输出 {} tokens",
+                getName(), getFinishReason(), runBudget.elapsed(), runBudget.getToolTime(), tokenLedger.getRequests(),
+                tokenLedger.getTotalPromptTokens(), tokenLedger.getTotalCompletionTokens());
+    }
+
+    /**
+     * 把工具开始/结束转换为 SSE 事件
+     */
+    private ConcurrentToolExecutor.ToolExecutionListener toolEventListener() {
+        if (!isStreaming()) {
+            return ConcurrentToolExecutor.ToolExecutionListener.NOOP;
+        }
+        int stepNumber = getCurrentStep();
+        return new ConcurrentToolExecutor.ToolExecutionListener() {
+            @Override
+            public void onToolStart(AssistantMessage.ToolCall toolCall) {
+                sendEvent(AgentEventType.TOOL_START, Map.of(
+                        "step", stepNumber,
+                        "id", Objects.toString(toolCall.id(), ""),
+                        "name", toolCall.name(),
+                        "arguments", Objects.toString(toolCall.arguments(), "")));
+            }
+
+            @Override
+            public void onToolFinish(AssistantMessage.ToolCall toolCall, String result, long elapsedMillis) {
+                sendEvent(AgentEventType.TOOL_FINISH, Map.of(
+                        "step", stepNumber,
+                        "id", Objects.toString(toolCall.id(), ""),
+                        "name", toolCall.name(),
+                        "success", result != null,
+                        "elapsedMillis", elapsedMillis));
+            }
+        };
+    }
 }
@@ -0,0 +1,55 @@
+package com.zluolan.zaiagent.agent;
+
+import com.zluolan.zaiagent.token.TokenCounter;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * YuManus 实例工厂
+ * <p>
+ * 启动时构建一次共享的 {@link AgentDefinition}，每个请求只创建轻量的运行实例，
+ * 并发运行之间不共享任何可变状态。
+ */
+@Component
+public class YuManusFactory {
+
+    private final AgentDefinition definition;
+
+    public YuManusFactory(ToolCallback[] allTools, ChatModel dashscopeChatModel,
+                          ConcurrentToolExecutor toolExecutor, AgentRunScheduler runScheduler,
+                          TokenCounter tokenCounter,
+                          @Value("${agent.context.token-budget:24000}") int contextTokenBudget,
+                          @Value("${agent.context.keep-recent-turns:4}") int keepRecentTurns,
+                          @Value("${agent.context.max-tool-response-chars:800}") int maxToolResponseChars,
+                          @Value("${agent.loop.max-period:3}") int loopMaxPeriod,
+                          @Value("${agent.loop.stall-similarity:0.9}") double stallSimilarity,
+                          @Value("${agent.loop.stall-steps:3}") int stallSteps,
+                          @Value("${agent.budget.yu-manus.wall-clock:4m}") Duration wallClock,
+                          @Value("${agent.budget.yu-manus.max-tokens:200000}") long maxTokens,
+                          @Value("${agent.budget.yu-manus.tool-time:3m}") Duration toolTime,
+                          @Value("${agent.budget.yu-manus.summarize-threshold:0.85}") double summarizeThreshold) {
+        AgentContextManager.Policy contextPolicy =
+                new AgentContextManager.Policy(contextTokenBudget, keepRecentTurns, maxToolResponseChars);
+        StepHistoryAnalyzer.Policy loopPolicy = new StepHistoryAnalyzer.Policy(loopMaxPeriod, stallSimilarity, stallSteps);
+        RunBudget.Limits budget = new RunBudget.Limits(wallClock, maxTokens, toolTime, summarizeThreshold);
+        this.definition = YuManus.definition(allTools, dashscopeChatModel, toolExecutor, runScheduler, contextPolicy,
+                tokenCounter, loopPolicy, budget);
+    }
+
+    /**
+     * 创建一次新的智能体运行
+     *
+     * @return 处于 IDLE 状态的 YuManus 实例
+     */
+    public YuManus create() {
+        return new YuManus(definition);
+    }
+
+    public AgentDefinition getDefinition() {
+        return definition;
+    }
+}
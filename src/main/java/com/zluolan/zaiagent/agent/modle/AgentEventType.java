@@ -0,0 +1,51 @@
+package com.zluolan.zaiagent.agent.modle;
+
+import lombok.Getter;
+
+/**
+ * 智能体流式输出的 SSE 事件类型
+ * <p>
+ * 事件名写入 SSE 的 event 字段，数据为 JSON 对象。
+ */
+@Getter
+public enum AgentEventType {
+
+    /**
+     * 模型思考过程中的增量 token
+     */
+    THINKING("thinking"),
+
+    /**
+     * 工具开始执行
+     */
+    TOOL_START("tool_start"),
+
+    /**
+     * 工具执行结束
+     */
+    TOOL_FINISH("tool_finish"),
+
+    /**
+     * 单步执行结果
+     */
+    STEP("step"),
+
+    /**
+     * 最终回答
+     */
+    FINAL("final"),
+
+    /**
+     * 执行错误
+     */
+    ERROR("error");
+
+    /**
+     * SSE 事件名
+     */
+    private final String eventName;
+
+    AgentEventType(String eventName) {
+        this.eventName = eventName;
+    }
+}
@@ -0,0 +1,42 @@
+package com.zluolan.zaiagent.agent.modle;
+
+/**
+ * 智能体运行结束的原因
+ */
+public enum FinishReason {
+
+    /**
+     * 任务完成（调用了终止工具或模型给出最终回答）
+     */
+    FINISHED,
+
+    /**
+     * 达到最大步数
+     */
+    MAX_STEPS,
+
+    /**
+     * 检测到重复的工具调用循环
+     */
+    LOOP_DETECTED,
+
+    /**
+     * 连续多步几乎相同，没有进展
+     */
+    STALLED,
+
+    /**
+     * 墙钟时间预算用尽
+     */
+    WALL_CLOCK_BUDGET,
+
+    /**
+     * token 预算用尽
+     */
+    TOKEN_BUDGET,
+
+    /**
+     * 工具执行时间预算用尽
+     */
+    TOOL_TIME_BUDGET
+}
@@ -4,7 +4,10 @@ package com.zluolan.zaiagent.app;
 import com.alibaba.cloud.ai.autoconfigure.memory.MysqlChatMemoryProperties;
 import com.alibaba.cloud.ai.memory.jdbc.MysqlChatMemoryRepository;
 import com.zluolan.zaiagent.advisor.MyLoggerAdvisor;
-import com.zluolan.zaiagent.chatmemeory.FileBasedChatMemoryRepository;
+import com.zluolan.zaiagent.advisor.TokenUsageAdvisor;
+import com.zluolan.zaiagent.chatmemeory.TokenWindowChatMemory;
+import com.zluolan.zaiagent.token.TokenCounter;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
@@ -12,16 +15,22 @@ import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
 import org.springframework.ai.chat.memory.*;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.model.tool.ToolCallingManager;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.ToolCallbackProvider;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.springframework.ai.chat.memory.ChatMemory.CONVERSATION_ID;
 
@@ -39,31 +48,66 @@ public class LoveApp {
             "工具执行结果会以[TOOL_EXECUTION_RESULT]开头，请特别注意这些结果并给出相应反馈。" +
             "如果工具执行成功，请向用户报告执行结果；如果执行失败，请向用户解释失败原因并提供可能的解决方案。";
 
-    public LoveApp(ChatModel ollamaChatModel/*, MysqlChatMemoryRepository mysqlChatMemoryRepository*/) {
-        // 初始化基于内存的对话记忆
-        InMemoryChatMemoryRepository chatMemoryRepository = new InMemoryChatMemoryRepository();
+    private static final String SUMMARY_PROMPT = "你负责为恋爱咨询对话维护摘要。把已有摘要和新的对话合并为一段新摘要，" +
+            "保留用户的恋爱状态、涉及的人物、发生的事件、用户的想法和诉求，以及已经给出的建议；" +
+            "不要编造信息，不超过 300 字，直接输出摘要内容。";
 
-        // 创建基于文件的记忆存储
-        ChatMemoryRepository fileRepository =
-                new FileBasedChatMemoryRepository("./chat_memories");
+    // 在请求路径之外生成对话摘要
+    private final ThreadPoolExecutor summaryExecutor;
 
-        int MAX_MESSAGES = 10;
-        MessageWindowChatMemory messageWindowChatMemory = MessageWindowChatMemory.builder()
-//                .chatMemoryRepository(chatMemoryRepository)
-//                .chatMemoryRepository(fileRepository)
-//                .chatMemoryRepository(mysqlChatMemoryRepository)
-                .maxMessages(MAX_MESSAGES)
+    /**
+     * @param chatMemoryRepository 对话记忆存储，由 agent.memory.store 选择（见 ChatMemoryConfig）
+     * @param memoryTokenBudget    每轮带入提示词的历史消息 token 上限，更早的对话折叠为摘要
+     */
+    public LoveApp(ChatModel ollamaChatModel, TokenUsageAdvisor tokenUsageAdvisor,
+                   ChatMemoryRepository chatMemoryRepository, TokenCounter tokenCounter,
+                   @Value("${agent.memory.token-budget:2000}") int memoryTokenBudget) {
+        summaryExecutor = new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(256),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "love-app-summarizer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        ChatClient summaryClient = ChatClient.builder(ollamaChatModel)
+                .defaultSystem(SUMMARY_PROMPT)
                 .build();
+        // 按 token 预算截取历史，超出部分在后台折叠为滚动摘要；同一会话的写入已按会话加锁
+        TokenWindowChatMemory chatMemory = new TokenWindowChatMemory(chatMemoryRepository, tokenCounter,
+                (previousSummary, messages) -> summarize(summaryClient, previousSummary, messages),
+                summaryExecutor, memoryTokenBudget);
 
         chatClient = ChatClient.builder(ollamaChatModel)
                 .defaultSystem(SYSTEM_PROMPT)
                 .defaultAdvisors(
-                        MessageChatMemoryAdvisor.builder(messageWindowChatMemory)
-                                .build()
+                        MessageChatMemoryAdvisor.builder(chatMemory)
+                                .build(),
+                        // 统计每次请求和每个会话的 token 用量
+                        tokenUsageAdvisor
                 )
                 .build();
     }
 
+    @PreDestroy
+    public void destroy() {
+        summaryExecutor.shutdownNow();
+    }
+
+    private static String summarize(ChatClient summaryClient, String previousSummary, List<Message> messages) {
+        StringBuilder prompt = new StringBuilder();
+        if (!previousSummary.isEmpty()) {
+            prompt.append("已有摘要：\n").append(previousSummary).append("\n\n");
+        }
+        prompt.append("新的对话：\n");
+        for (Message message : messages) {
+            prompt.append(message.getMessageType() == MessageType.USER ? "用户：" : "咨询师：")
+                    .append(message.getText()).append('\n');
+        }
+        return summaryClient.prompt()
+                .user(prompt.toString())
+                .call()
+                .content();
+    }
+
     /**
      * 测试自定义Re2 和 Logger 顾问
      */
@@ -0,0 +1,79 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 压缩编解码器的公共封装（包内使用）
+ * <pre>
+ * stored     : flag(1)=0 raw
+ * compressed : flag(1)=1 rawLength(varint) data
+ * </pre>
+ * 压缩后不比原文小的 payload（例如很短的消息）按原文保存。
+ */
+abstract class CompressingPayloadCodec implements PayloadCodec {
+
+    private static final byte STORED = 0;
+    private static final byte COMPRESSED = 1;
+
+    protected abstract byte[] compress(byte[] raw);
+
+    protected abstract byte[] decompress(byte[] data, int offset, int length, int rawLength);
+
+    @Override
+    public final byte[] encode(byte[] raw) {
+        byte[] compressed = compress(raw);
+        int header = 1 + varIntSize(raw.length);
+        if (header + compressed.length >= 1 + raw.length) {
+            byte[] stored = new byte[1 + raw.length];
+            stored[0] = STORED;
+            System.arraycopy(raw, 0, stored, 1, raw.length);
+            return stored;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(header + compressed.length);
+        out.write(COMPRESSED);
+        writeVarInt(out, raw.length);
+        out.writeBytes(compressed);
+        return out.toByteArray();
+    }
+
+    @Override
+    public final byte[] decode(byte[] encoded) {
+        if (encoded.length == 0) {
+            throw new IllegalArgumentException("Empty payload");
+        }
+        if (encoded[0] == STORED) {
+            byte[] raw = new byte[encoded.length - 1];
+            System.arraycopy(encoded, 1, raw, 0, raw.length);
+            return raw;
+        }
+        if (encoded[0] != COMPRESSED) {
+            throw new IllegalArgumentException("Unknown payload flag: " + encoded[0]);
+        }
+        int rawLength = 0;
+        int shift = 0;
+        int position = 1;
+        byte b;
+        do {
+            b = encoded[position++];
+            rawLength |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return decompress(encoded, position, encoded.length - position, rawLength);
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
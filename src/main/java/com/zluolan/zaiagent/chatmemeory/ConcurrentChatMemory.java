@@ -0,0 +1,60 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.util.Assert;
+
+import java.util.List;
+
+/**
+ * 按会话分段加锁的 ChatMemory 装饰器
+ * <p>
+ * {@code MessageWindowChatMemory.add} 是“读取历史 - 合并 - saveAll 整体覆盖”三步，同一会话的两轮对话并发执行时，
+ * 后写入的一方会覆盖先写入的一方，导致一轮对话丢失。这里对 add 和 clear 按会话 id 的哈希分段加锁，
+ * 同一会话的写串行执行，不同会话大多落在不同的锁上互不影响；与具体的 ChatMemoryRepository 无关。
+ * <p>
+ * get 不加锁：各个 Repository 的单次读写本身是原子的，读到的总是某次完整写入后的结果。
+ */
+public class ConcurrentChatMemory implements ChatMemory {
+
+    public static final int DEFAULT_LOCK_STRIPES = StripedLocks.DEFAULT_STRIPES;
+
+    private final ChatMemory delegate;
+
+    private final StripedLocks locks;
+
+    public ConcurrentChatMemory(ChatMemory delegate) {
+        this(delegate, DEFAULT_LOCK_STRIPES);
+    }
+
+    /**
+     * @param delegate    被装饰的 ChatMemory
+     * @param lockStripes 锁分段数
+     */
+    public ConcurrentChatMemory(ChatMemory delegate, int lockStripes) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        this.delegate = delegate;
+        this.locks = new StripedLocks(lockStripes);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        synchronized (locks.lockFor(conversationId)) {
+            delegate.add(conversationId, messages);
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        return delegate.get(conversationId);
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        synchronized (locks.lockFor(conversationId)) {
+            delegate.clear(conversationId);
+        }
+    }
+}
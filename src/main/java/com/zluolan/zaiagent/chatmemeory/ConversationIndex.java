@@ -0,0 +1,267 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 持久化的会话索引（包内使用）
+ * <p>
+ * 内存中按会话 id 排序保存 {@link ConversationInfo}，支持按游标分页；磁盘上是一个追加式日志：
+ * <pre>
+ * header : magic(4) version(2) reserved(2)
+ * record : length(4) crc32(4) type(1) payload(length)
+ * UPSERT : idLength(2) id lastUpdated(8) messageCount(4) byteSize(8)
+ * DELETE : idLength(2) id
+ * </pre>
+ * 新增和删除会话时 fsync，普通更新不 fsync（崩溃后只会丢失最近的计数和时间，会话本身不会丢）。
+ * 日志中的过期记录超过存活记录时整体重写。加载时遇到不完整或校验失败的记录即截断其后的内容，
+ * 截断的字节数由 {@link #truncatedBytes()} 返回，调用方据此扫描磁盘补回丢失的会话。
+ */
+@Slf4j
+final class ConversationIndex implements AutoCloseable {
+
+    static final int MAGIC = 0x5A434958; // "ZCIX"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 9;
+
+    static final byte TYPE_UPSERT = 1;
+    static final byte TYPE_DELETE = 2;
+
+    // 过期记录达到该数量才值得重写
+    private static final int MIN_REWRITE_RECORDS = 1024;
+
+    private final Path path;
+
+    private final NavigableMap<String, ConversationInfo> entries = new ConcurrentSkipListMap<>();
+
+    private FileChannel channel;
+
+    private long end;
+
+    // 日志中的记录总数
+    private long records;
+
+    // 加载时截断的字节数
+    private long truncatedBytes;
+
+    private ConversationIndex(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 打开索引文件，不存在时创建空索引
+     */
+    static ConversationIndex open(Path path) throws IOException {
+        ConversationIndex index = new ConversationIndex(path);
+        if (Files.exists(path)) {
+            index.load();
+        } else {
+            index.rewrite();
+        }
+        return index;
+    }
+
+    private void load() throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+            throw new IOException("Invalid conversation index header: " + path);
+        }
+        int position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= bytes.length) {
+            int length = buffer.getInt(position);
+            int crc = buffer.getInt(position + 4);
+            byte type = buffer.get(position + 8);
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > bytes.length) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(position + RECORD_HEADER_SIZE, payload);
+            if (ConversationLog.crc(type, payload) != crc) {
+                break;
+            }
+            apply(type, ByteBuffer.wrap(payload));
+            records++;
+            position += RECORD_HEADER_SIZE + length;
+        }
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        if (position < bytes.length) {
+            truncatedBytes = bytes.length - position;
+            log.warn("会话索引 {} 在第 {} 条记录后存在未完成或损坏的写入，截断 {} 字节", path.getFileName(), records,
+                    truncatedBytes);
+            channel.truncate(position);
+            channel.force(true);
+        }
+        end = position;
+    }
+
+    private void apply(byte type, ByteBuffer payload) {
+        byte[] id = new byte[payload.getShort() & 0xffff];
+        payload.get(id);
+        String conversationId = new String(id, StandardCharsets.UTF_8);
+        if (type == TYPE_UPSERT) {
+            entries.put(conversationId, new ConversationInfo(conversationId,
+                    Instant.ofEpochMilli(payload.getLong()), payload.getInt(), payload.getLong()));
+        } else if (type == TYPE_DELETE) {
+            entries.remove(conversationId);
+        }
+    }
+
+    /**
+     * 加载时因未完成或损坏的写入而截断的字节数，为 0 表示索引完整
+     */
+    long truncatedBytes() {
+        return truncatedBytes;
+    }
+
+    ConversationInfo get(String conversationId) {
+        return entries.get(conversationId);
+    }
+
+    boolean contains(String conversationId) {
+        return entries.containsKey(conversationId);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    List<String> ids() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * 按 id 顺序返回游标之后的最多 limit 项
+     *
+     * @param afterId 上一页最后一个 id，为 null 时从头开始
+     */
+    List<ConversationInfo> page(String afterId, int limit) {
+        NavigableMap<String, ConversationInfo> tail = afterId == null ? entries : entries.tailMap(afterId, false);
+        List<ConversationInfo> page = new ArrayList<>(Math.min(limit, 256));
+        for (ConversationInfo info : tail.values()) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.add(info);
+        }
+        return page;
+    }
+
+    synchronized void upsert(ConversationInfo info) throws IOException {
+        ConversationInfo previous = entries.put(info.conversationId(), info);
+        try {
+            write(TYPE_UPSERT, encode(info), previous == null);
+        } catch (IOException e) {
+            restore(info.conversationId(), previous);
+            throw e;
+        }
+    }
+
+    synchronized void remove(String conversationId) throws IOException {
+        ConversationInfo previous = entries.remove(conversationId);
+        if (previous == null) {
+            return;
+        }
+        byte[] id = conversationId.getBytes(StandardCharsets.UTF_8);
+        try {
+            write(TYPE_DELETE, ByteBuffer.allocate(2 + id.length).putShort((short) id.length).put(id).array(), true);
+        } catch (IOException e) {
+            restore(conversationId, previous);
+            throw e;
+        }
+    }
+
+    private void restore(String conversationId, ConversationInfo previous) {
+        if (previous == null) {
+            entries.remove(conversationId);
+        } else {
+            entries.put(conversationId, previous);
+        }
+    }
+
+    private void write(byte type, byte[] payload, boolean fsync) throws IOException {
+        end = writeRecord(channel, end, type, payload);
+        if (fsync) {
+            channel.force(false);
+        }
+        records++;
+        long stale = records - entries.size();
+        if (stale >= MIN_REWRITE_RECORDS && stale > entries.size()) {
+            rewrite();
+        }
+    }
+
+    /**
+     * 只把存活项写入新文件，再原子替换
+     */
+    private synchronized void rewrite() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort(VERSION).putShort((short) 0).flip();
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += out.write(header, position);
+            }
+            for (ConversationInfo info : entries.values()) {
+                position = writeRecord(out, position, TYPE_UPSERT, encode(info));
+            }
+            out.force(true);
+            end = position;
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        records = entries.size();
+    }
+
+    private static byte[] encode(ConversationInfo info) {
+        byte[] id = info.conversationId().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(2 + id.length + 20)
+                .putShort((short) id.length)
+                .put(id)
+                .putLong(info.lastUpdated().toEpochMilli())
+                .putInt(info.messageCount())
+                .putLong(info.byteSize())
+                .array();
+    }
+
+    /**
+     * @return 写入后的位置
+     */
+    private static long writeRecord(FileChannel out, long position, byte type, byte[] payload) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length)
+                .putInt(payload.length)
+                .putInt(ConversationLog.crc(type, payload))
+                .put(type)
+                .put(payload)
+                .flip();
+        while (record.hasRemaining()) {
+            position += out.write(record, position);
+        }
+        return position;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import java.time.Instant;
+
+/**
+ * 会话索引中的一项
+ *
+ * @param conversationId 会话 id
+ * @param lastUpdated    最后一次写入时间
+ * @param messageCount   存活消息数
+ * @param byteSize       日志文件大小（字节）
+ */
+public record ConversationInfo(String conversationId, Instant lastUpdated, int messageCount, long byteSize) {
+}
@@ -0,0 +1,593 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * 单个会话的追加式日志文件（包内使用）
+ * <p>
+ * 日志文件 {@code <id>.log} 结构：
+ * <pre>
+ * header : magic(4) version(2) format(2) generation(8)
+ * record : length(4) crc32(4) type(1) payload(length)
+ * </pre>
+ * 记录类型有 MESSAGE（一条序列化后的消息）、TRIM（丢弃最早的 n 条消息）和 CLEAR（丢弃全部消息），
+ * 每次 saveAll 写入的一批记录中最后一条带 COMMIT 标记，恢复时未提交的记录视为未写完。
+ * crc32 覆盖记录类型（不含 COMMIT 标记）和 payload，因此同一条消息无论是否位于批次末尾校验值都相同，可直接用于差异比较。
+ * format 由调用方定义，标识 payload 的编码格式，日志本身不解释 payload。
+ * <p>
+ * 旁路索引文件 {@code <id>.idx} 与日志一一对应地记录每条记录的 type/length/crc/参数，
+ * 打开时只需读取索引即可得到存活消息的位置，不必扫描整个日志；索引只在日志 fsync 之后追加，
+ * 并通过 generation 与日志绑定，缺失、损坏或落后时从日志中恢复。
+ * <p>
+ * 非线程安全，由调用方按会话加锁。
+ */
+@Slf4j
+final class ConversationLog {
+
+    static final int MAGIC = 0x5A434D4C; // "ZCML"
+    static final int INDEX_MAGIC = 0x5A434D49; // "ZCMI"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 9;
+    static final int INDEX_ENTRY_SIZE = 13;
+
+    static final byte TYPE_MESSAGE = 1;
+    static final byte TYPE_TRIM = 2;
+    static final byte TYPE_CLEAR = 3;
+    static final byte COMMIT_FLAG = (byte) 0x80;
+
+    // 单条记录的长度上限，超出视为损坏
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * 一条存活消息在日志中的位置
+     *
+     * @param offset 记录起始位置
+     * @param length payload 长度
+     * @param crc    type + payload 的 crc32
+     */
+    record Entry(long offset, int length, int crc) {
+
+        long recordSize() {
+            return RECORD_HEADER_SIZE + (long) length;
+        }
+    }
+
+    /**
+     * 一条日志记录的元数据（同时也是一条索引项）
+     */
+    private record IndexEntry(byte type, int length, int crc, int arg) {
+    }
+
+    private final Path logPath;
+    private final Path indexPath;
+
+    // payload 编码格式
+    private short format;
+
+    // 日志与索引的绑定标识，每次新建或压缩后更换
+    private long generation;
+
+    // 已提交数据的末尾位置
+    private long end;
+
+    // 索引文件中已写入的项数
+    private long indexEntries;
+
+    private final List<Entry> live = new ArrayList<>();
+    private long liveBytes;
+    private long deadBytes;
+
+    // 已删除，持有旧引用的调用方需要重新获取
+    private boolean deleted;
+
+    // 已从打开的日志中移出，持有旧引用的调用方需要重新打开
+    private boolean evicted;
+
+    // 最近一次访问的时间（System.nanoTime），用于淘汰最久未访问的日志
+    private volatile long lastAccessNanos = System.nanoTime();
+
+    private ConversationLog(Path logPath, Path indexPath) {
+        this.logPath = logPath;
+        this.indexPath = indexPath;
+    }
+
+    /**
+     * 创建一个空日志，已存在的同名文件会被覆盖
+     *
+     * @param format payload 编码格式
+     */
+    static ConversationLog create(Path logPath, Path indexPath, short format) throws IOException {
+        ConversationLog conversationLog = new ConversationLog(logPath, indexPath);
+        conversationLog.format = format;
+        conversationLog.generation = ThreadLocalRandom.current().nextLong();
+        writeFile(logPath, header(MAGIC, format, conversationLog.generation), true);
+        writeFile(indexPath, header(INDEX_MAGIC, format, conversationLog.generation), false);
+        conversationLog.end = HEADER_SIZE;
+        return conversationLog;
+    }
+
+    /**
+     * 打开已有日志：优先读取索引，再从日志中补齐索引之后的记录，最后截断未提交或损坏的尾部
+     */
+    static ConversationLog open(Path logPath, Path indexPath) throws IOException {
+        ConversationLog conversationLog = new ConversationLog(logPath, indexPath);
+        conversationLog.recover();
+        return conversationLog;
+    }
+
+    private void recover() throws IOException {
+        List<IndexEntry> committed = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (size < HEADER_SIZE || readFully(channel, header, 0) < HEADER_SIZE
+                    || header.getInt(0) != MAGIC || header.getShort(4) != VERSION) {
+                throw new IOException("Invalid conversation log header: " + logPath);
+            }
+            format = header.getShort(6);
+            generation = header.getLong(8);
+
+            // 1. 读取索引
+            List<IndexEntry> pending = new ArrayList<>();
+            long position = HEADER_SIZE;
+            long committedEnd = HEADER_SIZE;
+            boolean indexUsable = readIndex(committed, pending, size);
+            for (IndexEntry entry : committed) {
+                position += RECORD_HEADER_SIZE + (long) entry.length();
+            }
+            committedEnd = position;
+            boolean indexDirty = !indexUsable || !pending.isEmpty();
+            pending.clear();
+            if (!committed.isEmpty() && !verifyRecord(channel, committed.get(committed.size() - 1), position)) {
+                // 索引描述的数据没有真正落盘（例如未 fsync 时掉电），放弃索引，全量扫描日志
+                log.warn("会话索引 {} 与日志不一致，从日志重建", indexPath.getFileName());
+                committed.clear();
+                position = HEADER_SIZE;
+                committedEnd = HEADER_SIZE;
+                indexDirty = true;
+            }
+
+            // 2. 从日志中补齐索引之后的记录
+            List<IndexEntry> scanned = new ArrayList<>();
+            ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            while (position + RECORD_HEADER_SIZE <= size) {
+                recordHeader.clear();
+                if (readFully(channel, recordHeader, position) < RECORD_HEADER_SIZE) {
+                    break;
+                }
+                int length = recordHeader.getInt(0);
+                int crc = recordHeader.getInt(4);
+                byte type = recordHeader.get(8);
+                if (length < 0 || length > MAX_RECORD_SIZE || position + RECORD_HEADER_SIZE + length > size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if (readFully(channel, payload, position + RECORD_HEADER_SIZE) < length
+                        || crc(type, payload.array()) != crc) {
+                    break;
+                }
+                int arg = (type & ~COMMIT_FLAG) == TYPE_TRIM && length >= 4 ? payload.getInt(0) : 0;
+                pending.add(new IndexEntry(type, length, crc, arg));
+                position += RECORD_HEADER_SIZE + length;
+                if ((type & COMMIT_FLAG) != 0) {
+                    scanned.addAll(pending);
+                    pending.clear();
+                    committedEnd = position;
+                }
+            }
+
+            // 3. 截断未提交或损坏的尾部
+            if (committedEnd < size) {
+                log.warn("会话日志 {} 尾部存在未完成的写入，截断 {} 字节", logPath.getFileName(), size - committedEnd);
+                channel.truncate(committedEnd);
+                channel.force(true);
+            }
+            end = committedEnd;
+            indexEntries = committed.size();
+            committed.addAll(scanned);
+            if (indexDirty) {
+                rewriteIndex(committed);
+            } else if (!scanned.isEmpty()) {
+                appendIndex(scanned);
+            }
+        }
+        replay(committed);
+    }
+
+    /**
+     * 读取索引中已提交的项
+     *
+     * @return 索引是否可用（存在且与日志匹配）
+     */
+    private boolean readIndex(List<IndexEntry> committed, List<IndexEntry> pending, long logSize) throws IOException {
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        byte[] bytes = Files.readAllBytes(indexPath);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE || buffer.getInt(0) != INDEX_MAGIC || buffer.getShort(4) != VERSION
+                || buffer.getLong(8) != generation) {
+            return false;
+        }
+        long position = HEADER_SIZE;
+        long count = (bytes.length - HEADER_SIZE) / INDEX_ENTRY_SIZE;
+        buffer.position(HEADER_SIZE);
+        for (long i = 0; i < count; i++) {
+            IndexEntry entry = new IndexEntry(buffer.get(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+            position += RECORD_HEADER_SIZE + (long) entry.length();
+            if (entry.length() < 0 || position > logSize) {
+                // 索引超出日志（日志尾部已被截断），剩余部分从日志中恢复
+                pending.add(entry);
+                return true;
+            }
+            pending.add(entry);
+            if ((entry.type() & COMMIT_FLAG) != 0) {
+                committed.addAll(pending);
+                pending.clear();
+            }
+        }
+        // 末尾不完整的索引项或未提交的项需要重写
+        if ((bytes.length - HEADER_SIZE) % INDEX_ENTRY_SIZE != 0) {
+            pending.add(null);
+        }
+        return true;
+    }
+
+    /**
+     * 校验结束于 recordEnd 的一条记录
+     */
+    private static boolean verifyRecord(FileChannel channel, IndexEntry entry, long recordEnd) throws IOException {
+        long payloadPosition = recordEnd - entry.length();
+        ByteBuffer payload = ByteBuffer.allocate(entry.length());
+        return readFully(channel, payload, payloadPosition) == entry.length()
+                && crc(entry.type(), payload.array()) == entry.crc();
+    }
+
+    private void replay(List<IndexEntry> entries) {
+        live.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+        long position = HEADER_SIZE;
+        for (IndexEntry entry : entries) {
+            apply(entry, position);
+            position += RECORD_HEADER_SIZE + (long) entry.length();
+        }
+    }
+
+    private void apply(IndexEntry entry, long position) {
+        long recordSize = RECORD_HEADER_SIZE + (long) entry.length();
+        switch (entry.type() & ~COMMIT_FLAG) {
+            case TYPE_MESSAGE -> {
+                live.add(new Entry(position, entry.length(), entry.crc()));
+                liveBytes += recordSize;
+            }
+            case TYPE_TRIM -> {
+                dropHead(Math.min(entry.arg(), live.size()));
+                deadBytes += recordSize;
+            }
+            case TYPE_CLEAR -> {
+                dropHead(live.size());
+                deadBytes += recordSize;
+            }
+            default -> deadBytes += recordSize;
+        }
+    }
+
+    private void dropHead(int count) {
+        List<Entry> head = live.subList(0, count);
+        for (Entry entry : head) {
+            liveBytes -= entry.recordSize();
+            deadBytes += entry.recordSize();
+        }
+        head.clear();
+    }
+
+    /**
+     * 把存活消息同步为给定的完整列表，只追加差异部分
+     * <p>
+     * 查找最长的重叠：现有存活消息的后缀等于新列表的前缀时，丢弃前面多余的消息（TRIM）并追加新列表剩余部分；
+     * 找不到重叠时整体重写（CLEAR + 全部追加），空间由压缩回收。
+     *
+     * @param payloads 完整的消息列表（已序列化）
+     * @param fsync    是否在返回前 fsync
+     * @return 写入的记录数
+     */
+    int sync(List<byte[]> payloads, boolean fsync) throws IOException {
+        checkOpen();
+        int n = live.size();
+        int m = payloads.size();
+        int[] crcs = new int[m];
+        for (int i = 0; i < m; i++) {
+            crcs[i] = crc(TYPE_MESSAGE, payloads.get(i));
+        }
+        int skip = n;
+        for (int start = Math.max(0, n - m); start < n; start++) {
+            if (overlaps(start, payloads, crcs)) {
+                skip = start;
+                break;
+            }
+        }
+        int overlap = n - skip;
+
+        List<IndexEntry> records = new ArrayList<>();
+        List<byte[]> recordPayloads = new ArrayList<>();
+        if (overlap == 0 && n > 0) {
+            records.add(new IndexEntry(TYPE_CLEAR, 0, crc(TYPE_CLEAR, new byte[0]), 0));
+            recordPayloads.add(new byte[0]);
+        } else if (skip > 0) {
+            byte[] payload = ByteBuffer.allocate(4).putInt(skip).array();
+            records.add(new IndexEntry(TYPE_TRIM, 4, crc(TYPE_TRIM, payload), skip));
+            recordPayloads.add(payload);
+        }
+        for (int i = overlap; i < m; i++) {
+            records.add(new IndexEntry(TYPE_MESSAGE, payloads.get(i).length, crcs[i], 0));
+            recordPayloads.add(payloads.get(i));
+        }
+        if (records.isEmpty()) {
+            return 0;
+        }
+        append(records, recordPayloads, fsync);
+        return records.size();
+    }
+
+    private boolean overlaps(int start, List<byte[]> payloads, int[] crcs) {
+        for (int i = start, j = 0; i < live.size(); i++, j++) {
+            Entry entry = live.get(i);
+            if (entry.length() != payloads.get(j).length || entry.crc() != crcs[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(List<IndexEntry> records, List<byte[]> payloads, boolean fsync) throws IOException {
+        // 最后一条记录带提交标记，整批要么全部可见要么全部丢弃
+        int last = records.size() - 1;
+        IndexEntry lastRecord = records.get(last);
+        records.set(last, new IndexEntry((byte) (lastRecord.type() | COMMIT_FLAG), lastRecord.length(),
+                lastRecord.crc(), lastRecord.arg()));
+
+        long total = 0;
+        for (IndexEntry record : records) {
+            total += RECORD_HEADER_SIZE + (long) record.length();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(total));
+        for (int i = 0; i < records.size(); i++) {
+            IndexEntry record = records.get(i);
+            buffer.putInt(record.length()).putInt(record.crc()).put(record.type()).put(payloads.get(i));
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+            try {
+                writeFully(channel, buffer, end);
+                if (fsync) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                // 尽量清理写了一半的数据，即使失败恢复时也会按未提交处理
+                channel.truncate(end);
+                throw e;
+            }
+        }
+        long position = end;
+        for (IndexEntry record : records) {
+            apply(record, position);
+            position += RECORD_HEADER_SIZE + (long) record.length();
+        }
+        end = position;
+        appendIndex(records);
+    }
+
+    /**
+     * 读取存活消息中从 fromIndex 开始的 payload，校验失败的记录会被跳过
+     */
+    List<byte[]> read(int fromIndex) throws IOException {
+        checkOpen();
+        List<byte[]> result = new ArrayList<>(Math.max(0, live.size() - fromIndex));
+        if (fromIndex >= live.size()) {
+            return result;
+        }
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            for (int i = Math.max(0, fromIndex); i < live.size(); i++) {
+                Entry entry = live.get(i);
+                ByteBuffer payload = ByteBuffer.allocate(entry.length());
+                readFully(channel, payload, entry.offset() + RECORD_HEADER_SIZE);
+                if (crc(TYPE_MESSAGE, payload.array()) != entry.crc()) {
+                    log.error("会话日志 {} 偏移 {} 处的记录校验失败，已跳过", logPath.getFileName(), entry.offset());
+                    continue;
+                }
+                result.add(payload.array());
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return live.size();
+    }
+
+    short format() {
+        return format;
+    }
+
+    /**
+     * 日志文件中已提交数据的大小
+     */
+    long fileSize() {
+        return end;
+    }
+
+    /**
+     * 死记录占用超过存活记录且超过最小阈值时需要压缩
+     */
+    boolean needsCompaction(long minDeadBytes) {
+        return !deleted && !evicted && deadBytes >= minDeadBytes && deadBytes >= liveBytes;
+    }
+
+    long deadBytes() {
+        return deadBytes;
+    }
+
+    /**
+     * 压缩：只把存活消息复制到新文件，再原子替换日志和索引
+     */
+    void compact() throws IOException {
+        checkOpen();
+        rewrite(read(0), format);
+    }
+
+    /**
+     * 用给定的消息和编码格式重写整个日志，再原子替换日志和索引
+     */
+    void rewrite(List<byte[]> payloads, short newFormat) throws IOException {
+        checkOpen();
+        Path tmpLog = logPath.resolveSibling(logPath.getFileName() + ".compact");
+        Path tmpIndex = indexPath.resolveSibling(indexPath.getFileName() + ".compact");
+        long before = end;
+        ConversationLog compacted = create(tmpLog, tmpIndex, newFormat);
+        if (!payloads.isEmpty()) {
+            List<IndexEntry> records = new ArrayList<>(payloads.size());
+            for (byte[] payload : payloads) {
+                records.add(new IndexEntry(TYPE_MESSAGE, payload.length, crc(TYPE_MESSAGE, payload), 0));
+            }
+            compacted.append(records, payloads, true);
+        }
+        Files.move(tmpLog, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tmpIndex, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        format = newFormat;
+        generation = compacted.generation;
+        end = compacted.end;
+        indexEntries = compacted.indexEntries;
+        live.clear();
+        live.addAll(compacted.live);
+        liveBytes = compacted.liveBytes;
+        deadBytes = 0;
+        log.info("会话日志 {} 重写完成: {} -> {} 字节", logPath.getFileName(), before, end);
+    }
+
+    void delete() throws IOException {
+        deleted = true;
+        Files.deleteIfExists(logPath);
+        Files.deleteIfExists(indexPath);
+        live.clear();
+    }
+
+    boolean isDeleted() {
+        return deleted;
+    }
+
+    /**
+     * 释放内存中的索引，文件保持不变，之后需要重新打开
+     */
+    void evict() {
+        evicted = true;
+        live.clear();
+    }
+
+    boolean isEvicted() {
+        return evicted;
+    }
+
+    void touch() {
+        lastAccessNanos = System.nanoTime();
+    }
+
+    long lastAccessNanos() {
+        return lastAccessNanos;
+    }
+
+    private void checkOpen() {
+        if (deleted) {
+            throw new IllegalStateException("Conversation log has been deleted: " + logPath);
+        }
+        if (evicted) {
+            throw new IllegalStateException("Conversation log has been evicted: " + logPath);
+        }
+    }
+
+    private void appendIndex(List<IndexEntry> entries) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entries.size() * INDEX_ENTRY_SIZE);
+        for (IndexEntry entry : entries) {
+            buffer.put(entry.type()).putInt(entry.length()).putInt(entry.crc()).putInt(entry.arg());
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+            writeFully(channel, buffer, HEADER_SIZE + indexEntries * INDEX_ENTRY_SIZE);
+        } catch (IOException e) {
+            // 索引只是加速结构，写入失败时下次打开会从日志重建
+            log.warn("写入会话索引 {} 失败: {}", indexPath.getFileName(), e.getMessage());
+            Files.deleteIfExists(indexPath);
+            return;
+        }
+        indexEntries += entries.size();
+    }
+
+    private void rewriteIndex(List<IndexEntry> entries) throws IOException {
+        Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        writeFile(tmp, header(INDEX_MAGIC, format, generation), false);
+        Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexEntries = 0;
+        if (!entries.isEmpty()) {
+            appendIndex(entries);
+        }
+    }
+
+    private static byte[] header(int magic, short format, long generation) {
+        return ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(magic)
+                .putShort(VERSION)
+                .putShort(format)
+                .putLong(generation)
+                .array();
+    }
+
+    private static void writeFile(Path path, byte[] content, boolean fsync) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(content), 0);
+            if (fsync) {
+                channel.force(true);
+            }
+        }
+    }
+
+    static int crc(byte type, byte[] payload) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(type & ~COMMIT_FLAG);
+        crc32.update(payload);
+        return (int) crc32.getValue();
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        buffer.flip();
+        return total;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+    }
+}
@@ -1,67 +1,230 @@
 package com.zluolan.zaiagent.chatmemeory;
 
-import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
-import org.objenesis.strategy.StdInstantiatorStrategy;
+import com.github.luben.zstd.Zstd;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.memory.ChatMemoryRepository;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.util.Assert;
 
-import java.io.*;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 /**
  * 基于文件持久化的 ChatMemoryRepository 实现
- * 使用 Kryo 序列化/反序列化 List<Message>
+ * 使用 {@link KryoMessageSerializer} 序列化单条 Message，每个会话一个追加式日志文件（见 {@link ConversationLog}）：
+ * saveAll 只追加与已有内容相比新增的消息，读取时根据索引只读存活的消息，
+ * 后台定期压缩回收被淘汰消息占用的空间。旧版整文件格式（{@code <id>.kryo}）和旧编码格式的日志在首次访问时自动迁移。
+ * <p>
+ * 会话文件按 id 的哈希分散到两级子目录（{@code ab/cd/<id>.log}），避免单个目录下文件过多；
+ * 会话列表、更新时间、消息数和大小记录在持久化的会话索引中（见 {@link ConversationIndex}），
+ * 列举和分页不需要扫描目录。启动时自动把旧版平铺目录中的文件迁移到分片目录。
+ * <p>
+ * 每条记录的 payload 先序列化再用 {@link PayloadCodec} 压缩，默认使用 LZ4。日志头部的 format
+ * 高字节记录编解码器 id、低字节记录序列化格式，打开与当前配置不一致的日志时自动重写。
+ * Zstd 字典保存在 {@code dictionaries/} 目录下并在启动时全部加载，更换字典后旧记录仍可解压，
+ * 因此字典文件不能删除。
+ * <p>
+ * 内存中最多保留 maxOpenLogs 个会话日志的索引，超出时按最近访问时间淘汰，淘汰的会话下次访问时重新打开。
  */
-public class FileBasedChatMemoryRepository implements ChatMemoryRepository {
+@Slf4j
+public class FileBasedChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
 
-    private final String BASE_DIR;
-    private static final Kryo kryo = new Kryo();
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String LEGACY_SUFFIX = ".kryo";
+    private static final String CONVERSATION_INDEX_FILE = "conversations.index";
+    private static final String DICTIONARY_DIR = "dictionaries";
+    private static final String DICTIONARY_SUFFIX = ".zdict";
 
-    static {
-        kryo.setRegistrationRequired(false);
-        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
-    }
+    // 死记录至少达到该大小才值得压缩
+    private static final long MIN_COMPACTION_BYTES = 64 * 1024;
+
+    public static final int DEFAULT_MAX_OPEN_LOGS = 1024;
+
+    // 超出上限时淘汰到该比例以下，避免每次打开都触发淘汰
+    private static final double OPEN_LOGS_LOW_WATERMARK = 0.9;
+
+    private final Path baseDir;
+
+    private final KryoMessageSerializer serializer = KryoMessageSerializer.getInstance();
+
+    private final ConversationIndex index;
+
+    // 写入使用的编解码器
+    private final PayloadCodec codec;
+
+    // 按编解码器 id 解码，Zstd 解码器包含全部已保存的字典
+    private final Map<Byte, PayloadCodec> decoders = new HashMap<>();
+
+    // 当前日志头部的 format
+    private final short logFormat;
+
+    // 已打开的会话日志（只保存索引，文件句柄按需打开）
+    private final Map<String, ConversationLog> logs = new ConcurrentHashMap<>();
+
+    // 打开日志时按会话加锁，打开过程中的读文件和格式升级不占用 logs 的桶锁
+    private final StripedLocks openLocks = new StripedLocks();
+
+    private final int maxOpenLogs;
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    // 后台压缩线程
+    private final ScheduledExecutorService compactor;
 
     public FileBasedChatMemoryRepository(String dir) {
+        this(dir, Duration.ofMinutes(1));
+    }
+
+    /**
+     * @param dir                存储目录
+     * @param compactionInterval 后台压缩检查间隔
+     */
+    public FileBasedChatMemoryRepository(String dir, Duration compactionInterval) {
+        this(dir, compactionInterval, new Lz4PayloadCodec());
+    }
+
+    /**
+     * @param dir                存储目录
+     * @param compactionInterval 后台压缩检查间隔
+     * @param codec              payload 编解码器
+     */
+    public FileBasedChatMemoryRepository(String dir, Duration compactionInterval, PayloadCodec codec) {
+        this(dir, compactionInterval, codec, DEFAULT_MAX_OPEN_LOGS);
+    }
+
+    /**
+     * @param dir                存储目录
+     * @param compactionInterval 后台压缩检查间隔
+     * @param codec              payload 编解码器
+     * @param maxOpenLogs        内存中最多保留的会话日志数
+     */
+    public FileBasedChatMemoryRepository(String dir, Duration compactionInterval, PayloadCodec codec, int maxOpenLogs) {
         Assert.hasText(dir, "base dir cannot be null or empty");
-        this.BASE_DIR = dir;
-        File baseDir = new File(dir);
-        if (!baseDir.exists()) {
-            baseDir.mkdirs();
+        Assert.isTrue(compactionInterval != null && !compactionInterval.isNegative() && !compactionInterval.isZero(),
+                "compactionInterval must be positive");
+        Assert.notNull(codec, "codec cannot be null");
+        Assert.isTrue(maxOpenLogs > 0, "maxOpenLogs must be positive");
+        this.baseDir = Path.of(dir);
+        this.maxOpenLogs = maxOpenLogs;
+        this.codec = codec;
+        this.logFormat = logFormat(codec.id(), KryoMessageSerializer.FORMAT);
+        try {
+            Files.createDirectories(baseDir);
+            initDecoders();
+            Path indexPath = baseDir.resolve(CONVERSATION_INDEX_FILE);
+            boolean rebuild = !Files.exists(indexPath);
+            ConversationIndex opened;
+            try {
+                opened = ConversationIndex.open(indexPath);
+            } catch (IOException e) {
+                log.warn("会话索引损坏，重新构建: {}", e.getMessage());
+                Files.delete(indexPath);
+                opened = ConversationIndex.open(indexPath);
+                rebuild = true;
+            }
+            if (opened.truncatedBytes() > 0) {
+                // 截断的记录中可能有新建会话，扫描磁盘补回
+                rebuild = true;
+            }
+            this.index = opened;
+            List<String> migrated = migrateFlatLayout();
+            if (rebuild) {
+                rebuildIndex();
+            } else {
+                for (String conversationId : migrated) {
+                    indexExisting(conversationId);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to initialize chat memory directory " + dir, e);
         }
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = compactionInterval.toMillis();
+        compactor.scheduleWithFixedDelay(this::compactAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public List<String> findConversationIds() {
-        File baseDir = new File(BASE_DIR);
-        File[] files = baseDir.listFiles((d, name) -> name.endsWith(".kryo"));
-        List<String> ids = new ArrayList<>();
-        if (files != null) {
-            for (File f : files) {
-                String name = f.getName();
-                ids.add(name.substring(0, name.length() - 5)); // 去掉 .kryo
-            }
-        }
-        return ids;
+        return index.ids();
+    }
+
+    /**
+     * 按会话 id 顺序分页列举会话
+     *
+     * @param afterId 上一页最后一个会话 id，为 null 时从第一页开始
+     * @param limit   每页条数
+     */
+    public List<ConversationInfo> findConversations(String afterId, int limit) {
+        Assert.isTrue(limit > 0, "limit must be positive");
+        return index.page(afterId, limit);
+    }
+
+    /**
+     * 会话总数
+     */
+    public int countConversations() {
+        return index.size();
+    }
+
+    /**
+     * 查询会话的索引信息，不存在时返回 null
+     */
+    public ConversationInfo getConversationInfo(String conversationId) {
+        return index.get(conversationId);
     }
 
     @Override
     public List<Message> findByConversationId(String conversationId) {
+        return findLastMessages(conversationId, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 只读取会话最近的 lastN 条消息，无需反序列化更早的历史
+     *
+     * @param conversationId 会话 id
+     * @param lastN          最多读取的条数
+     * @return 按时间顺序排列的消息
+     */
+    public List<Message> findLastMessages(String conversationId, int lastN) {
         Assert.hasText(conversationId, "conversationId cannot be null or empty");
-        File file = getConversationFile(conversationId);
-        if (!file.exists()) {
+        Assert.isTrue(lastN >= 0, "lastN cannot be negative");
+        List<byte[]> payloads = withLog(conversationId, false,
+                conversationLog -> conversationLog.read(Math.max(0, conversationLog.size() - lastN)));
+        if (payloads == null) {
             return new ArrayList<>();
         }
-        try (Input input = new Input(new FileInputStream(file))) {
-            return kryo.readObject(input, ArrayList.class);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return new ArrayList<>();
+        PayloadCodec decoder = decoder(codec.id());
+        List<Message> messages = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            messages.add(serializer.deserialize(decoder.decode(payload)));
         }
+        return messages;
     }
 
     @Override
@@ -70,24 +233,420 @@ public class FileBasedChatMemoryRepository implements ChatMemoryRepository {
         Assert.notNull(messages, "messages cannot be null");
         Assert.noNullElements(messages, "messages cannot contain null elements");
 
-        File file = getConversationFile(conversationId);
-        try (Output output = new Output(new FileOutputStream(file))) {
-            kryo.writeObject(output, new ArrayList<>(messages));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        List<byte[]> payloads = encodeAll(messages);
+        withLog(conversationId, true, conversationLog -> {
+            conversationLog.sync(payloads, true);
+            index.upsert(new ConversationInfo(conversationId, Instant.now(), conversationLog.size(),
+                    conversationLog.fileSize()));
+            return null;
+        });
     }
 
     @Override
     public void deleteByConversationId(String conversationId) {
         Assert.hasText(conversationId, "conversationId cannot be null or empty");
-        File file = getConversationFile(conversationId);
-        if (file.exists()) {
-            file.delete();
+        withLog(conversationId, false, conversationLog -> {
+            conversationLog.delete();
+            logs.remove(conversationId, conversationLog);
+            index.remove(conversationId);
+            return null;
+        });
+        try {
+            Files.deleteIfExists(legacyPath(conversationId));
+        } catch (IOException e) {
+            log.warn("删除会话失败: {}", conversationId, e);
+        }
+    }
+
+    /**
+     * 立即压缩指定会话的日志
+     */
+    public void compact(String conversationId) {
+        withLog(conversationId, false, conversationLog -> {
+            conversationLog.compact();
+            updateSize(conversationId, conversationLog);
+            return null;
+        });
+    }
+
+    /**
+     * 当前内存中打开的会话日志数
+     */
+    int openLogCount() {
+        return logs.size();
+    }
+
+    /**
+     * 压缩所有死记录过多的会话日志，由后台线程定期调用
+     */
+    public void compactAll() {
+        for (Map.Entry<String, ConversationLog> entry : logs.entrySet()) {
+            ConversationLog conversationLog = entry.getValue();
+            synchronized (conversationLog) {
+                if (!conversationLog.needsCompaction(MIN_COMPACTION_BYTES)) {
+                    continue;
+                }
+                try {
+                    conversationLog.compact();
+                    updateSize(entry.getKey(), conversationLog);
+                } catch (IOException | RuntimeException e) {
+                    log.error("压缩会话日志失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从已保存的会话中抽样训练 Zstd 字典，用法：
+     * {@code new ZstdPayloadCodec(level, List.of(repository.trainDictionary(1000, 16 * 1024)))}
+     *
+     * @param maxSamples     最多抽样的消息数
+     * @param dictionarySize 字典大小上限
+     */
+    public byte[] trainDictionary(int maxSamples, int dictionarySize) {
+        Assert.isTrue(maxSamples > 0, "maxSamples must be positive");
+        PayloadCodec decoder = decoder(codec.id());
+        List<byte[]> samples = new ArrayList<>();
+        for (String conversationId : index.ids()) {
+            List<byte[]> payloads = withLog(conversationId, false, conversationLog -> conversationLog.read(0));
+            if (payloads == null) {
+                continue;
+            }
+            for (byte[] payload : payloads) {
+                if (samples.size() >= maxSamples) {
+                    return ZstdPayloadCodec.trainDictionary(samples, dictionarySize);
+                }
+                samples.add(decoder.decode(payload));
+            }
+        }
+        return ZstdPayloadCodec.trainDictionary(samples, dictionarySize);
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdownNow();
+        try {
+            index.close();
+        } catch (IOException e) {
+            log.warn("关闭会话索引失败", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface LogOperation<T> {
+        T apply(ConversationLog conversationLog) throws IOException;
+    }
+
+    /**
+     * 在会话锁内执行操作
+     *
+     * @param create 会话不存在时是否创建
+     * @return 操作结果，会话不存在且不创建时返回 null
+     */
+    private <T> T withLog(String conversationId, boolean create, LogOperation<T> operation) {
+        while (true) {
+            ConversationLog conversationLog = logs.get(conversationId);
+            if (conversationLog == null) {
+                // 新建日志前先写入索引，不在索引中的会话一定不存在，不必访问文件系统
+                if (!create && !index.contains(conversationId)) {
+                    return null;
+                }
+                conversationLog = openLog(conversationId, create);
+                if (conversationLog == null) {
+                    return null;
+                }
+            }
+            T result;
+            synchronized (conversationLog) {
+                // 等锁期间会话被删除或淘汰，重新获取
+                if (conversationLog.isDeleted() || conversationLog.isEvicted()) {
+                    logs.remove(conversationId, conversationLog);
+                    continue;
+                }
+                conversationLog.touch();
+                try {
+                    result = operation.apply(conversationLog);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to access conversation " + conversationId, e);
+                }
+            }
+            // 不持有任何会话锁时再淘汰，避免锁顺序问题
+            evictExcessLogs();
+            return result;
+        }
+    }
+
+    /**
+     * 打开会话日志并放入 logs；同一会话同时只有一个线程打开，已被其他线程打开时直接返回
+     *
+     * @return 会话不存在且不创建时返回 null
+     */
+    private ConversationLog openLog(String conversationId, boolean create) {
+        synchronized (openLocks.lockFor(conversationId)) {
+            ConversationLog existing = logs.get(conversationId);
+            if (existing != null) {
+                return existing;
+            }
+            ConversationLog opened;
+            try {
+                opened = open(conversationId, create);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open conversation " + conversationId, e);
+            }
+            if (opened != null) {
+                logs.put(conversationId, opened);
+            }
+            return opened;
+        }
+    }
+
+    private ConversationLog open(String conversationId, boolean create) throws IOException {
+        Path logPath = logPath(conversationId);
+        Path indexPath = indexPath(conversationId);
+        if (Files.exists(logPath)) {
+            ConversationLog conversationLog = ConversationLog.open(logPath, indexPath);
+            if (conversationLog.format() != logFormat) {
+                upgrade(conversationLog);
+            }
+            return conversationLog;
+        }
+        Path legacyPath = legacyPath(conversationId);
+        if (Files.exists(legacyPath)) {
+            return migrate(legacyPath, logPath, indexPath);
+        }
+        if (!create) {
+            // 新建日志前崩溃留下的索引项，对应的日志从未写入
+            log.warn("会话 {} 在索引中但日志不存在，移除索引项", conversationId);
+            index.remove(conversationId);
+            return null;
+        }
+        // 先写索引（新增项会 fsync）再建日志：崩溃时最多留下没有日志的索引项，不会留下索引找不到的日志
+        if (!index.contains(conversationId)) {
+            index.upsert(new ConversationInfo(conversationId, Instant.now(), 0, 0));
+        }
+        Files.createDirectories(logPath.getParent());
+        return ConversationLog.create(logPath, indexPath, logFormat);
+    }
+
+    private record OpenLog(String conversationId, ConversationLog conversationLog, long lastAccessNanos) {
+    }
+
+    /**
+     * 打开的日志超过上限时，按最近访问时间淘汰到低水位以下；淘汰在会话锁内进行，
+     * 正在使用该日志的线程结束后才会淘汰，之后的访问重新打开
+     */
+    private void evictExcessLogs() {
+        if (logs.size() <= maxOpenLogs || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int target = (int) (maxOpenLogs * OPEN_LOGS_LOW_WATERMARK);
+            // 先固定访问时间再排序，排序期间时间变化不影响比较
+            List<OpenLog> candidates = new ArrayList<>(logs.size());
+            logs.forEach((id, conversationLog) ->
+                    candidates.add(new OpenLog(id, conversationLog, conversationLog.lastAccessNanos())));
+            candidates.sort(Comparator.comparingLong(OpenLog::lastAccessNanos));
+            for (OpenLog candidate : candidates) {
+                if (logs.size() <= target) {
+                    break;
+                }
+                ConversationLog conversationLog = candidate.conversationLog();
+                synchronized (conversationLog) {
+                    if (conversationLog.lastAccessNanos() == candidate.lastAccessNanos()
+                            && logs.remove(candidate.conversationId(), conversationLog)) {
+                        conversationLog.evict();
+                    }
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * 把旧版整文件格式迁移为日志格式
+     */
+    private ConversationLog migrate(Path legacyPath, Path logPath, Path indexPath) throws IOException {
+        List<Message> messages;
+        try (Input input = new Input(new FileInputStream(legacyPath.toFile()))) {
+            messages = serializer.readLegacyList(input);
+        }
+        ConversationLog conversationLog = ConversationLog.create(logPath, indexPath, logFormat);
+        conversationLog.sync(encodeAll(messages), true);
+        Files.delete(legacyPath);
+        log.info("会话 {} 已迁移为日志格式，共 {} 条消息", legacyPath.getFileName(), messages.size());
+        return conversationLog;
+    }
+
+    /**
+     * 把旧编码格式或其他编解码器写入的日志重写为当前格式
+     */
+    private void upgrade(ConversationLog conversationLog) throws IOException {
+        short format = conversationLog.format();
+        PayloadCodec oldCodec = decoder((byte) (format >>> 8));
+        short serializerFormat = (short) (format & 0xff);
+        List<byte[]> payloads = conversationLog.read(0);
+        List<byte[]> upgraded = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            byte[] raw = oldCodec.decode(payload);
+            if (serializerFormat != KryoMessageSerializer.FORMAT) {
+                raw = serializer.serialize(serializer.deserialize(raw, serializerFormat));
+            }
+            upgraded.add(codec.encode(raw));
+        }
+        conversationLog.rewrite(upgraded, logFormat);
+        log.info("会话日志已从格式 {} 升级到 {}，共 {} 条消息", format, logFormat, upgraded.size());
+    }
+
+    /**
+     * 加载已保存的 Zstd 字典，并保存当前编解码器中新增的字典
+     */
+    private void initDecoders() throws IOException {
+        Path dictionaryDir = baseDir.resolve(DICTIONARY_DIR);
+        List<byte[]> dictionaries = new ArrayList<>();
+        if (codec instanceof ZstdPayloadCodec zstd && !zstd.getDictionaries().isEmpty()) {
+            Files.createDirectories(dictionaryDir);
+            for (byte[] dictionary : zstd.getDictionaries()) {
+                Path file = dictionaryDir.resolve(Zstd.getDictIdFromDict(dictionary) + DICTIONARY_SUFFIX);
+                if (!Files.exists(file)) {
+                    Path tmp = dictionaryDir.resolve(file.getFileName() + ".tmp");
+                    Files.write(tmp, dictionary);
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            dictionaries.addAll(zstd.getDictionaries());
         }
+        if (Files.isDirectory(dictionaryDir)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dictionaryDir, "*" + DICTIONARY_SUFFIX)) {
+                for (Path file : files) {
+                    dictionaries.add(Files.readAllBytes(file));
+                }
+            }
+        }
+        decoders.put(PayloadCodec.NONE_ID, PayloadCodec.NONE);
+        decoders.put(PayloadCodec.LZ4_ID, codec instanceof Lz4PayloadCodec ? codec : new Lz4PayloadCodec());
+        decoders.put(PayloadCodec.ZSTD_ID, new ZstdPayloadCodec(ZstdPayloadCodec.DEFAULT_LEVEL, dictionaries));
+        decoders.putIfAbsent(codec.id(), codec);
+    }
+
+    private PayloadCodec decoder(byte codecId) {
+        PayloadCodec decoder = decoders.get(codecId);
+        if (decoder == null) {
+            throw new IllegalStateException("Unknown payload codec: " + codecId);
+        }
+        return decoder;
+    }
+
+    /**
+     * 日志头部的 format：高字节为编解码器 id，低字节为序列化格式
+     */
+    static short logFormat(byte codecId, short serializerFormat) {
+        return (short) ((codecId & 0xff) << 8 | serializerFormat & 0xff);
+    }
+
+    /**
+     * 把旧版平铺在根目录下的会话文件移动到分片目录
+     *
+     * @return 被移动的会话 id
+     */
+    private List<String> migrateFlatLayout() throws IOException {
+        List<String> migrated = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(baseDir, "*.{log,idx,kryo}")) {
+            for (Path file : files) {
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                String name = file.getFileName().toString();
+                String conversationId = name.substring(0, name.lastIndexOf('.'));
+                Path target = shardDir(conversationId).resolve(name);
+                Files.createDirectories(target.getParent());
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (!name.endsWith(INDEX_SUFFIX)) {
+                    migrated.add(conversationId);
+                }
+            }
+        }
+        if (!migrated.isEmpty()) {
+            log.info("已将 {} 个会话从平铺目录迁移到分片目录", migrated.size());
+        }
+        return migrated;
+    }
+
+    /**
+     * 扫描分片目录重建会话索引
+     */
+    private void rebuildIndex() throws IOException {
+        int count = 0;
+        try (Stream<Path> files = Files.walk(baseDir, 3)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (file.getNameCount() - baseDir.getNameCount() != 3
+                        || !(name.endsWith(LOG_SUFFIX) || name.endsWith(LEGACY_SUFFIX))) {
+                    continue;
+                }
+                indexExisting(name.substring(0, name.lastIndexOf('.')));
+                count++;
+            }
+        }
+        log.info("会话索引重建完成，共 {} 个会话", count);
+    }
+
+    /**
+     * 把磁盘上已有的会话加入索引，不缓存打开的日志
+     */
+    private void indexExisting(String conversationId) throws IOException {
+        Path logPath = logPath(conversationId);
+        Path legacyPath = legacyPath(conversationId);
+        ConversationLog conversationLog;
+        if (Files.exists(logPath)) {
+            conversationLog = ConversationLog.open(logPath, indexPath(conversationId));
+            if (Files.exists(legacyPath)) {
+                // 已迁移但旧文件未删除
+                Files.delete(legacyPath);
+            }
+        } else if (Files.exists(legacyPath)) {
+            conversationLog = migrate(legacyPath, logPath, indexPath(conversationId));
+        } else {
+            return;
+        }
+        index.upsert(new ConversationInfo(conversationId, Files.getLastModifiedTime(logPath).toInstant(),
+                conversationLog.size(), conversationLog.fileSize()));
+    }
+
+    private void updateSize(String conversationId, ConversationLog conversationLog) throws IOException {
+        ConversationInfo info = index.get(conversationId);
+        Instant lastUpdated = info != null ? info.lastUpdated() : Instant.now();
+        index.upsert(new ConversationInfo(conversationId, lastUpdated, conversationLog.size(),
+                conversationLog.fileSize()));
+    }
+
+    private List<byte[]> encodeAll(List<Message> messages) {
+        List<byte[]> payloads = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            payloads.add(codec.encode(serializer.serialize(message)));
+        }
+        return payloads;
+    }
+
+    /**
+     * 会话所在的分片目录：id 的 crc32 前两个字节各作为一级目录
+     */
+    private Path shardDir(String conversationId) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(conversationId.getBytes(StandardCharsets.UTF_8));
+        String hash = String.format("%08x", crc32.getValue());
+        return baseDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4));
+    }
+
+    Path logPath(String conversationId) {
+        return shardDir(conversationId).resolve(conversationId + LOG_SUFFIX);
+    }
+
+    Path indexPath(String conversationId) {
+        return shardDir(conversationId).resolve(conversationId + INDEX_SUFFIX);
     }
 
-    private File getConversationFile(String conversationId) {
-        return new File(BASE_DIR, conversationId + ".kryo");
+    private Path legacyPath(String conversationId) {
+        return shardDir(conversationId).resolve(conversationId + LEGACY_SUFFIX);
     }
 }
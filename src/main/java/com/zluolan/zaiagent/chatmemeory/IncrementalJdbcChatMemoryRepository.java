@@ -0,0 +1,448 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 增量写入的 JDBC ChatMemoryRepository，沿用 {@code ai_chat_memory} 表结构（见 {@code sql/schema.sql}）
+ * <p>
+ * {@code MysqlChatMemoryRepository} 每次 saveAll 都删除并重新插入整个窗口，每轮对话写 O(窗口) 行。
+ * 这里记住每个会话已落库的行（id、类型、内容、完整编码），saveAll 时与新列表比较：
+ * 已有行的后缀等于新列表的前缀时，只按 id 范围删除被窗口淘汰的行并插入新增的消息；找不到重叠时才整体重写。
+ * <p>
+ * 写入由后台线程合并：第一条写入到达后最多等待 flushInterval，期间所有会话的删除和插入
+ * 在同一个事务里用 JDBC 批量语句执行。saveAll 阻塞到所在批次提交后返回，因此写入成功即已落库。
+ * <p>
+ * saveAll 在等待提交期间（最长 flushInterval 加提交耗时）持有会话锁，因为下一次写入的差异依赖本次插入行的 id。
+ * 锁按会话 id 单独分配（弱引用，无人持有时回收），只串行同一会话的写入，不同会话互不等待。
+ * <p>
+ * 已落库行的缓存假设同一会话只由一个实例写入；多实例部署时需按会话路由请求。
+ * <p>
+ * type 和 content 列与 MysqlChatMemoryRepository 兼容；payload 列保存 {@link KryoMessageSerializer} 编码的完整消息，
+ * 读取时优先使用，元数据（如滚动摘要的标记）和工具调用经过 JDBC 存储后不会丢失。payload 为空的旧行按 type 和 content 还原。
+ */
+@Slf4j
+public class IncrementalJdbcChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
+
+    private static final String SELECT_IDS_SQL = "SELECT DISTINCT conversation_id FROM ai_chat_memory";
+    private static final String SELECT_SQL =
+            "SELECT id, type, content, payload FROM ai_chat_memory WHERE conversation_id = ? ORDER BY id";
+    private static final String SELECT_LAST_SQL =
+            "SELECT id, type, content, payload FROM ai_chat_memory WHERE conversation_id = ? ORDER BY id DESC LIMIT ?";
+    private static final String INSERT_SQL =
+            "INSERT INTO ai_chat_memory (conversation_id, content, type, payload) VALUES (?, ?, ?, ?)";
+    private static final String DELETE_THROUGH_SQL =
+            "DELETE FROM ai_chat_memory WHERE conversation_id = ? AND id <= ?";
+    private static final String DELETE_SQL = "DELETE FROM ai_chat_memory WHERE conversation_id = ?";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final KryoMessageSerializer SERIALIZER = KryoMessageSerializer.getInstance();
+
+    /**
+     * 已落库的一行
+     *
+     * @param payload 完整消息的编码，旧行为 null
+     */
+    record Row(long id, String type, String content, byte[] payload) {
+
+        /**
+         * 同一消息的编码是稳定的，编码相同即元数据和工具调用也相同
+         */
+        boolean sameContent(Row other) {
+            return type.equals(other.type) && content.equals(other.content) && Arrays.equals(payload, other.payload);
+        }
+    }
+
+    /**
+     * 等待批量执行的一次写入
+     *
+     * @param deleteThroughId 删除 id 不大于该值的行，0 表示不删除
+     * @param inserts         需要插入的行
+     * @param result          提交后返回插入行的 id
+     */
+    private record PendingWrite(String conversationId, long deleteThroughId, List<Row> inserts,
+                                CompletableFuture<long[]> result) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Duration flushInterval;
+
+    private final int maxBatchSize;
+
+    // 会话已落库的行，按 id 升序
+    private final Cache<String, List<Row>> stored;
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+
+    // 每个会话一把锁，值为弱引用：有线程持有时同一会话总是拿到同一个对象
+    private final Cache<String, Object> conversationLocks = Caffeine.newBuilder().weakValues().build();
+
+    private final Thread flusher;
+
+    private volatile boolean closed;
+
+    /**
+     * @param jdbcTemplate           数据源
+     * @param flushInterval          合并写入的最长等待时间
+     * @param maxBatchSize           每批最多合并的写入次数
+     * @param maxCachedConversations 最多缓存已落库行的会话数
+     */
+    public IncrementalJdbcChatMemoryRepository(JdbcTemplate jdbcTemplate, Duration flushInterval, int maxBatchSize,
+                                               long maxCachedConversations) {
+        Assert.notNull(jdbcTemplate, "jdbcTemplate cannot be null");
+        Assert.notNull(jdbcTemplate.getDataSource(), "jdbcTemplate must have a data source");
+        Assert.isTrue(flushInterval != null && !flushInterval.isNegative(), "flushInterval cannot be negative");
+        Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be positive");
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        this.flushInterval = flushInterval;
+        this.maxBatchSize = maxBatchSize;
+        this.stored = Caffeine.newBuilder().maximumSize(maxCachedConversations).build();
+        this.flusher = new Thread(this::runFlusher, "chat-memory-jdbc-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        return jdbcTemplate.queryForList(SELECT_IDS_SQL, String.class);
+    }
+
+    /**
+     * 读取会话的全部消息
+     * <p>
+     * 结果来自已落库行的缓存，只有缓存未命中时才查询数据库；查询同样按 (conversation_id, id) 索引顺序扫描该会话，
+     * 但不加 LIMIT：saveAll 计算差异需要该会话全部行的 id，缓存的就是这份完整列表，截取最近 N 行无法复用。
+     * 上层保存的是已按 token 窗口截取和摘要折叠后的历史（见 {@link TokenWindowChatMemory}），整会话的行数本身有界。
+     * 只需要最近几条、且不会随后写入的场景使用 {@link #findLastMessages}。
+     */
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        List<Row> rows = stored.get(conversationId, this::load);
+        List<Message> messages = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            messages.add(toMessage(row));
+        }
+        return messages;
+    }
+
+    /**
+     * 只读取会话最近的 lastN 条消息，走 (conversation_id, id) 索引并用 LIMIT 限制行数；不读写已落库行的缓存
+     */
+    public List<Message> findLastMessages(String conversationId, int lastN) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        Assert.isTrue(lastN >= 0, "lastN cannot be negative");
+        List<Row> rows = jdbcTemplate.query(SELECT_LAST_SQL, IncrementalJdbcChatMemoryRepository::mapRow,
+                conversationId, lastN);
+        List<Message> messages = new ArrayList<>(rows.size());
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            messages.add(toMessage(rows.get(i)));
+        }
+        return messages;
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        Assert.notNull(messages, "messages cannot be null");
+        Assert.noNullElements(messages, "messages cannot contain null elements");
+
+        List<Row> rows = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            rows.add(toRow(message));
+        }
+        synchronized (lockFor(conversationId)) {
+            List<Row> current = stored.get(conversationId, this::load);
+            int n = current.size();
+            int m = rows.size();
+            int skip = n;
+            for (int start = Math.max(0, n - m); start < n; start++) {
+                if (overlaps(current, start, rows)) {
+                    skip = start;
+                    break;
+                }
+            }
+            int overlap = n - skip;
+            long deleteThroughId = skip > 0 ? current.get(skip - 1).id() : 0;
+            List<Row> inserts = rows.subList(overlap, m);
+            if (deleteThroughId == 0 && inserts.isEmpty()) {
+                return;
+            }
+
+            long[] ids;
+            try {
+                ids = submit(new PendingWrite(conversationId, deleteThroughId, inserts, new CompletableFuture<>()));
+            } catch (RuntimeException e) {
+                // 不确定哪些行已落库，下次从数据库重新加载
+                stored.invalidate(conversationId);
+                throw e;
+            }
+            List<Row> updated = new ArrayList<>(overlap + inserts.size());
+            updated.addAll(current.subList(skip, n));
+            for (int i = 0; i < inserts.size(); i++) {
+                Row row = inserts.get(i);
+                updated.add(new Row(ids[i], row.type(), row.content(), row.payload()));
+            }
+            stored.put(conversationId, Collections.unmodifiableList(updated));
+        }
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        synchronized (lockFor(conversationId)) {
+            jdbcTemplate.update(DELETE_SQL, conversationId);
+            stored.put(conversationId, List.of());
+        }
+    }
+
+    /**
+     * 停止接收写入，执行完队列中的写入后退出后台线程
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long[] submit(PendingWrite write) {
+        if (closed) {
+            throw new IllegalStateException("Repository is closed");
+        }
+        queue.add(write);
+        try {
+            return write.result().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void runFlusher() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // 等待其他会话的写入一起提交
+                long deadline = System.nanoTime() + flushInterval.toNanos();
+                while (batch.size() < maxBatchSize) {
+                    PendingWrite next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+        // 关闭后才提交的写入
+        PendingWrite write;
+        while ((write = queue.poll()) != null) {
+            write.result().completeExceptionally(new IllegalStateException("Repository is closed"));
+        }
+    }
+
+    /**
+     * 在一个事务中批量执行删除和插入
+     */
+    private void flush(List<PendingWrite> batch) {
+        List<Object[]> deletes = new ArrayList<>();
+        List<Object[]> inserts = new ArrayList<>();
+        for (PendingWrite write : batch) {
+            if (write.deleteThroughId() > 0) {
+                deletes.add(new Object[]{write.conversationId(), write.deleteThroughId()});
+            }
+            for (Row row : write.inserts()) {
+                inserts.add(new Object[]{write.conversationId(), row.content(), row.type(), row.payload()});
+            }
+        }
+        try {
+            long[][] ids = transactionTemplate.execute(status -> {
+                if (!deletes.isEmpty()) {
+                    jdbcTemplate.batchUpdate(DELETE_THROUGH_SQL, deletes);
+                }
+                if (inserts.isEmpty()) {
+                    return assignIds(batch, List.of());
+                }
+                KeyHolder keyHolder = new GeneratedKeyHolder();
+                jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(INSERT_SQL, new String[]{"id"}),
+                        new BatchPreparedStatementSetter() {
+                            @Override
+                            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                                Object[] args = inserts.get(i);
+                                ps.setString(1, (String) args[0]);
+                                ps.setString(2, (String) args[1]);
+                                ps.setString(3, (String) args[2]);
+                                ps.setBytes(4, (byte[]) args[3]);
+                            }
+
+                            @Override
+                            public int getBatchSize() {
+                                return inserts.size();
+                            }
+                        }, keyHolder);
+                // 在事务内校验生成的主键，不符合预期时回滚，避免行已落库而调用方收到失败
+                return assignIds(batch, keyHolder.getKeyList());
+            });
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(ids[i]);
+            }
+            log.debug("批量写入会话记忆：{} 个会话，删除 {} 次，插入 {} 行", batch.size(), deletes.size(), inserts.size());
+        } catch (RuntimeException e) {
+            log.error("批量写入会话记忆失败", e);
+            for (PendingWrite write : batch) {
+                write.result().completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 按写入顺序把生成的主键分配给各次写入
+     */
+    private static long[][] assignIds(List<PendingWrite> batch, List<Map<String, Object>> keys) {
+        int expected = batch.stream().mapToInt(write -> write.inserts().size()).sum();
+        if (keys.size() != expected) {
+            throw new IllegalStateException("Expected " + expected + " generated keys, got " + keys.size());
+        }
+        long[][] ids = new long[batch.size()][];
+        int position = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            ids[i] = new long[batch.get(i).inserts().size()];
+            for (int j = 0; j < ids[i].length; j++) {
+                ids[i][j] = generatedId(keys.get(position++));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 取生成的 id 列；驱动返回多列时按列名匹配
+     */
+    private static long generatedId(Map<String, Object> key) {
+        Object value = key.size() == 1 ? key.values().iterator().next() : null;
+        if (value == null) {
+            for (Map.Entry<String, Object> entry : key.entrySet()) {
+                if ("id".equalsIgnoreCase(entry.getKey())) {
+                    value = entry.getValue();
+                }
+            }
+        }
+        if (!(value instanceof Number number)) {
+            throw new IllegalStateException("Unexpected generated key: " + key);
+        }
+        return number.longValue();
+    }
+
+    private Object lockFor(String conversationId) {
+        return conversationLocks.get(conversationId, key -> new Object());
+    }
+
+    private List<Row> load(String conversationId) {
+        return Collections.unmodifiableList(jdbcTemplate.query(SELECT_SQL, IncrementalJdbcChatMemoryRepository::mapRow,
+                conversationId));
+    }
+
+    private static Row mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new Row(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getBytes(4));
+    }
+
+    private static boolean overlaps(List<Row> current, int start, List<Row> rows) {
+        for (int i = start, j = 0; i < current.size(); i++, j++) {
+            if (!current.get(i).sameContent(rows.get(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * type 和 content 与 MysqlChatMemoryRepository 相同（工具结果保存为 JSON），另存完整消息的编码
+     */
+    private static Row toRow(Message message) {
+        MessageType type = message.getMessageType();
+        String content;
+        if (message instanceof ToolResponseMessage toolResponseMessage) {
+            try {
+                content = OBJECT_MAPPER.writeValueAsString(toolResponseMessage.getResponses());
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Failed to serialize tool responses", e);
+            }
+        } else {
+            content = message.getText() != null ? message.getText() : "";
+        }
+        return new Row(0, type.name(), content, SERIALIZER.serialize(message));
+    }
+
+    private static Message toMessage(Row row) {
+        if (row.payload() != null) {
+            return SERIALIZER.deserialize(row.payload());
+        }
+        return switch (MessageType.valueOf(row.type())) {
+            case USER -> new UserMessage(row.content());
+            case ASSISTANT -> new AssistantMessage(row.content());
+            case SYSTEM -> new SystemMessage(row.content());
+            case TOOL -> {
+                try {
+                    yield new ToolResponseMessage(OBJECT_MAPPER.readValue(row.content(),
+                            new TypeReference<List<ToolResponseMessage.ToolResponse>>() {
+                            }), Map.of());
+                } catch (JsonProcessingException e) {
+                    throw new IllegalStateException("Failed to deserialize tool responses", e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,418 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+import lombok.extern.slf4j.Slf4j;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.AbstractMessage;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.content.Media;
+import org.springframework.util.MimeType;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 线程安全的 Message 序列化器
+ * <p>
+ * Kryo 实例本身不是线程安全的，这里通过 {@link Pool} 复用实例，每次序列化借出一个、用完归还。
+ * 四种消息类型使用固定注册 id 和手写的序列化器，只写入文本、元数据、工具调用和媒体等字段，
+ * 不再把完整类名写进每条记录；元数据中未注册的值类型按字符串保存。
+ * <p>
+ * 编码格式通过 {@link #FORMAT} 标识，写在会话日志头部；旧格式（{@link #LEGACY_FORMAT}，
+ * 未注册类 + writeClassAndObject）仍可通过 {@link #deserializeLegacy} 读取，用于迁移。
+ */
+@Slf4j
+public final class KryoMessageSerializer {
+
+    /**
+     * 旧格式：不要求注册，每条记录写完整类名
+     */
+    public static final short LEGACY_FORMAT = 0;
+
+    /**
+     * 当前格式：预注册类型 + 自定义序列化器
+     */
+    public static final short FORMAT = 1;
+
+    // 注册 id 从 100 开始，避开 Kryo 默认注册的基本类型；已分配的 id 不能修改，否则旧数据无法读取
+    private static final int USER_MESSAGE_ID = 100;
+    private static final int ASSISTANT_MESSAGE_ID = 101;
+    private static final int SYSTEM_MESSAGE_ID = 102;
+    private static final int TOOL_RESPONSE_MESSAGE_ID = 103;
+
+    // 元数据值的类型标记
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_OBJECT = 1;
+    private static final byte VALUE_LIST = 2;
+    private static final byte VALUE_MAP = 3;
+    // 只用于读取旧记录：未注册的值现在转成字符串后按 VALUE_OBJECT 写入
+    private static final byte VALUE_STRING_FALLBACK = 4;
+
+    // 媒体数据的类型标记
+    private static final byte MEDIA_BYTES = 0;
+    private static final byte MEDIA_STRING = 1;
+
+    private static final KryoMessageSerializer INSTANCE = new KryoMessageSerializer();
+
+    private final Pool<Kryo> kryoPool;
+
+    private final Pool<Kryo> legacyPool;
+
+    public KryoMessageSerializer() {
+        int capacity = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+        this.kryoPool = new Pool<>(true, false, capacity) {
+            @Override
+            protected Kryo create() {
+                return newKryo();
+            }
+        };
+        this.legacyPool = new Pool<>(true, false, capacity) {
+            @Override
+            protected Kryo create() {
+                return newLegacyKryo();
+            }
+        };
+    }
+
+    /**
+     * 共享实例
+     */
+    public static KryoMessageSerializer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 按当前格式序列化一条消息
+     */
+    public byte[] serialize(Message message) {
+        Kryo kryo = kryoPool.obtain();
+        try {
+            // 子类（例如模型厂商扩展的消息）按其基础类型保存
+            Registration registration = kryo.getRegistration(baseType(message));
+            Output output = new Output(256, -1);
+            kryo.writeClass(output, registration.getType());
+            kryo.writeObject(output, message, registration.getSerializer());
+            return output.toBytes();
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    /**
+     * 按当前格式反序列化一条消息
+     */
+    public Message deserialize(byte[] payload) {
+        Kryo kryo = kryoPool.obtain();
+        try {
+            return (Message) kryo.readClassAndObject(new Input(payload));
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    /**
+     * 按指定格式反序列化一条消息
+     */
+    public Message deserialize(byte[] payload, short format) {
+        return switch (format) {
+            case FORMAT -> deserialize(payload);
+            case LEGACY_FORMAT -> deserializeLegacy(payload);
+            default -> throw new IllegalArgumentException("Unsupported message format: " + format);
+        };
+    }
+
+    /**
+     * 读取旧格式的单条消息
+     */
+    public Message deserializeLegacy(byte[] payload) {
+        Kryo kryo = legacyPool.obtain();
+        try {
+            return (Message) kryo.readClassAndObject(new Input(payload));
+        } finally {
+            legacyPool.free(kryo);
+        }
+    }
+
+    /**
+     * 读取旧版整文件格式（{@code <id>.kryo}）中的消息列表
+     */
+    @SuppressWarnings("unchecked")
+    public List<Message> readLegacyList(Input input) {
+        Kryo kryo = legacyPool.obtain();
+        try {
+            return kryo.readObject(input, ArrayList.class);
+        } finally {
+            legacyPool.free(kryo);
+        }
+    }
+
+    private static Class<?> baseType(Message message) {
+        if (message instanceof UserMessage) {
+            return UserMessage.class;
+        } else if (message instanceof AssistantMessage) {
+            return AssistantMessage.class;
+        } else if (message instanceof SystemMessage) {
+            return SystemMessage.class;
+        } else if (message instanceof ToolResponseMessage) {
+            return ToolResponseMessage.class;
+        }
+        throw new IllegalArgumentException("Unsupported message type: " + message.getClass().getName());
+    }
+
+    private static Kryo newKryo() {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(true);
+        kryo.setReferences(false);
+        kryo.register(UserMessage.class, new UserMessageSerializer(), USER_MESSAGE_ID);
+        kryo.register(AssistantMessage.class, new AssistantMessageSerializer(), ASSISTANT_MESSAGE_ID);
+        kryo.register(SystemMessage.class, new SystemMessageSerializer(), SYSTEM_MESSAGE_ID);
+        kryo.register(ToolResponseMessage.class, new ToolResponseMessageSerializer(), TOOL_RESPONSE_MESSAGE_ID);
+        // 元数据中常见的值类型
+        kryo.register(MessageType.class, 110);
+        kryo.register(byte[].class, 111);
+        kryo.register(BigDecimal.class, 112);
+        kryo.register(BigInteger.class, 113);
+        kryo.register(Instant.class, 114);
+        kryo.register(Date.class, 115);
+        return kryo;
+    }
+
+    private static Kryo newLegacyKryo() {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        return kryo;
+    }
+
+    /**
+     * 写入元数据，messageType 由消息类型决定，不重复保存
+     */
+    private static void writeMetadata(Kryo kryo, Output output, Map<String, Object> metadata) {
+        int size = 0;
+        for (String key : metadata.keySet()) {
+            if (!AbstractMessage.MESSAGE_TYPE.equals(key)) {
+                size++;
+            }
+        }
+        output.writeVarInt(size, true);
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            if (AbstractMessage.MESSAGE_TYPE.equals(entry.getKey())) {
+                continue;
+            }
+            output.writeString(entry.getKey());
+            writeValue(kryo, output, entry.getValue());
+        }
+    }
+
+    private static Map<String, Object> readMetadata(Kryo kryo, Input input) {
+        int size = input.readVarInt(true);
+        Map<String, Object> metadata = new HashMap<>(Math.max(4, size * 2));
+        for (int i = 0; i < size; i++) {
+            metadata.put(input.readString(), readValue(kryo, input));
+        }
+        return metadata;
+    }
+
+    private static void writeValue(Kryo kryo, Output output, Object value) {
+        if (value == null) {
+            output.writeByte(VALUE_NULL);
+        } else if (value instanceof List<?> list) {
+            output.writeByte(VALUE_LIST);
+            output.writeVarInt(list.size(), true);
+            for (Object element : list) {
+                writeValue(kryo, output, element);
+            }
+        } else if (value instanceof Map<?, ?> map) {
+            output.writeByte(VALUE_MAP);
+            output.writeVarInt(map.size(), true);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                output.writeString(String.valueOf(entry.getKey()));
+                writeValue(kryo, output, entry.getValue());
+            }
+        } else if (kryo.getClassResolver().getRegistration(value.getClass()) != null) {
+            output.writeByte(VALUE_OBJECT);
+            kryo.writeClassAndObject(output, value);
+        } else {
+            // 与读回后的 String 编码一致，同一消息再次序列化得到相同字节，日志同步才能按 CRC 找到重叠
+            log.debug("元数据值类型 {} 未注册，按字符串保存", value.getClass().getName());
+            output.writeByte(VALUE_OBJECT);
+            kryo.writeClassAndObject(output, value.toString());
+        }
+    }
+
+    private static Object readValue(Kryo kryo, Input input) {
+        byte tag = input.readByte();
+        switch (tag) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_LIST: {
+                int size = input.readVarInt(true);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(kryo, input));
+                }
+                return list;
+            }
+            case VALUE_MAP: {
+                int size = input.readVarInt(true);
+                Map<String, Object> map = new LinkedHashMap<>(Math.max(4, size * 2));
+                for (int i = 0; i < size; i++) {
+                    map.put(input.readString(), readValue(kryo, input));
+                }
+                return map;
+            }
+            case VALUE_OBJECT:
+                return kryo.readClassAndObject(input);
+            case VALUE_STRING_FALLBACK:
+                return input.readString();
+            default:
+                throw new IllegalStateException("Unknown metadata value tag: " + tag);
+        }
+    }
+
+    private static void writeMedia(Output output, List<Media> media) {
+        output.writeVarInt(media.size(), true);
+        for (Media item : media) {
+            output.writeString(item.getMimeType().toString());
+            output.writeString(item.getId());
+            output.writeString(item.getName());
+            if (item.getData() instanceof byte[] bytes) {
+                output.writeByte(MEDIA_BYTES);
+                output.writeVarInt(bytes.length, true);
+                output.writeBytes(bytes);
+            } else {
+                output.writeByte(MEDIA_STRING);
+                output.writeString(String.valueOf(item.getData()));
+            }
+        }
+    }
+
+    private static List<Media> readMedia(Input input) {
+        int size = input.readVarInt(true);
+        List<Media> media = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Media.Builder builder = Media.builder()
+                    .mimeType(MimeType.valueOf(input.readString()))
+                    .id(input.readString())
+                    .name(input.readString());
+            if (input.readByte() == MEDIA_BYTES) {
+                builder.data(input.readBytes(input.readVarInt(true)));
+            } else {
+                builder.data(input.readString());
+            }
+            media.add(builder.build());
+        }
+        return media;
+    }
+
+    private static final class UserMessageSerializer extends Serializer<UserMessage> {
+
+        @Override
+        public void write(Kryo kryo, Output output, UserMessage message) {
+            output.writeString(message.getText());
+            writeMetadata(kryo, output, message.getMetadata());
+            writeMedia(output, message.getMedia());
+        }
+
+        @Override
+        public UserMessage read(Kryo kryo, Input input, Class<? extends UserMessage> type) {
+            return UserMessage.builder()
+                    .text(input.readString())
+                    .metadata(readMetadata(kryo, input))
+                    .media(readMedia(input))
+                    .build();
+        }
+    }
+
+    private static final class AssistantMessageSerializer extends Serializer<AssistantMessage> {
+
+        @Override
+        public void write(Kryo kryo, Output output, AssistantMessage message) {
+            output.writeString(message.getText());
+            writeMetadata(kryo, output, message.getMetadata());
+            List<AssistantMessage.ToolCall> toolCalls = message.getToolCalls();
+            output.writeVarInt(toolCalls.size(), true);
+            for (AssistantMessage.ToolCall toolCall : toolCalls) {
+                output.writeString(toolCall.id());
+                output.writeString(toolCall.type());
+                output.writeString(toolCall.name());
+                output.writeString(toolCall.arguments());
+            }
+            writeMedia(output, message.getMedia());
+        }
+
+        @Override
+        public AssistantMessage read(Kryo kryo, Input input, Class<? extends AssistantMessage> type) {
+            String text = input.readString();
+            Map<String, Object> metadata = readMetadata(kryo, input);
+            int size = input.readVarInt(true);
+            List<AssistantMessage.ToolCall> toolCalls = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                toolCalls.add(new AssistantMessage.ToolCall(input.readString(), input.readString(),
+                        input.readString(), input.readString()));
+            }
+            return new AssistantMessage(text, metadata, toolCalls, readMedia(input));
+        }
+    }
+
+    private static final class SystemMessageSerializer extends Serializer<SystemMessage> {
+
+        @Override
+        public void write(Kryo kryo, Output output, SystemMessage message) {
+            output.writeString(message.getText());
+            writeMetadata(kryo, output, message.getMetadata());
+        }
+
+        @Override
+        public SystemMessage read(Kryo kryo, Input input, Class<? extends SystemMessage> type) {
+            return SystemMessage.builder()
+                    .text(input.readString())
+                    .metadata(readMetadata(kryo, input))
+                    .build();
+        }
+    }
+
+    private static final class ToolResponseMessageSerializer extends Serializer<ToolResponseMessage> {
+
+        @Override
+        public void write(Kryo kryo, Output output, ToolResponseMessage message) {
+            writeMetadata(kryo, output, message.getMetadata());
+            List<ToolResponseMessage.ToolResponse> responses = message.getResponses();
+            output.writeVarInt(responses.size(), true);
+            for (ToolResponseMessage.ToolResponse response : responses) {
+                output.writeString(response.id());
+                output.writeString(response.name());
+                output.writeString(response.responseData());
+            }
+        }
+
+        @Override
+        public ToolResponseMessage read(Kryo kryo, Input input, Class<? extends ToolResponseMessage> type) {
+            Map<String, Object> metadata = readMetadata(kryo, input);
+            int size = input.readVarInt(true);
+            List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                responses.add(new ToolResponseMessage.ToolResponse(input.readString(), input.readString(),
+                        input.readString()));
+            }
+            return new ToolResponseMessage(responses, metadata);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * LZ4 编解码器：压缩和解压都很快，适合写入频繁的场景
+ */
+public final class Lz4PayloadCodec extends CompressingPayloadCodec {
+
+    private final LZ4Compressor compressor;
+
+    private final LZ4FastDecompressor decompressor;
+
+    public Lz4PayloadCodec() {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.fastDecompressor();
+    }
+
+    @Override
+    public byte id() {
+        return LZ4_ID;
+    }
+
+    @Override
+    protected byte[] compress(byte[] raw) {
+        return compressor.compress(raw);
+    }
+
+    @Override
+    protected byte[] decompress(byte[] data, int offset, int length, int rawLength) {
+        return decompressor.decompress(data, offset, rawLength);
+    }
+}
@@ -0,0 +1,43 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+/**
+ * 会话日志中单条记录 payload 的压缩编解码器
+ * <p>
+ * 编解码器 id 写在会话日志头部，打开日志时据此选择解码方式；同一份输入必须总是编码出相同的字节，
+ * 因为追加时按编码后的 crc 与已有记录做差异比较。
+ */
+public interface PayloadCodec {
+
+    byte NONE_ID = 0;
+    byte LZ4_ID = 1;
+    byte ZSTD_ID = 2;
+
+    /**
+     * 不压缩
+     */
+    PayloadCodec NONE = new PayloadCodec() {
+        @Override
+        public byte id() {
+            return NONE_ID;
+        }
+
+        @Override
+        public byte[] encode(byte[] raw) {
+            return raw;
+        }
+
+        @Override
+        public byte[] decode(byte[] encoded) {
+            return encoded;
+        }
+    };
+
+    /**
+     * 写入日志头部的编解码器 id
+     */
+    byte id();
+
+    byte[] encode(byte[] raw);
+
+    byte[] decode(byte[] encoded);
+}
@@ -0,0 +1,37 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import org.springframework.util.Assert;
+
+/**
+ * 按会话 id 分段的监视器锁
+ * <p>
+ * 同一会话总是映射到同一把锁，不同会话大多落在不同的锁上；锁数量固定，不随会话数增长。
+ */
+final class StripedLocks {
+
+    static final int DEFAULT_STRIPES = 64;
+
+    private final Object[] locks;
+
+    StripedLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    StripedLocks(int stripes) {
+        Assert.isTrue(stripes > 0, "stripes must be positive");
+        this.locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * 会话 id 对应的锁，用于 synchronized
+     */
+    Object lockFor(String conversationId) {
+        int hash = conversationId.hashCode();
+        // 混入高位，避免只有高位不同的 id 落在同一分段
+        hash ^= hash >>> 16;
+        return locks[(hash & 0x7fffffff) % locks.length];
+    }
+}
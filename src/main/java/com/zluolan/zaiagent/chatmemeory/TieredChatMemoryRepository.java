@@ -0,0 +1,468 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分层的 ChatMemoryRepository：热数据在内存，温数据在本地文件，冷数据归档到 JDBC
+ * <p>
+ * 会话只在内存中读写，内存超出容量或空闲超过 hotIdle 后降级写入文件；文件中超过 warmIdle 未更新、
+ * 或文件层会话数超出容量时归档到 JDBC 并删除本地文件。访问温、冷层的会话时重新提升到内存。
+ * <p>
+ * 上层总是覆盖下层：提升时下层的副本保留（降级时差异写入，代价很小），读取按 热 → 温 → 冷 的顺序，
+ * 找到即返回，因此下层过期的副本不会被读到。内存层的数据在降级前不持久化，关闭时全部写入文件。
+ */
+@Slf4j
+public class TieredChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
+
+    public enum Tier {
+        HOT, WARM, COLD
+    }
+
+    // 超出内存容量时降级到该比例以下，避免每次写入都触发降级
+    private static final double HOT_LOW_WATERMARK = 0.9;
+
+    // 分页读取文件层会话索引的页大小
+    private static final int WARM_SCAN_PAGE_SIZE = 1000;
+
+    private record HotEntry(List<Message> messages, long bytes, boolean dirty, AtomicLong lastAccessNanos) {
+    }
+
+    private final Map<String, HotEntry> hot = new ConcurrentHashMap<>();
+
+    private final AtomicLong hotBytes = new AtomicLong();
+
+    private final FileBasedChatMemoryRepository warm;
+
+    private final ChatMemoryRepository cold;
+
+    private final long hotMaxBytes;
+
+    private final Duration hotIdle;
+
+    private final int warmMaxConversations;
+
+    private final Duration warmIdle;
+
+    private final StripedLocks locks = new StripedLocks();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final ScheduledExecutorService maintenance;
+
+    private final Map<Tier, Counter> hits = new EnumMap<>(Tier.class);
+
+    private final Counter misses;
+
+    private final Map<Tier, Counter> promotions = new EnumMap<>(Tier.class);
+
+    private final Map<Tier, Counter> demotions = new EnumMap<>(Tier.class);
+
+    private TieredChatMemoryRepository(Builder builder) {
+        Assert.notNull(builder.warm, "warm repository cannot be null");
+        Assert.isTrue(builder.hotMaxBytes > 0, "hotMaxBytes must be positive");
+        Assert.isTrue(builder.warmMaxConversations > 0, "warmMaxConversations must be positive");
+        Assert.isTrue(isPositive(builder.hotIdle) && isPositive(builder.warmIdle)
+                && isPositive(builder.maintenanceInterval), "durations must be positive");
+        Assert.notNull(builder.meterRegistry, "meterRegistry cannot be null");
+        this.warm = builder.warm;
+        this.cold = builder.cold;
+        this.hotMaxBytes = builder.hotMaxBytes;
+        this.hotIdle = builder.hotIdle;
+        this.warmMaxConversations = builder.warmMaxConversations;
+        this.warmIdle = builder.warmIdle;
+
+        MeterRegistry registry = builder.meterRegistry;
+        for (Tier tier : Tier.values()) {
+            String name = tier.name().toLowerCase();
+            hits.put(tier, Counter.builder("chat.memory.tier.hits").tag("tier", name)
+                    .description("在该层找到会话的读取次数").register(registry));
+            promotions.put(tier, Counter.builder("chat.memory.tier.promotions").tag("from", name)
+                    .description("从该层提升到内存的会话数").register(registry));
+            demotions.put(tier, Counter.builder("chat.memory.tier.demotions").tag("to", name)
+                    .description("降级到该层的会话数").register(registry));
+        }
+        this.misses = Counter.builder("chat.memory.tier.misses")
+                .description("各层都没有找到会话的读取次数").register(registry);
+        Gauge.builder("chat.memory.tier.conversations", hot, Map::size).tag("tier", "hot")
+                .description("各层的会话数").register(registry);
+        Gauge.builder("chat.memory.tier.conversations", warm, FileBasedChatMemoryRepository::countConversations)
+                .tag("tier", "warm").description("各层的会话数").register(registry);
+        Gauge.builder("chat.memory.tier.bytes", hotBytes, AtomicLong::get).tag("tier", "hot")
+                .description("内存层估算占用的字节数").register(registry);
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-tiering");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = builder.maintenanceInterval.toMillis();
+        maintenance.scheduleWithFixedDelay(this::maintain, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        Set<String> ids = new LinkedHashSet<>(hot.keySet());
+        ids.addAll(warm.findConversationIds());
+        if (cold != null) {
+            ids.addAll(cold.findConversationIds());
+        }
+        return new ArrayList<>(ids);
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        List<Message> messages;
+        synchronized (locks.lockFor(conversationId)) {
+            messages = find(conversationId);
+        }
+        evictIfNeeded();
+        return messages;
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        Assert.notNull(messages, "messages cannot be null");
+        Assert.noNullElements(messages, "messages cannot contain null elements");
+        synchronized (locks.lockFor(conversationId)) {
+            putHot(conversationId, List.copyOf(messages), true);
+        }
+        evictIfNeeded();
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        synchronized (locks.lockFor(conversationId)) {
+            removeHot(conversationId);
+            warm.deleteByConversationId(conversationId);
+            if (cold != null) {
+                cold.deleteByConversationId(conversationId);
+            }
+        }
+    }
+
+    /**
+     * 会话当前所在的最上层，不存在时返回 null
+     */
+    public Tier tierOf(String conversationId) {
+        if (hot.containsKey(conversationId)) {
+            return Tier.HOT;
+        }
+        if (warm.getConversationInfo(conversationId) != null) {
+            return Tier.WARM;
+        }
+        if (cold != null && !cold.findByConversationId(conversationId).isEmpty()) {
+            return Tier.COLD;
+        }
+        return null;
+    }
+
+    /**
+     * 内存层估算占用的字节数
+     */
+    public long hotBytes() {
+        return hotBytes.get();
+    }
+
+    /**
+     * 执行一次降级和归档，由后台线程定期调用
+     */
+    public void maintain() {
+        try {
+            demoteIdle();
+            if (cold != null) {
+                archiveWarm();
+            }
+        } catch (RuntimeException e) {
+            log.error("会话记忆分层维护失败", e);
+        }
+    }
+
+    /**
+     * 把内存层全部写入文件，然后关闭文件层；冷存储通常是共享的 JDBC 存储，由创建方关闭
+     */
+    @Override
+    public void close() {
+        maintenance.shutdownNow();
+        for (String conversationId : List.copyOf(hot.keySet())) {
+            demote(conversationId);
+        }
+        if (!hot.isEmpty()) {
+            log.error("关闭时仍有 {} 个会话未能写入文件", hot.size());
+        }
+        warm.close();
+    }
+
+    private List<Message> find(String conversationId) {
+        HotEntry entry = hot.get(conversationId);
+        if (entry != null) {
+            entry.lastAccessNanos().set(System.nanoTime());
+            hits.get(Tier.HOT).increment();
+            return new ArrayList<>(entry.messages());
+        }
+        // 以文件索引判断会话是否在文件层：保存过空会话时文件层仍是最新副本，不能再去冷存储读旧历史
+        if (warm.getConversationInfo(conversationId) != null) {
+            List<Message> messages = warm.findByConversationId(conversationId);
+            hits.get(Tier.WARM).increment();
+            promotions.get(Tier.WARM).increment();
+            // 文件中已有相同内容，降级时不必重写
+            putHot(conversationId, List.copyOf(messages), false);
+            return messages;
+        }
+        if (cold != null) {
+            List<Message> messages = cold.findByConversationId(conversationId);
+            if (!messages.isEmpty()) {
+                hits.get(Tier.COLD).increment();
+                promotions.get(Tier.COLD).increment();
+                putHot(conversationId, List.copyOf(messages), true);
+                return new ArrayList<>(messages);
+            }
+        }
+        misses.increment();
+        return new ArrayList<>();
+    }
+
+    private void putHot(String conversationId, List<Message> messages, boolean dirty) {
+        long bytes = WriteBehindChatMemoryRepository.estimateBytes(messages);
+        HotEntry previous = hot.put(conversationId,
+                new HotEntry(messages, bytes, dirty, new AtomicLong(System.nanoTime())));
+        hotBytes.addAndGet(bytes - (previous != null ? previous.bytes() : 0));
+    }
+
+    private void removeHot(String conversationId) {
+        HotEntry removed = hot.remove(conversationId);
+        if (removed != null) {
+            hotBytes.addAndGet(-removed.bytes());
+        }
+    }
+
+    /**
+     * 把会话从内存降级到文件，写入失败时保留在内存中
+     */
+    private boolean demote(String conversationId) {
+        synchronized (locks.lockFor(conversationId)) {
+            HotEntry entry = hot.get(conversationId);
+            if (entry == null) {
+                return false;
+            }
+            try {
+                if (entry.dirty()) {
+                    warm.saveAll(conversationId, entry.messages());
+                }
+            } catch (RuntimeException e) {
+                log.error("会话 {} 降级到文件失败", conversationId, e);
+                return false;
+            }
+            removeHot(conversationId);
+            demotions.get(Tier.WARM).increment();
+            return true;
+        }
+    }
+
+    /**
+     * 内存层超出容量时按最近访问时间降级最久未访问的会话
+     */
+    private void evictIfNeeded() {
+        if (hotBytes.get() <= hotMaxBytes || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Map.Entry<String, HotEntry>> entries = new ArrayList<>(hot.entrySet());
+            entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccessNanos().get()));
+            long target = (long) (hotMaxBytes * HOT_LOW_WATERMARK);
+            for (Map.Entry<String, HotEntry> entry : entries) {
+                if (hotBytes.get() <= target) {
+                    break;
+                }
+                demote(entry.getKey());
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private void demoteIdle() {
+        long threshold = System.nanoTime() - hotIdle.toNanos();
+        int count = 0;
+        for (Map.Entry<String, HotEntry> entry : hot.entrySet()) {
+            if (entry.getValue().lastAccessNanos().get() < threshold && demote(entry.getKey())) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            log.info("{} 个空闲会话已从内存降级到文件", count);
+        }
+    }
+
+    /**
+     * 把文件层中空闲过久、或超出容量的最旧会话归档到冷存储
+     */
+    private void archiveWarm() {
+        List<ConversationInfo> infos = new ArrayList<>();
+        String cursor = null;
+        List<ConversationInfo> page;
+        while (!(page = warm.findConversations(cursor, WARM_SCAN_PAGE_SIZE)).isEmpty()) {
+            infos.addAll(page);
+            cursor = page.get(page.size() - 1).conversationId();
+        }
+        infos.sort(Comparator.comparing(ConversationInfo::lastUpdated));
+        Instant idleBefore = Instant.now().minus(warmIdle);
+        int overCapacity = infos.size() - warmMaxConversations;
+        int count = 0;
+        for (int i = 0; i < infos.size(); i++) {
+            ConversationInfo info = infos.get(i);
+            if (i >= overCapacity && !info.lastUpdated().isBefore(idleBefore)) {
+                break;
+            }
+            if (archive(info.conversationId())) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            log.info("{} 个会话已从文件归档到冷存储", count);
+        }
+    }
+
+    private boolean archive(String conversationId) {
+        synchronized (locks.lockFor(conversationId)) {
+            // 正在内存中活跃的会话不归档
+            if (hot.containsKey(conversationId)) {
+                return false;
+            }
+            try {
+                List<Message> messages = warm.findByConversationId(conversationId);
+                if (messages.isEmpty()) {
+                    // 空会话不归档，同时清掉冷存储中更早的副本
+                    cold.deleteByConversationId(conversationId);
+                } else {
+                    cold.saveAll(conversationId, messages);
+                }
+                warm.deleteByConversationId(conversationId);
+            } catch (RuntimeException e) {
+                log.error("会话 {} 归档失败", conversationId, e);
+                return false;
+            }
+            demotions.get(Tier.COLD).increment();
+            return true;
+        }
+    }
+
+    private static boolean isPositive(Duration duration) {
+        return duration != null && !duration.isNegative() && !duration.isZero();
+    }
+
+    public static final class Builder {
+
+        private FileBasedChatMemoryRepository warm;
+
+        private ChatMemoryRepository cold;
+
+        private long hotMaxBytes = 64L * 1024 * 1024;
+
+        private Duration hotIdle = Duration.ofMinutes(10);
+
+        private int warmMaxConversations = 100_000;
+
+        private Duration warmIdle = Duration.ofDays(7);
+
+        private Duration maintenanceInterval = Duration.ofMinutes(1);
+
+        private MeterRegistry meterRegistry;
+
+        private Builder() {
+        }
+
+        /**
+         * 温存储（本地文件），必填
+         */
+        public Builder warm(FileBasedChatMemoryRepository warm) {
+            this.warm = warm;
+            return this;
+        }
+
+        /**
+         * 冷存储（例如 JDBC），为 null 时不归档
+         */
+        public Builder cold(ChatMemoryRepository cold) {
+            this.cold = cold;
+            return this;
+        }
+
+        /**
+         * 内存层容量（按消息内容估算的字节数）
+         */
+        public Builder hotMaxBytes(long hotMaxBytes) {
+            this.hotMaxBytes = hotMaxBytes;
+            return this;
+        }
+
+        /**
+         * 内存中的会话空闲超过该时间后降级到文件
+         */
+        public Builder hotIdle(Duration hotIdle) {
+            this.hotIdle = hotIdle;
+            return this;
+        }
+
+        /**
+         * 文件层最多保留的会话数，超出部分按更新时间从旧到新归档
+         */
+        public Builder warmMaxConversations(int warmMaxConversations) {
+            this.warmMaxConversations = warmMaxConversations;
+            return this;
+        }
+
+        /**
+         * 文件中的会话超过该时间未更新后归档到冷存储
+         */
+        public Builder warmIdle(Duration warmIdle) {
+            this.warmIdle = warmIdle;
+            return this;
+        }
+
+        /**
+         * 降级和归档的检查间隔
+         */
+        public Builder maintenanceInterval(Duration maintenanceInterval) {
+            this.maintenanceInterval = maintenanceInterval;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public TieredChatMemoryRepository build() {
+            return new TieredChatMemoryRepository(this);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import com.zluolan.zaiagent.token.TokenCounter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 按 token 预算截取窗口、并把较早轮次折叠为滚动摘要的 ChatMemory
+ * <p>
+ * 与按条数截取的 {@code MessageWindowChatMemory} 不同，get 返回“摘要 + 预算内最近的消息”，
+ * 每轮提示词的大小可预期。历史超出预算后，在后台线程把较早的整轮对话连同已有摘要交给
+ * {@link ConversationSummarizer} 合并为新摘要，存为带 {@link #SUMMARY_METADATA_KEY} 标记的系统消息，
+ * 下次折叠前一直复用；请求路径上不调用模型。
+ * <p>
+ * 折叠期间新写入的消息会保留：提交摘要时重新读取历史，只有被折叠的前缀未变时才替换，否则放弃本次结果。
+ * 摘要长期失败时，历史超过 {@code hardLimitTokens} 后直接丢弃最早的轮次，保证存储不无限增长。
+ * 同一会话的写入按会话分段加锁串行执行，不需要再套 {@link ConcurrentChatMemory}。
+ */
+@Slf4j
+public class TokenWindowChatMemory implements ChatMemory {
+
+    public static final String SUMMARY_METADATA_KEY = "rollingSummary";
+
+    private static final String SUMMARY_PREFIX = "以下是之前对话的摘要：\n";
+
+    /**
+     * 把已有摘要和较早的对话合并为新摘要，通常调用模型实现
+     */
+    @FunctionalInterface
+    public interface ConversationSummarizer {
+
+        /**
+         * @param previousSummary 已有摘要，没有时为空字符串
+         * @param messages        需要并入摘要的较早对话
+         * @return 新摘要
+         */
+        String summarize(String previousSummary, List<Message> messages);
+    }
+
+    private final ChatMemoryRepository repository;
+
+    private final TokenCounter tokenCounter;
+
+    private final ConversationSummarizer summarizer;
+
+    private final Executor executor;
+
+    private final int tokenBudget;
+
+    private final int retainTokens;
+
+    private final int hardLimitTokens;
+
+    // 正在折叠的会话，避免重复提交
+    private final Set<String> folding = ConcurrentHashMap.newKeySet();
+
+    private final StripedLocks locks = new StripedLocks();
+
+    /**
+     * @param repository   底层存储
+     * @param tokenCounter token 估算器
+     * @param summarizer   摘要生成器
+     * @param executor     执行折叠的线程池
+     * @param tokenBudget  get 返回的消息（不含摘要）的 token 上限，历史超出时触发折叠
+     */
+    public TokenWindowChatMemory(ChatMemoryRepository repository, TokenCounter tokenCounter,
+                                 ConversationSummarizer summarizer, Executor executor, int tokenBudget) {
+        Assert.notNull(repository, "repository cannot be null");
+        Assert.notNull(tokenCounter, "tokenCounter cannot be null");
+        Assert.notNull(summarizer, "summarizer cannot be null");
+        Assert.notNull(executor, "executor cannot be null");
+        Assert.isTrue(tokenBudget > 0, "tokenBudget must be positive");
+        this.repository = repository;
+        this.tokenCounter = tokenCounter;
+        this.summarizer = summarizer;
+        this.executor = executor;
+        this.tokenBudget = tokenBudget;
+        // 折叠到预算的一半，使两次折叠之间能容纳若干轮对话
+        this.retainTokens = tokenBudget / 2;
+        this.hardLimitTokens = tokenBudget * 4;
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        Assert.notNull(messages, "messages cannot be null");
+        Assert.noNullElements(messages, "messages cannot contain null elements");
+        int historyTokens;
+        synchronized (locks.lockFor(conversationId)) {
+            List<Message> stored = new ArrayList<>(repository.findByConversationId(conversationId));
+            stored.addAll(messages);
+            int start = isSummary(stored) ? 1 : 0;
+            historyTokens = countTokens(stored.subList(start, stored.size()));
+            if (historyTokens > hardLimitTokens) {
+                int drop = foldPoint(stored.subList(start, stored.size()), tokenBudget);
+                log.warn("会话 {} 的历史超过 {} tokens 且尚未摘要，丢弃最早的 {} 条消息", conversationId, hardLimitTokens, drop);
+                stored.subList(start, start + drop).clear();
+            }
+            repository.saveAll(conversationId, stored);
+        }
+        if (historyTokens > tokenBudget) {
+            scheduleFold(conversationId);
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        List<Message> stored = repository.findByConversationId(conversationId);
+        int start = isSummary(stored) ? 1 : 0;
+        // 从最新的消息往前取，直到用完预算
+        int from = stored.size();
+        int tokens = 0;
+        while (from > start) {
+            int messageTokens = tokenCounter.count(stored.get(from - 1));
+            if (tokens + messageTokens > tokenBudget && from < stored.size()) {
+                break;
+            }
+            tokens += messageTokens;
+            from--;
+        }
+        // 不以孤立的工具结果开头
+        while (from < stored.size() && stored.get(from) instanceof ToolResponseMessage) {
+            from++;
+        }
+        List<Message> window = new ArrayList<>(stored.size() - from + 1);
+        if (start == 1) {
+            window.add(stored.get(0));
+        }
+        window.addAll(stored.subList(from, stored.size()));
+        return window;
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        synchronized (locks.lockFor(conversationId)) {
+            repository.deleteByConversationId(conversationId);
+        }
+    }
+
+    /**
+     * 立即折叠会话的较早轮次（在调用线程执行）
+     */
+    public void fold(String conversationId) {
+        List<Message> snapshot = repository.findByConversationId(conversationId);
+        int start = isSummary(snapshot) ? 1 : 0;
+        List<Message> history = snapshot.subList(start, snapshot.size());
+        if (countTokens(history) <= tokenBudget) {
+            return;
+        }
+        int foldCount = foldPoint(history, retainTokens);
+        if (foldCount == 0) {
+            return;
+        }
+        String previousSummary = start == 1 ? summaryText(snapshot.get(0)) : "";
+        String summary = summarizer.summarize(previousSummary, List.copyOf(history.subList(0, foldCount)));
+        Assert.hasText(summary, "summary cannot be empty");
+        Message summaryMessage = SystemMessage.builder()
+                .text(SUMMARY_PREFIX + summary)
+                .metadata(Map.of(SUMMARY_METADATA_KEY, true))
+                .build();
+
+        int prefixLength = start + foldCount;
+        synchronized (locks.lockFor(conversationId)) {
+            List<Message> current = repository.findByConversationId(conversationId);
+            if (current.size() < prefixLength || !current.subList(0, prefixLength).equals(snapshot.subList(0, prefixLength))) {
+                log.info("会话 {} 在摘要期间被修改，放弃本次摘要", conversationId);
+                return;
+            }
+            List<Message> folded = new ArrayList<>(current.size() - prefixLength + 1);
+            folded.add(summaryMessage);
+            folded.addAll(current.subList(prefixLength, current.size()));
+            repository.saveAll(conversationId, folded);
+        }
+        log.info("会话 {} 已将 {} 条较早的消息折叠为摘要", conversationId, foldCount);
+    }
+
+    private void scheduleFold(String conversationId) {
+        if (!folding.add(conversationId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    fold(conversationId);
+                } catch (RuntimeException e) {
+                    log.error("会话 {} 生成摘要失败", conversationId, e);
+                } finally {
+                    folding.remove(conversationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            folding.remove(conversationId);
+            log.warn("摘要线程池已满，会话 {} 下次写入时重试", conversationId);
+        }
+    }
+
+    /**
+     * 从最早的消息开始折叠，直到剩余部分不超过 retain；折叠点落在用户消息上，不拆开一轮对话，
+     * 也不折叠最后一轮
+     *
+     * @return 需要折叠的消息数
+     */
+    private int foldPoint(List<Message> history, int retain) {
+        int remaining = countTokens(history);
+        int foldCount = 0;
+        for (int i = 0; i < history.size() - 1; i++) {
+            remaining -= tokenCounter.count(history.get(i));
+            if (history.get(i + 1) instanceof UserMessage) {
+                foldCount = i + 1;
+                if (remaining <= retain) {
+                    break;
+                }
+            }
+        }
+        return foldCount;
+    }
+
+    private int countTokens(List<Message> messages) {
+        int tokens = 0;
+        for (Message message : messages) {
+            tokens += tokenCounter.count(message);
+        }
+        return tokens;
+    }
+
+    static boolean isSummary(List<Message> messages) {
+        return !messages.isEmpty() && messages.get(0) instanceof SystemMessage
+                && Boolean.TRUE.equals(messages.get(0).getMetadata().get(SUMMARY_METADATA_KEY));
+    }
+
+    private static String summaryText(Message message) {
+        String text = message.getText();
+        return text.startsWith(SUMMARY_PREFIX) ? text.substring(SUMMARY_PREFIX.length()) : text;
+    }
+}
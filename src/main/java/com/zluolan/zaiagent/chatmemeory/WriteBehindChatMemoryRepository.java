@@ -0,0 +1,314 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带写回缓存的 ChatMemoryRepository 装饰器
+ * <p>
+ * 活跃会话保存在按内存预算淘汰的 LRU 中，读取命中时不访问底层存储；
+ * 写入按 {@link DurabilityMode} 决定同步写穿还是后台写回。写回时同一会话的多次写入只保留最新一份，
+ * 尚未写回的会话放在独立的待写表里，不会因 LRU 淘汰而丢失；删除同样以墓碑形式排队写回。关闭时写回全部待写会话。
+ * <p>
+ * 内存状态的修改只持有很短的会话锁，写回 I/O 在另一把写回锁内进行，因此慢速存储不会阻塞请求线程，
+ * 同一会话的写回也不会乱序。
+ */
+@Slf4j
+public class WriteBehindChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
+
+    /**
+     * 持久化方式
+     */
+    public enum DurabilityMode {
+
+        /**
+         * 同步写穿：saveAll 返回前已写入底层存储
+         */
+        SYNC,
+
+        /**
+         * 异步写回：saveAll 只更新内存，后台线程尽快写入底层存储，同一会话的连续写入合并为一次
+         */
+        ASYNC,
+
+        /**
+         * 定期写回：后台线程每隔 flushInterval 批量写入一次，进程崩溃时最多丢失一个周期的数据
+         */
+        PERIODIC
+    }
+
+    // 单条消息的固定开销估算（对象头、元数据 Map 等）
+    private static final int MESSAGE_OVERHEAD_BYTES = 128;
+
+    private final ChatMemoryRepository delegate;
+
+    private final DurabilityMode durabilityMode;
+
+    private final Cache<String, List<Message>> cache;
+
+    // 已删除、等待写回的会话
+    private static final List<Message> TOMBSTONE = new ArrayList<>(0);
+
+    // 尚未写回的会话（最新快照或 TOMBSTONE），写回成功后移除
+    private final Map<String, List<Message>> pending = new ConcurrentHashMap<>();
+
+    // 已提交写回任务、尚未执行的会话，用于合并 ASYNC 模式下的重复提交
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+
+    // 保护 cache 与 pending 的一致性
+    private final StripedLocks locks = new StripedLocks();
+
+    // 串行化同一会话的写回
+    private final StripedLocks flushLocks = new StripedLocks();
+
+    private final ScheduledExecutorService flusher;
+
+    private final Duration flushInterval;
+
+    private volatile boolean closed;
+
+    /**
+     * @param delegate       底层存储
+     * @param maxMemoryBytes 缓存的内存预算（按消息内容估算）
+     * @param durabilityMode 持久化方式
+     * @param flushInterval  PERIODIC 模式的写回周期，也是写回失败后的重试间隔
+     */
+    public WriteBehindChatMemoryRepository(ChatMemoryRepository delegate, long maxMemoryBytes,
+                                           DurabilityMode durabilityMode, Duration flushInterval) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        Assert.isTrue(maxMemoryBytes > 0, "maxMemoryBytes must be positive");
+        Assert.notNull(durabilityMode, "durabilityMode cannot be null");
+        Assert.isTrue(flushInterval != null && !flushInterval.isNegative() && !flushInterval.isZero(),
+                "flushInterval must be positive");
+        this.delegate = delegate;
+        this.durabilityMode = durabilityMode;
+        this.flushInterval = flushInterval;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxMemoryBytes)
+                .weigher((String id, List<Message> messages) -> (int) Math.min(Integer.MAX_VALUE, estimateBytes(messages)))
+                .build();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (durabilityMode == DurabilityMode.PERIODIC) {
+            long intervalMillis = flushInterval.toMillis();
+            flusher.scheduleWithFixedDelay(this::flushAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        Set<String> ids = new LinkedHashSet<>(delegate.findConversationIds());
+        for (Map.Entry<String, List<Message>> entry : pending.entrySet()) {
+            if (entry.getValue() == TOMBSTONE) {
+                ids.remove(entry.getKey());
+            } else {
+                ids.add(entry.getKey());
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        List<Message> messages = cached(conversationId);
+        if (messages != null) {
+            return new ArrayList<>(messages);
+        }
+        synchronized (locks.lockFor(conversationId)) {
+            messages = cached(conversationId);
+            if (messages == null) {
+                messages = List.copyOf(delegate.findByConversationId(conversationId));
+                cache.put(conversationId, messages);
+            }
+        }
+        return new ArrayList<>(messages);
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        Assert.notNull(messages, "messages cannot be null");
+        Assert.noNullElements(messages, "messages cannot contain null elements");
+        List<Message> snapshot = List.copyOf(messages);
+        synchronized (locks.lockFor(conversationId)) {
+            cache.put(conversationId, snapshot);
+            pending.put(conversationId, snapshot);
+        }
+        afterWrite(conversationId);
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        synchronized (locks.lockFor(conversationId)) {
+            cache.invalidate(conversationId);
+            pending.put(conversationId, TOMBSTONE);
+        }
+        afterWrite(conversationId);
+    }
+
+    private void afterWrite(String conversationId) {
+        if (durabilityMode == DurabilityMode.SYNC || closed) {
+            if (!flush(conversationId)) {
+                throw new IllegalStateException("Failed to write conversation " + conversationId);
+            }
+        } else if (durabilityMode == DurabilityMode.ASYNC) {
+            schedule(conversationId, 0);
+        }
+    }
+
+    /**
+     * 写回所有待写会话
+     *
+     * @return 写回失败的会话数
+     */
+    public int flushAll() {
+        int failed = 0;
+        for (String conversationId : pending.keySet()) {
+            if (!flush(conversationId)) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * 当前待写回的会话数
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * 当前缓存占用的估算字节数
+     */
+    public long estimatedMemoryBytes() {
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L);
+    }
+
+    /**
+     * 停止后台线程并写回全部待写会话，之后的写入改为同步写穿；底层存储可关闭时一并关闭
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(flushInterval.toMillis() + 5000, TimeUnit.MILLISECONDS)) {
+                flusher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            flusher.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        int failed = flushAll();
+        if (failed > 0) {
+            log.error("关闭时仍有 {} 个会话写回失败", failed);
+        }
+        if (delegate instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.warn("关闭底层存储失败", e);
+            }
+        }
+    }
+
+    private List<Message> cached(String conversationId) {
+        List<Message> messages = pending.get(conversationId);
+        if (messages == TOMBSTONE) {
+            return List.of();
+        }
+        return messages != null ? messages : cache.getIfPresent(conversationId);
+    }
+
+    private void schedule(String conversationId, long delayMillis) {
+        if (closed || !scheduled.add(conversationId)) {
+            return;
+        }
+        try {
+            flusher.schedule(() -> {
+                scheduled.remove(conversationId);
+                if (!flush(conversationId)) {
+                    schedule(conversationId, flushInterval.toMillis());
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // 执行器已关闭，由 close 统一写回
+            scheduled.remove(conversationId);
+        }
+    }
+
+    /**
+     * 写回单个会话的最新快照；写回期间的新写入不受阻塞，会留在待写表中等待下一次写回
+     *
+     * @return 是否成功（没有待写数据也视为成功）
+     */
+    private boolean flush(String conversationId) {
+        synchronized (flushLocks.lockFor(conversationId)) {
+            List<Message> snapshot = pending.get(conversationId);
+            if (snapshot == null) {
+                return true;
+            }
+            try {
+                if (snapshot == TOMBSTONE) {
+                    delegate.deleteByConversationId(conversationId);
+                } else {
+                    delegate.saveAll(conversationId, snapshot);
+                }
+            } catch (RuntimeException e) {
+                log.error("会话 {} 写回失败，稍后重试", conversationId, e);
+                return false;
+            }
+            // 只移除刚写回的那份快照，期间的新写入保留
+            pending.computeIfPresent(conversationId, (id, current) -> current == snapshot ? null : current);
+            return true;
+        }
+    }
+
+    /**
+     * 粗略估算消息列表占用的内存：字符按 2 字节计，另加固定开销
+     */
+    static long estimateBytes(List<Message> messages) {
+        long bytes = 64;
+        for (Message message : messages) {
+            bytes += MESSAGE_OVERHEAD_BYTES;
+            bytes += 2L * length(message.getText());
+            if (message instanceof AssistantMessage assistantMessage) {
+                for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                    bytes += MESSAGE_OVERHEAD_BYTES + 2L * length(toolCall.arguments());
+                }
+            } else if (message instanceof ToolResponseMessage toolResponseMessage) {
+                for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                    bytes += MESSAGE_OVERHEAD_BYTES + 2L * length(response.responseData());
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+}
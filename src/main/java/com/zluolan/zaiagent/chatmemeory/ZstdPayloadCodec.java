@@ -0,0 +1,112 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zstd 编解码器，可使用预训练字典
+ * <p>
+ * 单条消息通常只有几百字节，普通压缩几乎没有收益；用历史消息训练出的字典包含系统提示词、
+ * 工具结果前缀等重复片段，能显著提高小记录的压缩率。第一个字典用于压缩，
+ * 其余字典只用于解压更换字典之前写入的记录（按帧中的字典 id 选择）。
+ */
+public final class ZstdPayloadCodec extends CompressingPayloadCodec {
+
+    public static final int DEFAULT_LEVEL = 3;
+
+    private final int level;
+
+    private final List<byte[]> dictionaries;
+
+    private final ZstdDictCompress compressDictionary;
+
+    private final Map<Long, ZstdDictDecompress> decompressDictionaries = new HashMap<>();
+
+    /**
+     * 不使用字典
+     */
+    public ZstdPayloadCodec(int level) {
+        this(level, List.of());
+    }
+
+    /**
+     * @param level        压缩级别
+     * @param dictionaries 字典，第一个用于压缩
+     */
+    public ZstdPayloadCodec(int level, List<byte[]> dictionaries) {
+        Assert.notNull(dictionaries, "dictionaries cannot be null");
+        this.level = level;
+        this.dictionaries = List.copyOf(dictionaries);
+        this.compressDictionary = dictionaries.isEmpty() ? null : new ZstdDictCompress(dictionaries.get(0), level);
+        for (byte[] dictionary : dictionaries) {
+            decompressDictionaries.putIfAbsent(Zstd.getDictIdFromDict(dictionary), new ZstdDictDecompress(dictionary));
+        }
+    }
+
+    /**
+     * 用样本训练字典
+     *
+     * @param samples        样本（序列化后的消息）
+     * @param dictionarySize 字典大小上限
+     */
+    public static byte[] trainDictionary(List<byte[]> samples, int dictionarySize) {
+        Assert.notEmpty(samples, "samples cannot be empty");
+        byte[] buffer = new byte[dictionarySize];
+        long size = Zstd.trainFromBuffer(samples.toArray(new byte[0][]), buffer);
+        if (Zstd.isError(size)) {
+            throw new IllegalArgumentException("Failed to train zstd dictionary: " + Zstd.getErrorName(size));
+        }
+        byte[] dictionary = new byte[(int) size];
+        System.arraycopy(buffer, 0, dictionary, 0, dictionary.length);
+        return dictionary;
+    }
+
+    /**
+     * 返回一个使用新字典压缩、同时保留已有字典用于解压的编解码器
+     */
+    public ZstdPayloadCodec withDictionary(byte[] dictionary) {
+        List<byte[]> merged = new ArrayList<>();
+        merged.add(dictionary);
+        merged.addAll(dictionaries);
+        return new ZstdPayloadCodec(level, merged);
+    }
+
+    /**
+     * 全部字典，第一个用于压缩
+     */
+    public List<byte[]> getDictionaries() {
+        return dictionaries;
+    }
+
+    @Override
+    public byte id() {
+        return ZSTD_ID;
+    }
+
+    @Override
+    protected byte[] compress(byte[] raw) {
+        return compressDictionary == null ? Zstd.compress(raw, level) : Zstd.compress(raw, compressDictionary);
+    }
+
+    @Override
+    protected byte[] decompress(byte[] data, int offset, int length, int rawLength) {
+        byte[] frame = offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length);
+        long dictionaryId = Zstd.getDictIdFromFrame(frame);
+        if (dictionaryId == 0) {
+            return Zstd.decompress(frame, rawLength);
+        }
+        ZstdDictDecompress dictionary = decompressDictionaries.get(dictionaryId);
+        if (dictionary == null) {
+            throw new IllegalStateException("Missing zstd dictionary " + dictionaryId);
+        }
+        return Zstd.decompress(frame, dictionary, rawLength);
+    }
+}
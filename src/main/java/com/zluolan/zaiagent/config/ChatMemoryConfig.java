@@ -0,0 +1,113 @@
+package com.zluolan.zaiagent.config;
+
+import com.zluolan.zaiagent.chatmemeory.FileBasedChatMemoryRepository;
+import com.zluolan.zaiagent.chatmemeory.IncrementalJdbcChatMemoryRepository;
+import com.zluolan.zaiagent.chatmemeory.Lz4PayloadCodec;
+import com.zluolan.zaiagent.chatmemeory.PayloadCodec;
+import com.zluolan.zaiagent.chatmemeory.TieredChatMemoryRepository;
+import com.zluolan.zaiagent.chatmemeory.WriteBehindChatMemoryRepository;
+import com.zluolan.zaiagent.chatmemeory.ZstdPayloadCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 对话记忆存储配置，通过 agent.memory.store 选择存储方式：
+ * <ul>
+ *     <li>memory：进程内存，不持久化（默认）</li>
+ *     <li>file：本地文件</li>
+ *     <li>write-behind：本地文件 + 写回缓存</li>
+ *     <li>tiered：内存 / 本地文件 / JDBC 三层，JDBC 层需要启用 {@link MemoryConfig}</li>
+ * </ul>
+ * 本地文件的 payload 压缩通过 agent.memory.codec 选择 lz4（默认）或 zstd，zstd 可指定预训练字典
+ * （见 {@link FileBasedChatMemoryRepository#trainDictionary}）。切换后已有日志在首次访问时按新格式重写。
+ */
+@Slf4j
+@Configuration
+public class ChatMemoryConfig {
+
+    @Primary
+    @Bean
+    public ChatMemoryRepository chatMemoryRepository(
+            @Value("${agent.memory.store:memory}") String store,
+            @Value("${agent.memory.dir:./chat_memories}") String dir,
+            @Value("${agent.memory.hot.max-size:64MB}") DataSize hotMaxSize,
+            @Value("${agent.memory.hot.idle:10m}") Duration hotIdle,
+            @Value("${agent.memory.warm.max-conversations:100000}") int warmMaxConversations,
+            @Value("${agent.memory.warm.idle:7d}") Duration warmIdle,
+            @Value("${agent.memory.maintenance-interval:1m}") Duration maintenanceInterval,
+            @Value("${agent.memory.codec:lz4}") String codecName,
+            @Value("${agent.memory.zstd.level:" + ZstdPayloadCodec.DEFAULT_LEVEL + "}") int zstdLevel,
+            @Value("${agent.memory.zstd.dictionary:}") String zstdDictionary,
+            @Value("${agent.memory.max-open-logs:" + FileBasedChatMemoryRepository.DEFAULT_MAX_OPEN_LOGS + "}") int maxOpenLogs,
+            ObjectProvider<IncrementalJdbcChatMemoryRepository> jdbcRepositoryProvider,
+            ObjectProvider<MeterRegistry> meterRegistryProvider) {
+        return switch (store) {
+            case "memory" -> new InMemoryChatMemoryRepository();
+            case "file" -> fileRepository(dir, codecName, zstdLevel, zstdDictionary, maxOpenLogs);
+            case "write-behind" -> new WriteBehindChatMemoryRepository(
+                    fileRepository(dir, codecName, zstdLevel, zstdDictionary, maxOpenLogs),
+                    hotMaxSize.toBytes(), WriteBehindChatMemoryRepository.DurabilityMode.ASYNC, Duration.ofSeconds(1));
+            case "tiered" -> {
+                IncrementalJdbcChatMemoryRepository cold = jdbcRepositoryProvider.getIfAvailable();
+                if (cold == null) {
+                    log.warn("未配置 JDBC 记忆存储，分层存储不归档冷数据");
+                }
+                yield TieredChatMemoryRepository.builder()
+                        .warm(fileRepository(dir, codecName, zstdLevel, zstdDictionary, maxOpenLogs))
+                        .cold(cold)
+                        .hotMaxBytes(hotMaxSize.toBytes())
+                        .hotIdle(hotIdle)
+                        .warmMaxConversations(warmMaxConversations)
+                        .warmIdle(warmIdle)
+                        .maintenanceInterval(maintenanceInterval)
+                        .meterRegistry(meterRegistryProvider.getIfAvailable(() -> Metrics.globalRegistry))
+                        .build();
+            }
+            default -> throw new IllegalArgumentException("Unknown agent.memory.store: " + store);
+        };
+    }
+
+    private static FileBasedChatMemoryRepository fileRepository(String dir, String codecName, int zstdLevel,
+                                                                String zstdDictionary, int maxOpenLogs) {
+        return new FileBasedChatMemoryRepository(dir, Duration.ofMinutes(1),
+                payloadCodec(codecName, zstdLevel, zstdDictionary), maxOpenLogs);
+    }
+
+    /**
+     * 按配置创建 payload 编解码器
+     *
+     * @param zstdDictionary zstd 字典文件路径，为空时不使用字典
+     */
+    static PayloadCodec payloadCodec(String codecName, int zstdLevel, String zstdDictionary) {
+        return switch (codecName) {
+            case "lz4" -> new Lz4PayloadCodec();
+            case "zstd" -> {
+                if (zstdDictionary == null || zstdDictionary.isBlank()) {
+                    yield new ZstdPayloadCodec(zstdLevel);
+                }
+                try {
+                    yield new ZstdPayloadCodec(zstdLevel, List.of(Files.readAllBytes(Path.of(zstdDictionary))));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to read zstd dictionary " + zstdDictionary, e);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown agent.memory.codec: " + codecName);
+        };
+    }
+}
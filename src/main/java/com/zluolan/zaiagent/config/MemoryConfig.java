@@ -1,12 +1,15 @@
 package com.zluolan.zaiagent.config;
 
 import com.alibaba.cloud.ai.memory.jdbc.MysqlChatMemoryRepository;
+import com.zluolan.zaiagent.chatmemeory.IncrementalJdbcChatMemoryRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
 
+import java.time.Duration;
+
 //@Configuration
 public class MemoryConfig {
 
@@ -24,15 +27,25 @@ public class MemoryConfig {
 
     @Bean
     public MysqlChatMemoryRepository mysqlChatMemoryRepository() {
+        return MysqlChatMemoryRepository.mysqlBuilder()
+                .jdbcTemplate(jdbcTemplate())
+                .build();
+    }
+
+    /**
+     * 只写入差异、跨会话批量提交的 JDBC 记忆存储，与 mysqlChatMemoryRepository 使用同一张表
+     */
+    @Bean(destroyMethod = "close")
+    public IncrementalJdbcChatMemoryRepository incrementalJdbcChatMemoryRepository() {
+        return new IncrementalJdbcChatMemoryRepository(jdbcTemplate(), Duration.ofMillis(10), 500, 10_000);
+    }
+
+    private JdbcTemplate jdbcTemplate() {
         DriverManagerDataSource dataSource = new DriverManagerDataSource();
         dataSource.setDriverClassName(mysqlDriverClassName);
         dataSource.setUrl(mysqlJdbcUrl);
         dataSource.setUsername(mysqlUsername);
         dataSource.setPassword(mysqlPassword);
-
-        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
-        return MysqlChatMemoryRepository.mysqlBuilder()
-                .jdbcTemplate(jdbcTemplate)
-                .build();
+        return new JdbcTemplate(dataSource);
     }
 }
\ No newline at end of file
@@ -1,12 +1,15 @@
 package com.zluolan.zaiagent.controller;
 
-import com.zluolan.zaiagent.agent.YuManus;
+import com.zluolan.zaiagent.agent.BaseAgent;
+import com.zluolan.zaiagent.agent.YuManusFactory;
 import com.zluolan.zaiagent.app.LoveApp;
+import com.zluolan.zaiagent.exception.BusinessException;
+import com.zluolan.zaiagent.exception.ErrorCode;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.annotation.Resource;
-import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.ai.tool.ToolCallback;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -25,10 +28,7 @@ public class AiController {
     private LoveApp loveApp;
 
     @Resource
-    private ToolCallback[] allTools;
-
-    @Resource
-    private ChatModel dashscopeChatModel;
+    private YuManusFactory yuManusFactory;
 
     /**
      * 测试用，使用LoveApp进行对话,同步
@@ -100,9 +100,17 @@ public class AiController {
      * @return
      */
     @GetMapping("/manus/chat")
-    public SseEmitter doChatWithManus(String message) {
-        YuManus yuManus = new YuManus(allTools, dashscopeChatModel);
-        return yuManus.runStream(message);
+    public ResponseEntity<SseEmitter> doChatWithManus(String message) {
+        try {
+            return ResponseEntity.ok(yuManusFactory.create().runStream(message));
+        } catch (BusinessException e) {
+            if (e.getCode() != ErrorCode.TOO_MANY_REQUEST_ERROR.getCode()) {
+                throw e;
+            }
+            // 排队已满：返回 429，同时以 SSE error 事件说明原因
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .body(BaseAgent.errorEmitter(e.getMessage()));
+        }
     }
 
 
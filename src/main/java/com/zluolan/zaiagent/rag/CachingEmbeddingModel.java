@@ -0,0 +1,244 @@
+package com.zluolan.zaiagent.rag;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按内容寻址的嵌入缓存装饰器
+ * <p>
+ * 以（模型、文本 SHA-256）为键缓存向量，分两层：进程内的 Caffeine 缓存（容量有上限），
+ * 以及每个模型一个的本地向量文件 {@link MappedEmbeddingStore}，重启后仍可命中。
+ * 批量请求先逐条查缓存，只把未命中（并去重）的文本一次性发给底层模型，结果按原顺序拼回。
+ * 所有向量存储共用同一个实例时，同一文本块和重复的检索查询都只嵌入一次。
+ * <p>
+ * 请求选项中指定了模型或维度时按选项区分缓存；本地文件打开或写入失败只影响持久层，不影响嵌入。
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel, AutoCloseable {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final EmbeddingModel delegate;
+
+    private final String modelId;
+
+    private final MetadataMode metadataMode;
+
+    private final Path dir;
+
+    // 键为“命名空间:内容哈希”
+    private final Cache<String, float[]> cache;
+
+    // 命名空间 → 本地向量文件，打开失败时为空
+    private final Map<String, Optional<MappedEmbeddingStore>> stores = new ConcurrentHashMap<>();
+
+    private final Counter diskHits;
+
+    private final Counter modelEmbeddings;
+
+    /**
+     * @param delegate      实际的嵌入模型
+     * @param modelId       默认模型标识，请求未指定模型时使用
+     * @param metadataMode  嵌入文档时拼入的元数据，需与底层模型一致
+     * @param maximumSize   内存层最多缓存的向量数
+     * @param dir           本地持久层目录，为 null 时只使用内存层
+     * @param meterRegistry 指标注册表，可为 null
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String modelId, MetadataMode metadataMode,
+                                 long maximumSize, Path dir, MeterRegistry meterRegistry) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        Assert.hasText(modelId, "modelId cannot be null or empty");
+        Assert.notNull(metadataMode, "metadataMode cannot be null");
+        Assert.isTrue(maximumSize > 0, "maximumSize must be positive");
+        this.delegate = delegate;
+        this.modelId = modelId;
+        this.metadataMode = metadataMode;
+        this.dir = dir;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "rag.embedding.cache");
+            this.diskHits = Counter.builder("rag.embedding.cache.disk.hits")
+                    .description("内存层未命中、本地向量文件命中的文本数")
+                    .register(meterRegistry);
+            this.modelEmbeddings = Counter.builder("rag.embedding.model.texts")
+                    .description("实际发送给嵌入模型的文本数")
+                    .register(meterRegistry);
+        } else {
+            this.diskHits = null;
+            this.modelEmbeddings = null;
+        }
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        Assert.notNull(request, "request cannot be null");
+        List<String> texts = request.getInstructions();
+        String namespace = namespace(request.getOptions());
+        MappedEmbeddingStore store = store(namespace);
+        float[][] vectors = new float[texts.size()][];
+        // 未命中的内容哈希 → 在请求中的位置，同一文本只嵌入一次
+        Map<String, List<Integer>> misses = new LinkedHashMap<>();
+        List<String> missTexts = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String hash = hash(texts.get(i));
+            float[] vector = lookup(namespace, hash, store);
+            if (vector != null) {
+                vectors[i] = vector;
+            } else {
+                List<Integer> positions = misses.computeIfAbsent(hash, key -> new ArrayList<>());
+                if (positions.isEmpty()) {
+                    missTexts.add(texts.get(i));
+                }
+                positions.add(i);
+            }
+        }
+        if (!misses.isEmpty()) {
+            List<float[]> embedded = embedMisses(missTexts, request.getOptions());
+            int j = 0;
+            for (Map.Entry<String, List<Integer>> miss : misses.entrySet()) {
+                float[] vector = embedded.get(j++);
+                cache.put(namespace + ":" + miss.getKey(), vector);
+                persist(store, miss.getKey(), vector);
+                for (int position : miss.getValue()) {
+                    vectors[position] = vector;
+                }
+            }
+            log.debug("嵌入请求 {} 条，缓存命中 {} 条", texts.size(), texts.size() - missTexts.size());
+        }
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            // 复制一份，避免调用方修改缓存中的向量
+            embeddings.add(new Embedding(Arrays.copyOf(vectors[i], vectors[i].length), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        Assert.notNull(document, "document cannot be null");
+        return embed(document.getFormattedContent(metadataMode));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    private float[] lookup(String namespace, String hash, MappedEmbeddingStore store) {
+        String key = namespace + ":" + hash;
+        float[] vector = cache.getIfPresent(key);
+        if (vector == null && store != null) {
+            vector = store.get(hash);
+            if (vector != null) {
+                cache.put(key, vector);
+                if (diskHits != null) {
+                    diskHits.increment();
+                }
+            }
+        }
+        return vector;
+    }
+
+    private List<float[]> embedMisses(List<String> texts, EmbeddingOptions options) {
+        EmbeddingResponse response = delegate.call(new EmbeddingRequest(texts, options));
+        List<Embedding> results = response.getResults();
+        Assert.state(results.size() == texts.size(),
+                () -> "Expected " + texts.size() + " embeddings but got " + results.size());
+        float[][] ordered = new float[texts.size()][];
+        for (Embedding embedding : results) {
+            ordered[embedding.getIndex()] = embedding.getOutput();
+        }
+        if (modelEmbeddings != null) {
+            modelEmbeddings.increment(texts.size());
+        }
+        return Arrays.asList(ordered);
+    }
+
+    private void persist(MappedEmbeddingStore store, String hash, float[] vector) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.put(hash, vector);
+        } catch (IOException e) {
+            log.warn("写入嵌入缓存文件失败，仅保留在内存中", e);
+        }
+    }
+
+    private MappedEmbeddingStore store(String namespace) {
+        if (dir == null) {
+            return null;
+        }
+        return stores.computeIfAbsent(namespace, key -> {
+            Path file = dir.resolve(key.replaceAll("[^A-Za-z0-9._-]", "_") + ".emb");
+            try {
+                MappedEmbeddingStore store = new MappedEmbeddingStore(file);
+                log.info("已打开嵌入缓存文件 {}，包含 {} 个向量", file, store.size());
+                return Optional.of(store);
+            } catch (IOException e) {
+                log.warn("打开嵌入缓存文件 {} 失败，该模型只使用内存缓存", file, e);
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    private String namespace(EmbeddingOptions options) {
+        if (options == null) {
+            return modelId;
+        }
+        String namespace = options.getModel() != null ? options.getModel() : modelId;
+        return options.getDimensions() != null ? namespace + "-" + options.getDimensions() : namespace;
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HEX.formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Optional<MappedEmbeddingStore> store : stores.values()) {
+            if (store.isPresent()) {
+                try {
+                    store.get().close();
+                } catch (IOException e) {
+                    log.warn("关闭嵌入缓存文件失败", e);
+                }
+            }
+        }
+        stores.clear();
+    }
+}
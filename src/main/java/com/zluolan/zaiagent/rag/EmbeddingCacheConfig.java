@@ -0,0 +1,38 @@
+package com.zluolan.zaiagent.rag;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.nio.file.Path;
+
+/**
+ * 嵌入缓存配置：在 DashScope 嵌入模型外包一层 {@link CachingEmbeddingModel} 并设为首选，
+ * loveAppVectorStore、RagConfig.vectorStore 和 pgVectorVectorStore 共用同一份缓存
+ */
+@Configuration
+public class EmbeddingCacheConfig {
+
+    @Primary
+    @Bean
+    public EmbeddingModel cachingEmbeddingModel(
+            @Qualifier("dashscopeEmbeddingModel") EmbeddingModel dashscopeEmbeddingModel,
+            @Value("${agent.rag.embedding-model:text-embedding-v1}") String embeddingModelId,
+            @Value("${agent.rag.embedding-cache.enabled:true}") boolean enabled,
+            @Value("${agent.rag.embedding-cache.maximum-size:10000}") long maximumSize,
+            @Value("${agent.rag.embedding-cache.dir:./embedding_cache}") String dir,
+            ObjectProvider<MeterRegistry> meterRegistryProvider) {
+        if (!enabled) {
+            return dashscopeEmbeddingModel;
+        }
+        return new CachingEmbeddingModel(dashscopeEmbeddingModel, embeddingModelId, MetadataMode.EMBED, maximumSize,
+                dir.isBlank() ? null : Path.of(dir), meterRegistryProvider.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+}
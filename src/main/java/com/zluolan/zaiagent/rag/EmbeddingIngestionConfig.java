@@ -0,0 +1,39 @@
+package com.zluolan.zaiagent.rag;
+
+import com.zluolan.zaiagent.token.TokenCounter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 文档入库流水线配置，限流参数按 DashScope 账号的嵌入模型配额调整
+ */
+@Configuration
+public class EmbeddingIngestionConfig {
+
+    @Bean
+    public EmbeddingIngestionPipeline embeddingIngestionPipeline(
+            TokenCounter tokenCounter,
+            @Value("${agent.rag.ingestion.max-batch-tokens:8000}") int maxBatchTokens,
+            @Value("${agent.rag.ingestion.max-batch-size:25}") int maxBatchSize,
+            @Value("${agent.rag.ingestion.concurrency:4}") int concurrency,
+            @Value("${agent.rag.ingestion.requests-per-minute:1200}") long requestsPerMinute,
+            @Value("${agent.rag.ingestion.tokens-per-minute:600000}") long tokensPerMinute,
+            @Value("${agent.rag.ingestion.max-attempts:5}") int maxAttempts,
+            @Value("${agent.rag.ingestion.initial-backoff:1s}") Duration initialBackoff,
+            @Value("${agent.rag.ingestion.max-backoff:30s}") Duration maxBackoff) {
+        return EmbeddingIngestionPipeline.builder()
+                .tokenCounter(tokenCounter)
+                .maxBatchTokens(maxBatchTokens)
+                .maxBatchSize(maxBatchSize)
+                .concurrency(concurrency)
+                .requestsPerMinute(requestsPerMinute)
+                .tokensPerMinute(tokensPerMinute)
+                .maxAttempts(maxAttempts)
+                .initialBackoff(initialBackoff)
+                .maxBackoff(maxBackoff)
+                .build();
+    }
+}
@@ -0,0 +1,263 @@
+package com.zluolan.zaiagent.rag;
+
+import com.zluolan.zaiagent.token.TokenCounter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 文档入库流水线
+ * <p>
+ * 按 token 数和条数把文档切成批次，每批在虚拟线程上调用 {@link VectorStore#add}（由向量库完成嵌入和写入），
+ * 同时在途的批次不超过 concurrency，文档迭代器按需读取，内存中最多保留 concurrency + 1 个批次。
+ * 每次请求前按令牌桶扣减请求数和 token 数，与 DashScope 的 RPM / TPM 配额对应；失败的批次按指数退避
+ * （带随机抖动）重试，重试用尽后记为失败，不影响其他批次。
+ * <p>
+ * 向量库使用 {@link CachingEmbeddingModel} 时，重试只会重新嵌入上次未成功的文本。
+ * 写入需幂等（PgVectorStore 按 id upsert，SimdVectorStore 按 id 覆盖）。
+ */
+@Slf4j
+public class EmbeddingIngestionPipeline {
+
+    /**
+     * 入库结果
+     *
+     * @param documents       成功写入的文档数
+     * @param batches         批次数
+     * @param failedDocuments 重试用尽仍失败的文档数
+     */
+    public record Result(int documents, int batches, int failedDocuments) {
+    }
+
+    private final TokenCounter tokenCounter;
+
+    private final int maxBatchTokens;
+
+    private final int maxBatchSize;
+
+    private final int concurrency;
+
+    private final int maxAttempts;
+
+    private final Duration initialBackoff;
+
+    private final Duration maxBackoff;
+
+    private final TokenBucket requestBucket;
+
+    private final TokenBucket tokenBucket;
+
+    private EmbeddingIngestionPipeline(Builder builder) {
+        Assert.notNull(builder.tokenCounter, "tokenCounter cannot be null");
+        Assert.isTrue(builder.maxBatchTokens > 0, "maxBatchTokens must be positive");
+        Assert.isTrue(builder.maxBatchSize > 0, "maxBatchSize must be positive");
+        Assert.isTrue(builder.concurrency > 0, "concurrency must be positive");
+        Assert.isTrue(builder.maxAttempts > 0, "maxAttempts must be positive");
+        Assert.notNull(builder.initialBackoff, "initialBackoff cannot be null");
+        Assert.notNull(builder.maxBackoff, "maxBackoff cannot be null");
+        this.tokenCounter = builder.tokenCounter;
+        this.maxBatchTokens = builder.maxBatchTokens;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.concurrency = builder.concurrency;
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.requestBucket = builder.requestsPerMinute > 0
+                ? new TokenBucket(builder.requestsPerMinute, Duration.ofMinutes(1)) : null;
+        this.tokenBucket = builder.tokensPerMinute > 0
+                ? new TokenBucket(builder.tokensPerMinute, Duration.ofMinutes(1)) : null;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 把文档分批写入向量库，所有批次结束后返回
+     */
+    public Result ingest(Iterable<Document> documents, VectorStore vectorStore) {
+        Assert.notNull(documents, "documents cannot be null");
+        Assert.notNull(vectorStore, "vectorStore cannot be null");
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        int batches = 0;
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Document> batch = new ArrayList<>();
+            int batchTokens = 0;
+            for (Document document : documents) {
+                int tokens = tokenCounter.count(document.getText());
+                if (!batch.isEmpty() && (batch.size() >= maxBatchSize || batchTokens + tokens > maxBatchTokens)) {
+                    submit(executor, inFlight, batch, batchTokens, vectorStore, written, failed);
+                    batches++;
+                    batch = new ArrayList<>();
+                    batchTokens = 0;
+                }
+                batch.add(document);
+                batchTokens += tokens;
+            }
+            if (!batch.isEmpty()) {
+                submit(executor, inFlight, batch, batchTokens, vectorStore, written, failed);
+                batches++;
+            }
+        }
+        log.info("入库完成：{} 个批次，写入 {} 个文档，失败 {} 个，耗时 {} ms", batches, written.get(), failed.get(),
+                Duration.ofNanos(System.nanoTime() - start).toMillis());
+        return new Result(written.get(), batches, failed.get());
+    }
+
+    private void submit(ExecutorService executor, Semaphore inFlight, List<Document> batch, int batchTokens,
+                        VectorStore vectorStore, AtomicInteger written, AtomicInteger failed) {
+        try {
+            // 在途批次已满时阻塞读取，控制内存
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ingestion interrupted", e);
+        }
+        executor.execute(() -> {
+            try {
+                addWithRetry(batch, batchTokens, vectorStore);
+                written.addAndGet(batch.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.addAndGet(batch.size());
+            } catch (RuntimeException e) {
+                log.error("批次写入失败，已重试 {} 次，丢弃 {} 个文档", maxAttempts, batch.size(), e);
+                failed.addAndGet(batch.size());
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void addWithRetry(List<Document> batch, int batchTokens, VectorStore vectorStore) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            if (requestBucket != null) {
+                requestBucket.acquire(1);
+            }
+            if (tokenBucket != null) {
+                tokenBucket.acquire(batchTokens);
+            }
+            try {
+                vectorStore.add(batch);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                long backoff = backoffMillis(attempt);
+                log.warn("批次（{} 个文档）第 {} 次写入失败，{} ms 后重试：{}", batch.size(), attempt, backoff, e.getMessage());
+                Thread.sleep(backoff);
+            }
+        }
+    }
+
+    /**
+     * 指数退避，取 [delay/2, delay] 内的随机值，避免并发批次同时重试
+     */
+    private long backoffMillis(int attempt) {
+        long delay = initialBackoff.toMillis() << Math.min(attempt - 1, 20);
+        delay = Math.min(delay, maxBackoff.toMillis());
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    public static final class Builder {
+
+        private TokenCounter tokenCounter;
+
+        private int maxBatchTokens = 8000;
+
+        private int maxBatchSize = 25;
+
+        private int concurrency = 4;
+
+        private long requestsPerMinute;
+
+        private long tokensPerMinute;
+
+        private int maxAttempts = 5;
+
+        private Duration initialBackoff = Duration.ofSeconds(1);
+
+        private Duration maxBackoff = Duration.ofSeconds(30);
+
+        private Builder() {
+        }
+
+        public Builder tokenCounter(TokenCounter tokenCounter) {
+            this.tokenCounter = tokenCounter;
+            return this;
+        }
+
+        /**
+         * 每批的 token 上限，单个文档超过上限时单独成批
+         */
+        public Builder maxBatchTokens(int maxBatchTokens) {
+            this.maxBatchTokens = maxBatchTokens;
+            return this;
+        }
+
+        /**
+         * 每批的文档数上限，需不超过嵌入接口单次请求的文本数上限
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * 每分钟请求数上限，0 表示不限制
+         */
+        public Builder requestsPerMinute(long requestsPerMinute) {
+            this.requestsPerMinute = requestsPerMinute;
+            return this;
+        }
+
+        /**
+         * 每分钟 token 数上限，0 表示不限制
+         */
+        public Builder tokensPerMinute(long tokensPerMinute) {
+            this.tokensPerMinute = tokensPerMinute;
+            return this;
+        }
+
+        /**
+         * 每批最多尝试次数（含首次）
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder initialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        public Builder maxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public EmbeddingIngestionPipeline build() {
+            return new EmbeddingIngestionPipeline(this);
+        }
+    }
+}
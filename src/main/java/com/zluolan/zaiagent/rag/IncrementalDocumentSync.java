@@ -0,0 +1,196 @@
+package com.zluolan.zaiagent.rag;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * 按内容哈希增量同步向量库
+ * <p>
+ * 每个文档块的 id 由内容哈希（来源文件、文本和元数据的 SHA-256）派生，并把哈希写入元数据
+ * {@link #CONTENT_HASH_KEY}，来源文件沿用读取器写入的 {@link #SOURCE_KEY}。同步时读取表中带内容哈希的行的 id，
+ * 与当前文档比较：已存在的跳过，新增或修改的经入库流水线嵌入并 upsert，表中多出来的（文档被删除或修改前的旧版本）
+ * 在新块全部写入成功后删除。先增后删，同步期间向量库始终可用；有批次失败时保留旧块，下次同步再处理。
+ * <p>
+ * 向量表可能与其他代码共用，只有带内容哈希的行由同步管理；没有内容哈希、但来源文件属于本次同步文档的行
+ * 视为全量导入时写入的旧版本，一并替换。其余行不会被删除。
+ */
+@Slf4j
+public class IncrementalDocumentSync {
+
+    public static final String CONTENT_HASH_KEY = "content_hash";
+
+    public static final String SOURCE_KEY = "filename";
+
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    /**
+     * 同步结果
+     *
+     * @param unchanged 内容未变、跳过的块数
+     * @param added     新增或修改后重新嵌入的块数
+     * @param deleted   删除的旧块数
+     * @param failed    嵌入失败的块数
+     */
+    public record Result(int unchanged, int added, int deleted, int failed) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String table;
+
+    private final String contentHashColumn;
+
+    private final String sourceColumn;
+
+    private final VectorStore vectorStore;
+
+    private final EmbeddingIngestionPipeline pipeline;
+
+    /**
+     * 元数据存放在 json 列 metadata 中的向量表（PgVectorStore 的表结构）
+     *
+     * @param jdbcTemplate 访问向量表
+     * @param table        向量表名（含 schema），id 列为文档 id
+     * @param vectorStore  同一张表对应的向量库
+     * @param pipeline     入库流水线
+     */
+    public IncrementalDocumentSync(JdbcTemplate jdbcTemplate, String table, VectorStore vectorStore,
+                                   EmbeddingIngestionPipeline pipeline) {
+        this(jdbcTemplate, table, "metadata->>'" + CONTENT_HASH_KEY + "'", "metadata->>'" + SOURCE_KEY + "'",
+                vectorStore, pipeline);
+    }
+
+    /**
+     * @param jdbcTemplate      访问向量表
+     * @param table             向量表名（含 schema），id 列为文档 id
+     * @param contentHashColumn 读取行内容哈希的 SQL 表达式
+     * @param sourceColumn      读取行来源文件的 SQL 表达式
+     * @param vectorStore       同一张表对应的向量库
+     * @param pipeline          入库流水线
+     */
+    public IncrementalDocumentSync(JdbcTemplate jdbcTemplate, String table, String contentHashColumn,
+                                   String sourceColumn, VectorStore vectorStore, EmbeddingIngestionPipeline pipeline) {
+        Assert.notNull(jdbcTemplate, "jdbcTemplate cannot be null");
+        Assert.hasText(table, "table cannot be null or empty");
+        Assert.hasText(contentHashColumn, "contentHashColumn cannot be null or empty");
+        Assert.hasText(sourceColumn, "sourceColumn cannot be null or empty");
+        Assert.notNull(vectorStore, "vectorStore cannot be null");
+        Assert.notNull(pipeline, "pipeline cannot be null");
+        this.jdbcTemplate = jdbcTemplate;
+        this.table = table;
+        this.contentHashColumn = contentHashColumn;
+        this.sourceColumn = sourceColumn;
+        this.vectorStore = vectorStore;
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * 把当前文档同步到向量库
+     */
+    public Result sync(Stream<Document> documents) {
+        Assert.notNull(documents, "documents cannot be null");
+        Set<String> existing = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT id FROM " + table + " WHERE " + contentHashColumn + " IS NOT NULL", String.class));
+        Set<String> current = new HashSet<>();
+        Set<String> sources = new HashSet<>();
+        // 只保留需要嵌入的块，同一文件中内容相同的块只写一次
+        Map<String, Document> changed = new LinkedHashMap<>();
+        documents.map(IncrementalDocumentSync::withContentHash).forEach(document -> {
+            current.add(document.getId());
+            sources.add(String.valueOf(document.getMetadata().get(SOURCE_KEY)));
+            if (!existing.contains(document.getId())) {
+                changed.putIfAbsent(document.getId(), document);
+            }
+        });
+        int unchanged = current.size() - changed.size();
+
+        int failed = 0;
+        if (!changed.isEmpty()) {
+            failed = pipeline.ingest(changed.values(), vectorStore).failedDocuments();
+        }
+        List<String> removed = new ArrayList<>();
+        for (String id : existing) {
+            if (!current.contains(id)) {
+                removed.add(id);
+            }
+        }
+        removed.addAll(findLegacyIds(sources));
+        if (failed > 0) {
+            log.warn("{} 个块嵌入失败，暂不删除 {} 个旧块", failed, removed.size());
+            removed.clear();
+        } else if (!removed.isEmpty()) {
+            vectorStore.delete(removed);
+        }
+        Result result = new Result(unchanged, changed.size() - failed, removed.size(), failed);
+        log.info("向量库同步完成：未变 {}，新增/修改 {}，删除 {}，失败 {}", result.unchanged(), result.added(),
+                result.deleted(), result.failed());
+        return result;
+    }
+
+    /**
+     * 来源文件属于本次同步、但没有内容哈希的旧行
+     */
+    private List<String> findLegacyIds(Set<String> sources) {
+        if (sources.isEmpty()) {
+            return List.of();
+        }
+        String placeholders = String.join(", ", Collections.nCopies(sources.size(), "?"));
+        return jdbcTemplate.queryForList("SELECT id FROM " + table + " WHERE " + contentHashColumn + " IS NULL AND "
+                + sourceColumn + " IN (" + placeholders + ")", String.class, sources.toArray());
+    }
+
+    /**
+     * 计算内容哈希并据此生成确定的 id
+     */
+    static Document withContentHash(Document document) {
+        Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+        metadata.remove(CONTENT_HASH_KEY);
+        String contentHash = contentHash(document.getText(), metadata);
+        metadata.put(CONTENT_HASH_KEY, contentHash);
+        String id = UUID.nameUUIDFromBytes(HEX.parseHex(contentHash)).toString();
+        return Document.builder()
+                .id(id)
+                .text(document.getText())
+                .metadata(metadata)
+                .build();
+    }
+
+    private static String contentHash(String text, Map<String, Object> metadata) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(metadata.get(SOURCE_KEY)).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update((text == null ? "" : text).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(CANONICAL_MAPPER.writeValueAsBytes(new TreeMap<>(metadata)));
+            return HEX.formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
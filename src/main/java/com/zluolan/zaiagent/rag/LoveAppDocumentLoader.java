@@ -9,8 +9,9 @@ import org.springframework.core.io.support.ResourcePatternResolver;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Component
 @Slf4j
@@ -23,26 +24,32 @@ public class LoveAppDocumentLoader {
     }
 
     public List<Document> loadMarkdowns() {
-        List<Document> allDocuments = new ArrayList<>();
+        return streamMarkdowns().toList();
+    }
+
+    /**
+     * 按文件逐个读取 Markdown 文档，供入库流水线边读边写，不必一次性加载全部文档
+     */
+    public Stream<Document> streamMarkdowns() {
+        Resource[] resources;
         try {
             // 这里可以修改为你要加载的多个 Markdown 文件的路径模式
-            Resource[] resources = resourcePatternResolver.getResources("classpath:document/*.md");
-
-            for (Resource resource : resources) {
-                String fileName = resource.getFilename();
-
-                MarkdownDocumentReaderConfig config = MarkdownDocumentReaderConfig.builder()
-                        .withHorizontalRuleCreateDocument(true)
-                        .withIncludeCodeBlock(false)
-                        .withIncludeBlockquote(false)
-                        .withAdditionalMetadata("filename", fileName) // 主要是为每个文件注入独有的 metadata
-                        .build();
-                MarkdownDocumentReader reader = new MarkdownDocumentReader(resource, config);
-                allDocuments.addAll(reader.get());
-            }
+            resources = resourcePatternResolver.getResources("classpath:document/*.md");
         } catch (IOException e) {
             log.error("Markdown 文档加载失败", e);
+            return Stream.empty();
         }
-        return allDocuments;
+        return Arrays.stream(resources).flatMap(resource -> {
+            String fileName = resource.getFilename();
+
+            MarkdownDocumentReaderConfig config = MarkdownDocumentReaderConfig.builder()
+                    .withHorizontalRuleCreateDocument(true)
+                    .withIncludeCodeBlock(false)
+                    .withIncludeBlockquote(false)
+                    .withAdditionalMetadata("filename", fileName) // 主要是为每个文件注入独有的 metadata
+                    .build();
+            MarkdownDocumentReader reader = new MarkdownDocumentReader(resource, config);
+            return reader.get().stream();
+        });
     }
 }
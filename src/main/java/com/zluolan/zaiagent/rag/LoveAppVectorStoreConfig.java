@@ -3,11 +3,12 @@ package com.zluolan.zaiagent.rag;
 import jakarta.annotation.Resource;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.embedding.EmbeddingModel;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Path;
 import java.util.List;
 
 /**
@@ -20,13 +21,26 @@ public class LoveAppVectorStoreConfig {
     @Resource
     private LoveAppDocumentLoader loveAppDocumentLoader;
     
+    @Value("${agent.rag.snapshot.enabled:true}")
+    private boolean snapshotEnabled;
+
+    @Value("${agent.rag.snapshot.dir:./vector_snapshots}")
+    private String snapshotDir;
+
+    @Value("${agent.rag.embedding-model:text-embedding-v1}")
+    private String embeddingModelId;
+
+    @Resource
+    private EmbeddingIngestionPipeline embeddingIngestionPipeline;
+
     @Bean
     VectorStore loveAppVectorStore(EmbeddingModel dashscopeEmbeddingModel) {
-        SimpleVectorStore simpleVectorStore = SimpleVectorStore.builder(dashscopeEmbeddingModel)
-                .build();
+        // 文档和嵌入模型未变时从快照加载，避免每次启动重新嵌入
+        Path snapshotFile = snapshotEnabled ? Path.of(snapshotDir, "love-app.vss") : null;
+        SnapshotVectorStore simpleVectorStore = new SnapshotVectorStore(dashscopeEmbeddingModel, snapshotFile, embeddingModelId);
         // 加载文档
         List<Document> documents = loveAppDocumentLoader.loadMarkdowns();
-        simpleVectorStore.add(documents);
+        simpleVectorStore.addOrLoad(documents, embeddingIngestionPipeline);
         return simpleVectorStore;
     }
 }
@@ -0,0 +1,162 @@
+package com.zluolan.zaiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 嵌入缓存的本地持久层：追加写入的向量文件，读取时内存映射
+ * <p>
+ * 文件格式（大端）：魔数 + 版本，随后每条记录为 32 字节内容哈希、向量维度和 float 向量。
+ * 打开时扫描一遍建立“哈希 → 偏移”索引，末尾不完整的记录（写入中途崩溃）直接截掉。
+ * 写入在锁内追加，读取不加锁，偏移超出当前映射范围时重新映射。单个文件最大 2GB，写满后不再追加。
+ */
+@Slf4j
+class MappedEmbeddingStore implements AutoCloseable {
+
+    static final int HASH_LENGTH = 32;
+
+    private static final int MAGIC = 0x454d4231;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = 8;
+
+    private static final int RECORD_HEADER_LENGTH = HASH_LENGTH + 4;
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final Path file;
+
+    private final FileChannel channel;
+
+    // 内容哈希（十六进制）→ 记录偏移
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+
+    private volatile MappedByteBuffer mapped;
+
+    private long size;
+
+    MappedEmbeddingStore(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void open() throws IOException {
+        size = channel.size();
+        if (size < HEADER_LENGTH) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            writeFully(header, 0);
+            size = HEADER_LENGTH;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported embedding cache file: " + file);
+        }
+        long position = HEADER_LENGTH;
+        byte[] hash = new byte[HASH_LENGTH];
+        while (position + RECORD_HEADER_LENGTH <= size) {
+            int dimensions = buffer.getInt((int) position + HASH_LENGTH);
+            long end = position + RECORD_HEADER_LENGTH + (long) dimensions * Float.BYTES;
+            if (dimensions < 0 || end > size) {
+                break;
+            }
+            buffer.get((int) position, hash);
+            index.put(HEX.formatHex(hash), position);
+            position = end;
+        }
+        if (position < size) {
+            log.warn("嵌入缓存文件 {} 末尾有 {} 字节不完整的记录，已截断", file, size - position);
+            channel.truncate(position);
+            size = position;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        mapped = buffer;
+    }
+
+    /**
+     * @param hash 内容哈希（十六进制）
+     * @return 缓存的向量，不存在时返回 null
+     */
+    float[] get(String hash) {
+        Long offset = index.get(hash);
+        if (offset == null) {
+            return null;
+        }
+        MappedByteBuffer buffer = mapped;
+        if (offset + RECORD_HEADER_LENGTH > buffer.capacity()) {
+            buffer = remap();
+        }
+        int position = offset.intValue();
+        int dimensions = buffer.getInt(position + HASH_LENGTH);
+        if (position + RECORD_HEADER_LENGTH + dimensions * Float.BYTES > buffer.capacity()) {
+            buffer = remap();
+        }
+        float[] vector = new float[dimensions];
+        buffer.slice(position + RECORD_HEADER_LENGTH, dimensions * Float.BYTES).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    /**
+     * 追加一条记录，已存在的哈希忽略
+     */
+    synchronized void put(String hash, float[] vector) throws IOException {
+        if (index.containsKey(hash)) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + vector.length * Float.BYTES);
+        if (size + record.capacity() > Integer.MAX_VALUE) {
+            throw new IOException("Embedding cache file is full: " + file);
+        }
+        record.put(HEX.parseHex(hash)).putInt(vector.length);
+        record.asFloatBuffer().put(vector);
+        record.clear();
+        long offset = size;
+        writeFully(record, offset);
+        size += record.capacity();
+        index.put(hash, offset);
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    private synchronized MappedByteBuffer remap() {
+        if (mapped.capacity() < size) {
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to map embedding cache file " + file, e);
+            }
+        }
+        return mapped;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
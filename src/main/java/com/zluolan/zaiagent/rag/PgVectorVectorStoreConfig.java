@@ -12,7 +12,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
 
-import java.util.List;
+import java.util.stream.Stream;
 
 import static org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgDistanceType.COSINE_DISTANCE;
 import static org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgIndexType.HNSW;
@@ -37,18 +37,21 @@ public class PgVectorVectorStoreConfig {
                 .build();
     }
 
+    /**
+     * 启动后在后台按内容哈希增量同步文档，只嵌入新增或修改的块，不阻塞启动
+     */
     @Bean
-    public ApplicationRunner initVectorStore(VectorStore vectorStore, JdbcTemplate jdbcTemplate) {
-        return args -> {
-            Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM vector_store", Integer.class);
-            if (count == null || count == 0) {
-                List<Document> documents = loveAppDocumentLoader.loadMarkdowns();
-                vectorStore.add(documents);
-                log.info("✅ 已加载 {} 个文档到向量库", documents.size());
-            } else {
-                log.info("✅ 已检测到 vector_store 中存在 {} 条数据，跳过文档插入。", count);
+    public ApplicationRunner initVectorStore(VectorStore pgVectorVectorStore, JdbcTemplate jdbcTemplate,
+                                             EmbeddingIngestionPipeline embeddingIngestionPipeline) {
+        IncrementalDocumentSync sync = new IncrementalDocumentSync(jdbcTemplate, "public.vector_store",
+                pgVectorVectorStore, embeddingIngestionPipeline);
+        return args -> Thread.ofVirtual().name("pgvector-sync").start(() -> {
+            try (Stream<Document> documents = loveAppDocumentLoader.streamMarkdowns()) {
+                sync.sync(documents);
+            } catch (RuntimeException e) {
+                log.error("向量库同步失败", e);
             }
-        };
+        });
     }
 
 }
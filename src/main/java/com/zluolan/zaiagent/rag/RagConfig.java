@@ -3,12 +3,13 @@ package com.zluolan.zaiagent.rag;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.embedding.EmbeddingModel;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
@@ -34,16 +35,24 @@ public class RagConfig {
     
     /**
      * 配置向量存储
-     * 当前使用SimpleVectorStore作为示例实现，生产环境建议使用持久化向量存储如PgVector等
+     * 当前使用内存向量存储 SimdVectorStore 作为示例实现，生产环境建议使用持久化向量存储如PgVector等
+     * 启用快照时，示例文档的向量保存在本地快照文件中，重启后无需重新嵌入
      * 
      * @param embeddingModel 嵌入模型，用于将文本转换为向量表示
+     * @param snapshotEnabled 是否启用向量快照
+     * @param snapshotDir 快照目录
+     * @param embeddingModelId 嵌入模型标识，更换模型后快照失效
      * @return 向量存储实例
      */
     @Bean
-    public VectorStore vectorStore(EmbeddingModel embeddingModel) {
+    public VectorStore vectorStore(EmbeddingModel embeddingModel,
+                                   @Value("${agent.rag.snapshot.enabled:true}") boolean snapshotEnabled,
+                                   @Value("${agent.rag.snapshot.dir:./vector_snapshots}") String snapshotDir,
+                                   @Value("${agent.rag.embedding-model:text-embedding-v1}") String embeddingModelId) {
         // 简单内存向量存储实现（测试用）
         // 生产环境建议使用 PgVector / RedisVector / Milvus 等持久化向量存储
-        return SimpleVectorStore.builder(embeddingModel).build();
+        Path snapshotFile = snapshotEnabled ? Path.of(snapshotDir, "rag-demo.vss") : null;
+        return new SnapshotVectorStore(embeddingModel, snapshotFile, embeddingModelId);
     }
 
     /**
@@ -88,7 +97,11 @@ public class RagConfig {
                             Map.of("source", "ai-research-papers", "type", "research"))
             );
 
-            vectorStore.add(documents);
+            if (vectorStore instanceof SnapshotVectorStore snapshotVectorStore) {
+                snapshotVectorStore.addOrLoad(documents);
+            } else {
+                vectorStore.add(documents);
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,486 @@
+package com.zluolan.zaiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.observation.conventions.VectorStoreProvider;
+import org.springframework.ai.observation.conventions.VectorStoreSimilarityMetric;
+import org.springframework.ai.vectorstore.AbstractVectorStoreBuilder;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionConverter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.ai.vectorstore.observation.AbstractObservationVectorStore;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * 暴力检索的内存向量存储，可替换 {@link org.springframework.ai.vectorstore.SimpleVectorStore}
+ * <p>
+ * 所有向量写入时归一化，按行连续存放在一个 float 数组中，检索时点积即余弦相似度，
+ * 由 {@link VectorKernels} 以 SIMD 计算；用定长最小堆保留 top-K，元数据过滤只对能进入堆的候选求值。
+ * 文档数超过 parallelThreshold 时单次查询按行分段并行扫描，{@link #similaritySearch(List)} 则按查询并行。
+ * <p>
+ * 读多写少，读写锁保护存储；删除时用最后一行填补空位，行号不稳定，不对外暴露。
+ */
+@Slf4j
+public class SimdVectorStore extends AbstractObservationVectorStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int parallelThreshold;
+
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+
+    private final FilterExpressionConverter filterExpressionConverter = new SimpleVectorStoreFilterExpressionConverter();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 行 i 的向量位于 [i * dimensions, (i + 1) * dimensions)
+     */
+    private float[] vectors = new float[0];
+
+    private final List<String> ids = new ArrayList<>();
+
+    private final List<String> texts = new ArrayList<>();
+
+    private final List<Map<String, Object>> metadata = new ArrayList<>();
+
+    private final Map<String, Integer> rows = new HashMap<>();
+
+    private int dimensions;
+
+    /**
+     * 存储中的一条记录，向量为归一化后的副本
+     */
+    public record Entry(String id, String text, Map<String, Object> metadata, float[] embedding) {
+    }
+
+    protected SimdVectorStore(Builder builder) {
+        super(builder);
+        Assert.isTrue(builder.parallelThreshold > 0, "parallelThreshold must be positive");
+        this.parallelThreshold = builder.parallelThreshold;
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    /**
+     * 整批一次请求嵌入，文本格式与 DashScope 嵌入单个文档时一致
+     */
+    @Override
+    public void doAdd(List<Document> documents) {
+        Assert.notNull(documents, "documents cannot be null");
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<String> batch = documents.stream()
+                .map(document -> document.getFormattedContent(MetadataMode.EMBED))
+                .toList();
+        List<float[]> embeddings = embeddingModel.embed(batch);
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                putLocked(document.getId(), document.getText(), document.getMetadata(), embeddings.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 写入已有向量的记录（如从快照读取），id 已存在时覆盖
+     */
+    protected void put(String id, String text, Map<String, Object> metadata, float[] embedding) {
+        lock.writeLock().lock();
+        try {
+            putLocked(id, text, metadata, embedding);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void putLocked(String id, String text, Map<String, Object> documentMetadata, float[] embedding) {
+        Assert.hasText(id, "id cannot be null or empty");
+        Assert.notNull(embedding, "embedding cannot be null");
+        if (ids.isEmpty()) {
+            dimensions = embedding.length;
+        }
+        Assert.isTrue(embedding.length == dimensions,
+                () -> "Embedding dimensions " + embedding.length + " do not match store dimensions " + dimensions);
+        Integer row = rows.get(id);
+        if (row == null) {
+            row = ids.size();
+            ensureCapacity(row + 1);
+            ids.add(id);
+            texts.add(text);
+            metadata.add(new HashMap<>(documentMetadata));
+            rows.put(id, row);
+        } else {
+            texts.set(row, text);
+            metadata.set(row, new HashMap<>(documentMetadata));
+        }
+        int offset = row * dimensions;
+        System.arraycopy(embedding, 0, vectors, offset, dimensions);
+        VectorKernels.normalize(vectors, offset, dimensions);
+    }
+
+    private void ensureCapacity(int rowCount) {
+        int capacity = dimensions == 0 ? 0 : vectors.length / dimensions;
+        if (rowCount <= capacity) {
+            return;
+        }
+        long newCapacity = Math.max(Math.max(INITIAL_CAPACITY, rowCount), (long) capacity * 2);
+        long length = Math.min(newCapacity * dimensions, Integer.MAX_VALUE - 8);
+        Assert.isTrue(length >= (long) rowCount * dimensions, "Vector store capacity exceeded");
+        vectors = Arrays.copyOf(vectors, (int) length);
+    }
+
+    @Override
+    public void doDelete(List<String> idList) {
+        Assert.notNull(idList, "idList cannot be null");
+        lock.writeLock().lock();
+        try {
+            idList.forEach(this::removeLocked);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected void doDelete(Filter.Expression filterExpression) {
+        Assert.notNull(filterExpression, "filterExpression cannot be null");
+        Expression expression = parseFilter(filterExpression);
+        lock.writeLock().lock();
+        try {
+            List<String> matched = new ArrayList<>();
+            for (int row = 0; row < ids.size(); row++) {
+                if (matches(expression, metadata.get(row))) {
+                    matched.add(ids.get(row));
+                }
+            }
+            matched.forEach(this::removeLocked);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 把最后一行移到被删除的位置
+     */
+    private void removeLocked(String id) {
+        Integer row = rows.remove(id);
+        if (row == null) {
+            return;
+        }
+        int last = ids.size() - 1;
+        if (row != last) {
+            String movedId = ids.get(last);
+            ids.set(row, movedId);
+            texts.set(row, texts.get(last));
+            metadata.set(row, metadata.get(last));
+            System.arraycopy(vectors, last * dimensions, vectors, row * dimensions, dimensions);
+            rows.put(movedId, row);
+        }
+        ids.remove(last);
+        texts.remove(last);
+        metadata.remove(last);
+    }
+
+    /**
+     * 清空存储
+     */
+    protected void clear() {
+        lock.writeLock().lock();
+        try {
+            ids.clear();
+            texts.clear();
+            metadata.clear();
+            rows.clear();
+            vectors = new float[0];
+            dimensions = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 点积是否走 Vector API，启动参数缺少 --add-modules jdk.incubator.vector 时为 false
+     */
+    public static boolean simdEnabled() {
+        return VectorKernels.SIMD;
+    }
+
+    /**
+     * 当前文档数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 所有记录的副本，按存储顺序
+     */
+    protected List<Entry> entries() {
+        lock.readLock().lock();
+        try {
+            List<Entry> entries = new ArrayList<>(ids.size());
+            for (int row = 0; row < ids.size(); row++) {
+                int offset = row * dimensions;
+                entries.add(new Entry(ids.get(row), texts.get(row), metadata.get(row),
+                        Arrays.copyOfRange(vectors, offset, offset + dimensions)));
+            }
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Document> doSimilaritySearch(SearchRequest request) {
+        Assert.notNull(request, "request cannot be null");
+        return search(embeddingModel.embed(request.getQuery()), request, true);
+    }
+
+    /**
+     * 批量检索：所有查询一次请求嵌入，各查询在多核上并行扫描，结果与请求一一对应
+     * <p>
+     * 不经过单次检索的观测（observation）。
+     */
+    public List<List<Document>> similaritySearch(List<SearchRequest> requests) {
+        Assert.notNull(requests, "requests cannot be null");
+        if (requests.isEmpty()) {
+            return List.of();
+        }
+        List<float[]> queries = embeddingModel.embed(requests.stream().map(SearchRequest::getQuery).toList());
+        return IntStream.range(0, requests.size())
+                .parallel()
+                .mapToObj(i -> search(queries.get(i), requests.get(i), false))
+                .toList();
+    }
+
+    private List<Document> search(float[] queryEmbedding, SearchRequest request, boolean splitRows) {
+        Expression expression = request.hasFilterExpression() ? parseFilter(request.getFilterExpression()) : null;
+        float threshold = (float) request.getSimilarityThreshold();
+        int topK = request.getTopK();
+        lock.readLock().lock();
+        try {
+            int size = ids.size();
+            if (size == 0) {
+                return List.of();
+            }
+            Assert.isTrue(queryEmbedding.length == dimensions,
+                    () -> "Query dimensions " + queryEmbedding.length + " do not match store dimensions " + dimensions);
+            float[] query = queryEmbedding.clone();
+            VectorKernels.normalize(query, 0, dimensions);
+            IntPredicate filter = expression == null ? null : row -> matches(expression, metadata.get(row));
+            TopK top;
+            if (splitRows && size >= parallelThreshold) {
+                // 分段数不超过核数，每段至少 parallelThreshold / 2 行，避免任务过碎
+                int partitions = Math.min(Runtime.getRuntime().availableProcessors(),
+                        Math.max(1, size / Math.max(1, parallelThreshold / 2)));
+                int chunk = (size + partitions - 1) / partitions;
+                top = IntStream.range(0, partitions)
+                        .parallel()
+                        .mapToObj(p -> scan(query, p * chunk, Math.min(size, (p + 1) * chunk), topK, threshold, filter))
+                        .reduce(TopK::merge)
+                        .orElseThrow();
+            } else {
+                top = scan(query, 0, size, topK, threshold, filter);
+            }
+            return toDocuments(top);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private TopK scan(float[] query, int from, int to, int topK, float threshold, IntPredicate filter) {
+        TopK top = new TopK(topK);
+        float[] matrix = vectors;
+        int dims = dimensions;
+        for (int row = from; row < to; row++) {
+            float score = VectorKernels.dot(query, 0, matrix, row * dims, dims);
+            if (score < threshold || !top.accepts(score)) {
+                continue;
+            }
+            if (filter != null && !filter.test(row)) {
+                continue;
+            }
+            top.offer(row, score);
+        }
+        return top;
+    }
+
+    private List<Document> toDocuments(TopK top) {
+        int[] sortedRows = new int[top.size];
+        float[] sortedScores = new float[top.size];
+        top.drainDescending(sortedRows, sortedScores);
+        List<Document> documents = new ArrayList<>(sortedRows.length);
+        for (int i = 0; i < sortedRows.length; i++) {
+            int row = sortedRows[i];
+            Map<String, Object> documentMetadata = new HashMap<>(metadata.get(row));
+            documentMetadata.put(DocumentMetadata.DISTANCE.value(), 1.0f - sortedScores[i]);
+            documents.add(Document.builder()
+                    .id(ids.get(row))
+                    .text(texts.get(row))
+                    .metadata(documentMetadata)
+                    .score((double) sortedScores[i])
+                    .build());
+        }
+        return documents;
+    }
+
+    private Expression parseFilter(Filter.Expression filterExpression) {
+        return expressionParser.parseExpression(filterExpressionConverter.convertExpression(filterExpression));
+    }
+
+    private static boolean matches(Expression expression, Map<String, Object> documentMetadata) {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        context.setVariable("metadata", documentMetadata);
+        return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+    }
+
+    @Override
+    public VectorStoreObservationContext.Builder createObservationContextBuilder(String operationName) {
+        // 已有数据时直接用存储的维度，避免为取维度额外调用一次嵌入模型
+        int dims = dimensions > 0 ? dimensions : embeddingModel.dimensions();
+        return VectorStoreObservationContext.builder(VectorStoreProvider.SIMPLE.value(), operationName)
+                .dimensions(dims)
+                .collectionName("in-memory-simd")
+                .similarityMetric(VectorStoreSimilarityMetric.COSINE.value());
+    }
+
+    /**
+     * 按分数保留前 k 个行号的最小堆，堆顶为当前第 k 名
+     */
+    static final class TopK {
+
+        private final int[] rows;
+
+        private final float[] scores;
+
+        private int size;
+
+        TopK(int capacity) {
+            this.rows = new int[capacity];
+            this.scores = new float[capacity];
+        }
+
+        boolean accepts(float score) {
+            return size < rows.length || (size > 0 && score > scores[0]);
+        }
+
+        void offer(int row, float score) {
+            if (size < rows.length) {
+                rows[size] = row;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (size > 0 && score > scores[0]) {
+                rows[0] = row;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        TopK merge(TopK other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.rows[i], other.scores[i]);
+            }
+            return this;
+        }
+
+        /**
+         * 按分数从高到低依次弹出，堆随之清空
+         */
+        void drainDescending(int[] outRows, float[] outScores) {
+            for (int i = size - 1; i >= 0; i--) {
+                outRows[i] = rows[0];
+                outScores[i] = scores[0];
+                size--;
+                rows[0] = rows[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= scores[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                if (left >= size) {
+                    return;
+                }
+                int smallest = left + 1 < size && scores[left + 1] < scores[left] ? left + 1 : left;
+                if (scores[i] <= scores[smallest]) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int row = rows[a];
+            rows[a] = rows[b];
+            rows[b] = row;
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+
+    public static final class Builder extends AbstractVectorStoreBuilder<Builder> {
+
+        private int parallelThreshold = 20_000;
+
+        private Builder(EmbeddingModel embeddingModel) {
+            super(embeddingModel);
+        }
+
+        /**
+         * 单次查询分段并行扫描的最少文档数，文档较少时线程调度开销大于收益
+         */
+        public Builder parallelThreshold(int parallelThreshold) {
+            this.parallelThreshold = parallelThreshold;
+            return this;
+        }
+
+        @Override
+        public SimdVectorStore build() {
+            return new SimdVectorStore(this);
+        }
+    }
+}
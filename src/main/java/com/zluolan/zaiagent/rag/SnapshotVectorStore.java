@@ -0,0 +1,239 @@
+package com.zluolan.zaiagent.rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.util.Assert;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 支持二进制快照的内存向量存储，启动时跳过重复嵌入
+ * <p>
+ * {@link #addOrLoad} 先计算源文档与嵌入模型的指纹，快照文件的指纹一致时直接内存映射读取其中的
+ * id、文本、元数据和向量；否则调用嵌入模型重新构建，并原子替换快照文件。
+ * 文档 id 不参与指纹（Markdown 读取器每次生成随机 id），读取快照后沿用快照中的 id。
+ * <p>
+ * 快照格式（大端）：魔数、版本、32 字节指纹、文档数、向量维度，随后每个文档依次为
+ * id、文本、元数据 JSON（均为长度 + UTF-8 字节）和 float 向量。
+ */
+@Slf4j
+public class SnapshotVectorStore extends SimdVectorStore {
+
+    private static final int MAGIC = 0x56535331;
+
+    private static final int VERSION = 1;
+
+    private static final int FINGERPRINT_LENGTH = 32;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    private final Path snapshotFile;
+
+    private final String embeddingModelId;
+
+    /**
+     * @param embeddingModel   嵌入模型
+     * @param snapshotFile     快照文件，为 null 时不使用快照
+     * @param embeddingModelId 嵌入模型标识（如模型名），更换模型后旧快照失效
+     */
+    public SnapshotVectorStore(EmbeddingModel embeddingModel, Path snapshotFile, String embeddingModelId) {
+        super(SimdVectorStore.builder(embeddingModel));
+        Assert.hasText(embeddingModelId, "embeddingModelId cannot be null or empty");
+        this.snapshotFile = snapshotFile;
+        this.embeddingModelId = embeddingModelId;
+    }
+
+    /**
+     * 加载文档：快照有效时直接读取，否则嵌入后写入快照
+     *
+     * @return 是否命中快照
+     */
+    public boolean addOrLoad(List<Document> documents) {
+        return addOrLoad(documents, null);
+    }
+
+    /**
+     * 加载文档：快照有效时直接读取，否则经入库流水线嵌入后写入快照；有批次失败时不写快照
+     *
+     * @param pipeline 入库流水线，为 null 时一次性 add
+     * @return 是否命中快照
+     */
+    public boolean addOrLoad(List<Document> documents, EmbeddingIngestionPipeline pipeline) {
+        Assert.notNull(documents, "documents cannot be null");
+        byte[] fingerprint = snapshotFile != null ? fingerprint(documents, embeddingModelId) : null;
+        if (snapshotFile != null && Files.exists(snapshotFile) && loadSnapshot(fingerprint)) {
+            log.info("已从快照 {} 加载 {} 个文档，跳过嵌入", snapshotFile, size());
+            return true;
+        }
+        clear();
+        if (pipeline == null) {
+            add(documents);
+        } else if (pipeline.ingest(documents, this).failedDocuments() > 0) {
+            log.warn("部分文档嵌入失败，不写入向量快照");
+            return false;
+        }
+        if (snapshotFile == null) {
+            return false;
+        }
+        try {
+            writeSnapshot(fingerprint);
+            log.info("已嵌入 {} 个文档并写入快照 {}", size(), snapshotFile);
+        } catch (IOException e) {
+            log.warn("写入向量快照 {} 失败，下次启动将重新嵌入", snapshotFile, e);
+        }
+        return false;
+    }
+
+    /**
+     * 源文档（文本与元数据，按顺序）和嵌入模型的 SHA-256 指纹
+     */
+    static byte[] fingerprint(List<Document> documents, String embeddingModelId) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        updateString(digest, embeddingModelId);
+        for (Document document : documents) {
+            updateString(digest, document.getText() == null ? "" : document.getText());
+            updateString(digest, writeMetadata(new TreeMap<>(document.getMetadata())));
+        }
+        return digest.digest();
+    }
+
+    private static void updateString(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static String writeMetadata(Map<String, Object> metadata) {
+        try {
+            return OBJECT_MAPPER.writeValueAsString(metadata);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 校验并读取快照，任何不匹配或损坏都返回 false，由调用方重建
+     */
+    private boolean loadSnapshot(byte[] expectedFingerprint) {
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                log.warn("向量快照 {} 格式不兼容，重新构建", snapshotFile);
+                return false;
+            }
+            byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+            buffer.get(fingerprint);
+            if (!Arrays.equals(fingerprint, expectedFingerprint)) {
+                log.info("源文档或嵌入模型已变化，向量快照 {} 失效", snapshotFile);
+                return false;
+            }
+            int count = buffer.getInt();
+            int dimensions = buffer.getInt();
+            // 先按剩余字节校验文档数和维度，损坏的计数不会触发超大分配；每个文档至少有 3 个长度字段和向量
+            if (count < 0 || dimensions < 0
+                    || (long) count * (3L * Integer.BYTES + (long) dimensions * Float.BYTES) > buffer.remaining()) {
+                log.warn("向量快照 {} 的文档数或维度无效，重新构建", snapshotFile);
+                return false;
+            }
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = readString(buffer);
+                String text = readString(buffer);
+                Map<String, Object> metadata = OBJECT_MAPPER.readValue(readString(buffer), METADATA_TYPE);
+                float[] embedding = new float[dimensions];
+                buffer.asFloatBuffer().get(embedding);
+                buffer.position(buffer.position() + dimensions * Float.BYTES);
+                entries.add(new Entry(id, text, metadata, embedding));
+            }
+            if (buffer.hasRemaining()) {
+                log.warn("向量快照 {} 末尾有多余数据，重新构建", snapshotFile);
+                return false;
+            }
+            for (Entry entry : entries) {
+                put(entry.id(), entry.text(), entry.metadata(), entry.embedding());
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("读取向量快照 {} 失败，重新构建", snapshotFile, e);
+            return false;
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeSnapshot(byte[] fingerprint) throws IOException {
+        List<Entry> entries = entries();
+        int dimensions = entries.isEmpty() ? 0 : entries.get(0).embedding().length;
+        Path parent = snapshotFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, snapshotFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(fingerprint);
+                out.writeInt(entries.size());
+                out.writeInt(dimensions);
+                for (Entry entry : entries) {
+                    float[] embedding = entry.embedding();
+                    if (embedding.length != dimensions) {
+                        throw new IOException("Inconsistent embedding dimensions: " + embedding.length + " != " + dimensions);
+                    }
+                    writeString(out, entry.id());
+                    writeString(out, entry.text() == null ? "" : entry.text());
+                    writeString(out, writeMetadata(entry.metadata()));
+                    for (float value : embedding) {
+                        out.writeFloat(value);
+                    }
+                }
+            }
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,53 @@
+package com.zluolan.zaiagent.rag;
+
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 令牌桶限流
+ * <p>
+ * 每个周期补充 capacity 个令牌，最多积累 capacity 个。获取时先预扣（余额可以为负），
+ * 再在锁外睡眠到余额回正，先到的请求先放行；单次请求超过容量时按容量计，避免永远等不到。
+ */
+class TokenBucket {
+
+    private final long capacity;
+
+    private final double permitsPerNano;
+
+    private double available;
+
+    private long lastRefillNanos;
+
+    /**
+     * @param capacity 每个周期的令牌数，也是桶容量
+     * @param period   周期
+     */
+    TokenBucket(long capacity, Duration period) {
+        Assert.isTrue(capacity > 0, "capacity must be positive");
+        Assert.isTrue(period != null && !period.isNegative() && !period.isZero(), "period must be positive");
+        this.capacity = capacity;
+        this.permitsPerNano = (double) capacity / period.toNanos();
+        this.available = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 获取令牌，不足时阻塞
+     */
+    void acquire(long permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            available = Math.min(capacity, available + (now - lastRefillNanos) * permitsPerNano);
+            lastRefillNanos = now;
+            available -= Math.min(permits, capacity);
+            waitNanos = available >= 0 ? 0 : (long) Math.ceil(-available / permitsPerNano);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.zluolan.zaiagent.rag;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 向量检索的计算内核
+ * <p>
+ * 启动参数包含 {@code --add-modules jdk.incubator.vector} 时点积走 Vector API（按 CPU 支持的最宽寄存器做 FMA），
+ * 否则退回标量循环。SIMD 实现放在单独的内部类中，模块未加载时不会被初始化。
+ */
+final class VectorKernels {
+
+    static final boolean SIMD = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private VectorKernels() {
+    }
+
+    /**
+     * a[aOffset, aOffset + length) 与 b[bOffset, bOffset + length) 的点积
+     */
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return SIMD ? Simd.dot(a, aOffset, b, bOffset, length) : scalarDot(a, aOffset, b, bOffset, length);
+    }
+
+    static float scalarDot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0f;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * 把 vector[offset, offset + length) 原地归一化为单位向量，之后点积即余弦相似度；零向量保持不变
+     */
+    static void normalize(float[] vector, int offset, int length) {
+        float norm = (float) Math.sqrt(dot(vector, offset, vector, offset, length));
+        if (norm == 0f) {
+            return;
+        }
+        float scale = 1f / norm;
+        for (int i = offset; i < offset + length; i++) {
+            vector[i] *= scale;
+        }
+    }
+
+    private static final class Simd {
+
+        private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+        static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+            int step = SPECIES.length();
+            int bound = SPECIES.loopBound(length);
+            // 两个累加器交替使用，隐藏 FMA 的延迟
+            FloatVector acc0 = FloatVector.zero(SPECIES);
+            FloatVector acc1 = FloatVector.zero(SPECIES);
+            int i = 0;
+            for (; i + step < bound; i += 2 * step) {
+                acc0 = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                        .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc0);
+                acc1 = FloatVector.fromArray(SPECIES, a, aOffset + i + step)
+                        .fma(FloatVector.fromArray(SPECIES, b, bOffset + i + step), acc1);
+            }
+            for (; i < bound; i += step) {
+                acc0 = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                        .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc0);
+            }
+            float sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+            for (; i < length; i++) {
+                sum += a[aOffset + i] * b[bOffset + i];
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.zluolan.zaiagent.token;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.stereotype.Component;
+
+/**
+ * Token 估算器
+ * <p>
+ * 不依赖具体模型的分词表，按字符类别做单遍扫描估算，适用于中英文混合文本：
+ * <ul>
+ *     <li>中日韩字符及全角符号：每个字符 1 个 token</li>
+ *     <li>英文单词和数字：每 6 个字符约 1 个 token，不足按 1 个计</li>
+ *     <li>标点等符号：连续两个约 1 个 token，空白不计</li>
+ * </ul>
+ * 估算结果略偏保守（宁多勿少），用于预算控制而不是计费。本类无状态、线程安全，
+ * 需要缓存和累计时使用 {@link TokenLedger}。
+ */
+@Component
+public class TokenCounter {
+
+    // 每条消息额外的角色/分隔符开销
+    public static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    // 每个工具调用/工具响应额外的结构开销（id、名称、类型等）
+    private static final int TOOL_OVERHEAD_TOKENS = 8;
+
+    private static final int WORD_CHARS_PER_TOKEN = 6;
+
+    private static final int SYMBOL_CHARS_PER_TOKEN = 2;
+
+    /**
+     * 估算一段文本的 token 数
+     */
+    public int count(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int word = 0;
+        int symbol = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80 ? isAsciiWordChar(c) : isWordChar(c)) {
+                if (symbol > 0) {
+                    tokens += (symbol + SYMBOL_CHARS_PER_TOKEN - 1) / SYMBOL_CHARS_PER_TOKEN;
+                    symbol = 0;
+                }
+                word++;
+                continue;
+            }
+            if (word > 0) {
+                tokens += (word + WORD_CHARS_PER_TOKEN - 1) / WORD_CHARS_PER_TOKEN;
+                word = 0;
+            }
+            if (c < 0x80) {
+                if (c > ' ') {
+                    symbol++;
+                } else if (symbol > 0) {
+                    tokens += (symbol + SYMBOL_CHARS_PER_TOKEN - 1) / SYMBOL_CHARS_PER_TOKEN;
+                    symbol = 0;
+                }
+            } else {
+                if (symbol > 0) {
+                    tokens += (symbol + SYMBOL_CHARS_PER_TOKEN - 1) / SYMBOL_CHARS_PER_TOKEN;
+                    symbol = 0;
+                }
+                // 中日韩字符、全角符号、表情等：每个字符单独计数（代理对的低位不重复计数）
+                if (!Character.isLowSurrogate(c)) {
+                    tokens++;
+                }
+            }
+        }
+        tokens += (word + WORD_CHARS_PER_TOKEN - 1) / WORD_CHARS_PER_TOKEN;
+        tokens += (symbol + SYMBOL_CHARS_PER_TOKEN - 1) / SYMBOL_CHARS_PER_TOKEN;
+        return tokens;
+    }
+
+    /**
+     * 估算单条消息的 token 数，包括工具调用参数、工具返回结果和消息结构开销
+     */
+    public int count(Message message) {
+        if (message == null) {
+            return 0;
+        }
+        int tokens = MESSAGE_OVERHEAD_TOKENS;
+        if (message instanceof ToolResponseMessage toolResponseMessage) {
+            for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                tokens += TOOL_OVERHEAD_TOKENS + count(response.name()) + count(response.responseData());
+            }
+            return tokens;
+        }
+        tokens += count(message.getText());
+        if (message instanceof AssistantMessage assistantMessage) {
+            for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                tokens += TOOL_OVERHEAD_TOKENS + count(toolCall.name()) + count(toolCall.arguments());
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isAsciiWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * 非 ASCII 字符中，拉丁扩展、西里尔等拼音文字按单词处理，其余（中日韩等）按单字计数
+     */
+    private static boolean isWordChar(char c) {
+        return c < 0x2E80 && Character.isLetterOrDigit(c);
+    }
+}
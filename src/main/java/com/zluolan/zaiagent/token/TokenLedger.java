@@ -0,0 +1,151 @@
+package com.zluolan.zaiagent.token;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.util.Assert;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token 账本，对应一次智能体运行或一个会话
+ * <p>
+ * 按消息对象缓存 token 估算值（消息不可变，同一对象在后续轮次中无需重复计算），
+ * 并累计每轮提示、整个运行/会话的提示和输出 token 数。
+ * 每次记录提示时只保留当前上下文中仍然存在的消息的缓存，缓存大小不会超过上下文本身。
+ */
+public class TokenLedger {
+
+    private final TokenCounter tokenCounter;
+
+    private Map<Message, Integer> cache = new IdentityHashMap<>();
+
+    // 系统提示词通常每轮相同，单独缓存最近一次的结果
+    private String lastSystemText;
+    private int lastSystemTokens;
+
+    // 最近一次提示的 token 数
+    private int lastPromptTokens;
+
+    // 累计提示 token 数（每轮都会重发完整上下文，因此逐轮累加）
+    private long totalPromptTokens;
+
+    // 累计输出 token 数，优先使用模型返回的用量
+    private long totalCompletionTokens;
+
+    // 已记录的模型请求次数
+    private int requests;
+
+    public TokenLedger(TokenCounter tokenCounter) {
+        Assert.notNull(tokenCounter, "tokenCounter cannot be null");
+        this.tokenCounter = tokenCounter;
+    }
+
+    /**
+     * 单条消息的 token 数（带缓存）
+     */
+    public synchronized int count(Message message) {
+        Integer cached = cache.get(message);
+        if (cached != null) {
+            return cached;
+        }
+        int tokens = tokenCounter.count(message);
+        cache.put(message, tokens);
+        return tokens;
+    }
+
+    /**
+     * 消息列表的 token 总数（带缓存），不计入累计值
+     */
+    public synchronized int count(List<Message> messages) {
+        int total = 0;
+        for (Message message : messages) {
+            total += count(message);
+        }
+        return total;
+    }
+
+    /**
+     * 记录一次发送给模型的提示
+     *
+     * @param systemText 单独传入的系统提示词，可以为空
+     * @param messages   提示中的消息
+     * @return 本次提示的 token 数
+     */
+    public synchronized int recordPrompt(String systemText, List<Message> messages) {
+        Map<Message, Integer> retained = new IdentityHashMap<>(messages.size() * 2);
+        int total = 0;
+        for (Message message : messages) {
+            int tokens = count(message);
+            retained.put(message, tokens);
+            total += tokens;
+        }
+        // 丢弃已经不在上下文中的消息（被压缩或从记忆中淘汰）
+        cache = retained;
+
+        if (systemText != null && !systemText.isEmpty()) {
+            if (!systemText.equals(lastSystemText)) {
+                lastSystemText = systemText;
+                lastSystemTokens = tokenCounter.count(systemText) + TokenCounter.MESSAGE_OVERHEAD_TOKENS;
+            }
+            total += lastSystemTokens;
+        }
+
+        lastPromptTokens = total;
+        totalPromptTokens += total;
+        requests++;
+        return total;
+    }
+
+    /**
+     * 记录模型的一次响应：有真实用量时使用真实输出 token 数，否则估算输出消息
+     *
+     * @return 本次输出的 token 数
+     */
+    public synchronized int recordCompletion(ChatResponse chatResponse) {
+        if (chatResponse == null) {
+            return 0;
+        }
+        int tokens = 0;
+        Usage usage = chatResponse.getMetadata() != null ? chatResponse.getMetadata().getUsage() : null;
+        if (usage != null && usage.getCompletionTokens() != null && usage.getCompletionTokens() > 0) {
+            tokens = usage.getCompletionTokens();
+        } else {
+            for (Generation generation : chatResponse.getResults()) {
+                AssistantMessage output = generation.getOutput();
+                if (output != null) {
+                    tokens += tokenCounter.count(output);
+                }
+            }
+        }
+        totalCompletionTokens += tokens;
+        return tokens;
+    }
+
+    public synchronized int getLastPromptTokens() {
+        return lastPromptTokens;
+    }
+
+    public synchronized long getTotalPromptTokens() {
+        return totalPromptTokens;
+    }
+
+    public synchronized long getTotalCompletionTokens() {
+        return totalCompletionTokens;
+    }
+
+    /**
+     * 累计 token 总数（提示 + 输出）
+     */
+    public synchronized long getTotalTokens() {
+        return totalPromptTokens + totalCompletionTokens;
+    }
+
+    public synchronized int getRequests() {
+        return requests;
+    }
+}
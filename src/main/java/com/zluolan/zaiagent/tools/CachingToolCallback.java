@@ -0,0 +1,116 @@
+package com.zluolan.zaiagent.tools;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+
+/**
+ * 工具结果缓存装饰器
+ * <p>
+ * 以“规范化后的 JSON 参数”为键缓存只读工具的返回结果，同一查询/网址在 TTL 内重复调用时直接返回，
+ * 跨运行、跨用户共享。每个工具一个独立的 Caffeine 缓存（W-TinyLFU 淘汰，容量有上限），
+ * 命中/未命中/淘汰次数通过 Micrometer 的 {@code cache.*} 指标暴露（{@code cache=agent.tool.cache}，{@code tool=工具名}）。
+ * 失败、超时或被中断的结果不会被缓存。
+ */
+@Slf4j
+public class CachingToolCallback implements ToolCallback {
+
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final ToolCallback delegate;
+
+    private final Cache<String, String> cache;
+
+    public CachingToolCallback(ToolCallback delegate, Duration ttl, long maximumSize, MeterRegistry meterRegistry) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        Assert.isTrue(ttl != null && !ttl.isNegative() && !ttl.isZero(), "ttl must be positive");
+        Assert.isTrue(maximumSize > 0, "maximumSize must be positive");
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "agent.tool.cache",
+                    "tool", delegate.getToolDefinition().name());
+        }
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return delegate.getToolMetadata();
+    }
+
+    @Override
+    public String call(String toolInput) {
+        return call(toolInput, null);
+    }
+
+    @Override
+    public String call(String toolInput, ToolContext toolContext) {
+        String key = normalize(toolInput);
+        String cached = cache.getIfPresent(key);
+        if (cached != null) {
+            log.debug("工具 {} 命中缓存: {}", getToolDefinition().name(), key);
+            return cached;
+        }
+        String result = toolContext == null ? delegate.call(toolInput) : delegate.call(toolInput, toolContext);
+        if (isCacheable(result)) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * 规范化参数：解析为 JSON 后按键排序、去除空白重新序列化，使等价参数得到相同的缓存键
+     */
+    static String normalize(String toolInput) {
+        if (toolInput == null || toolInput.isBlank()) {
+            return "{}";
+        }
+        try {
+            Object value = CANONICAL_MAPPER.readValue(toolInput, Object.class);
+            return CANONICAL_MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            // 不是合法 JSON 时退化为原始字符串
+            return toolInput.strip();
+        }
+    }
+
+    /**
+     * 只缓存成功的结果：工具以 [XXX_ERROR] / [XXX_EXCEPTION] / [XXX_TIMEOUT] / [XXX_INTERRUPTED] 标记失败
+     */
+    static boolean isCacheable(String result) {
+        if (result == null || result.isEmpty()) {
+            return false;
+        }
+        return !(result.contains("ERROR]") || result.contains("EXCEPTION]") || result.contains("TIMEOUT]")
+                || result.contains("INTERRUPTED]") || result.startsWith("Error"));
+    }
+
+    /**
+     * 当前缓存的条目数（近似值）
+     */
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+}
@@ -7,6 +7,9 @@ import org.springframework.stereotype.Component;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 终端操作工具类
@@ -15,13 +18,18 @@ import java.io.InputStreamReader;
 @Component
 public class TerminalOperationTool {
 
+    /**
+     * 命令最长执行时间，超时后结束进程
+     */
+    private static final long COMMAND_TIMEOUT_SECONDS = 300;
+
     @Tool(description = "Execute a command in the terminal")
     public String executeTerminalCommand(@ToolParam(description = "Command to execute in the terminal") String command) {
         if (command == null || command.isEmpty()) {
             return "[TOOL_EXECUTION_RESULT][COMMAND_ERROR] Error: Command cannot be empty";
         }
 
-        StringBuilder output = new StringBuilder();
+        StringBuffer output = new StringBuffer();
         try {
             // 创建进程构建器
             ProcessBuilder builder = new ProcessBuilder();
@@ -37,17 +45,25 @@ public class TerminalOperationTool {
             builder.redirectErrorStream(true); // 合并错误流和输出流
             Process process = builder.start();
 
-            // 读取命令执行的输出结果
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream(), "UTF-8"))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-            }
+            // 在单独的虚拟线程中读取输出：readLine 无法响应中断，等待放在可中断的 waitFor 上
+            Thread reader = Thread.ofVirtual().start(() -> readOutput(process, output));
 
             // 等待命令执行完成并检查退出码
-            int exitCode = process.waitFor();
+            int exitCode;
+            try {
+                if (!process.waitFor(COMMAND_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    destroyProcessTree(process);
+                    return "[TOOL_EXECUTION_RESULT][COMMAND_TIMEOUT] Command did not finish within "
+                            + COMMAND_TIMEOUT_SECONDS + " seconds and was terminated: " + command;
+                }
+                exitCode = process.exitValue();
+                // 后台子进程可能继续持有输出流，最多再等待一小段时间
+                reader.join(Duration.ofSeconds(5));
+            } catch (InterruptedException e) {
+                // 智能体运行被取消，结束子进程，避免其在后台继续运行
+                destroyProcessTree(process);
+                throw e;
+            }
 
             String result = "[TOOL_EXECUTION_RESULT][COMMAND_EXECUTION_RESULT]\n" +
                     "[COMMAND]: " + command + "\n" +
@@ -75,4 +91,21 @@ public class TerminalOperationTool {
             return "[TOOL_EXECUTION_RESULT][COMMAND_EXCEPTION] Unexpected error occurred during command execution: " + e.getMessage();
         }
     }
+
+    private static void readOutput(Process process, StringBuffer output) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append("\n");
+            }
+        } catch (IOException e) {
+            // 进程被强制结束时输出流会被关闭，忽略即可
+        }
+    }
+
+    private static void destroyProcessTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
 }
\ No newline at end of file
@@ -1,11 +1,19 @@
 package com.zluolan.zaiagent.tools;
 
+import com.zluolan.zaiagent.agent.ConcurrentToolExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.springframework.ai.support.ToolCallbacks;
 import org.springframework.ai.tool.ToolCallback;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
 @Configuration
 public class ToolRegistration {
 
@@ -17,8 +25,15 @@ public class ToolRegistration {
             ResourceDownloadTool resourceDownloadTool,
             TerminalOperationTool terminalOperationTool,
             TerminateTool terminateTool,
-            PDFGenerationTool pdfGenerationTool) {
-        return ToolCallbacks.from(
+            PDFGenerationTool pdfGenerationTool,
+            @Value("${agent.tool.cache.enabled:true}") boolean cacheEnabled,
+            @Value("${agent.tool.cache.maximum-size:1000}") long cacheMaximumSize,
+            @Value("${agent.tool.cache.default-ttl:10m}") Duration cacheDefaultTtl,
+            @Value("#{${agent.tool.cache.ttl-seconds:{:}}}") Map<String, Integer> cacheTtlSeconds,
+            @Value("${agent.tool.cache.excluded:writeFile,readFile,executeTerminalCommand,doTerminate,downloadResource,generatePDF}")
+            Set<String> cacheExcluded,
+            ObjectProvider<MeterRegistry> meterRegistryProvider) {
+        ToolCallback[] tools = ToolCallbacks.from(
                 fileOperationTool,
                 webSearchTool,
                 webScrapingTool,
@@ -27,5 +42,31 @@ public class ToolRegistration {
                 pdfGenerationTool,
                 terminateTool
         );
+        if (!cacheEnabled) {
+            return tools;
+        }
+        // 只读工具包装结果缓存，有副作用或依赖本地状态的工具不缓存
+        MeterRegistry meterRegistry = meterRegistryProvider.getIfAvailable(() -> Metrics.globalRegistry);
+        for (int i = 0; i < tools.length; i++) {
+            String name = tools[i].getToolDefinition().name();
+            if (cacheExcluded.contains(name)) {
+                continue;
+            }
+            Integer ttlSeconds = cacheTtlSeconds.get(name);
+            Duration ttl = ttlSeconds != null ? Duration.ofSeconds(ttlSeconds) : cacheDefaultTtl;
+            tools[i] = new CachingToolCallback(tools[i], ttl, cacheMaximumSize, meterRegistry);
+        }
+        return tools;
+    }
+
+    /**
+     * 智能体使用的并发工具执行器
+     * 网页抓取和搜索受外部站点/接口限流约束，单独限制并发
+     */
+    @Bean
+    public ConcurrentToolExecutor toolExecutor(
+            @Value("${agent.tool.default-concurrency:4}") int defaultConcurrency,
+            @Value("#{${agent.tool.concurrency-limits:{:}}}") Map<String, Integer> concurrencyLimits) {
+        return new ConcurrentToolExecutor(defaultConcurrency, concurrencyLimits);
     }
-}
\ No newline at end of file
+}
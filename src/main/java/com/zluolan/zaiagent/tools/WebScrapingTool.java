@@ -33,6 +33,10 @@ public class WebScrapingTool {
                     "[PAGE_TITLE]: " + title + "\n" +
                     "[CONTENT_SUMMARY]: " + excerpt;
         } catch (IOException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // 虚拟线程被中断时 Socket 会被关闭，说明智能体运行已取消
+                return "[TOOL_EXECUTION_RESULT][WEB_SCRAPING_INTERRUPTED] Web scraping was cancelled: " + url;
+            }
             return "[TOOL_EXECUTION_RESULT][WEB_SCRAPING_ERROR] Web scraping failed: " + e.getMessage() + ". Please check if the URL is correct or the website is accessible.";
         } catch (Exception e) {
             return "[TOOL_EXECUTION_RESULT][WEB_SCRAPING_EXCEPTION] Unexpected error occurred during web scraping: " + e.getMessage();
@@ -78,6 +78,10 @@ public class WebSearchTool {
 
             return result.toString();
         } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // 虚拟线程被中断时 Socket 会被关闭，说明智能体运行已取消
+                return "[TOOL_EXECUTION_RESULT][SEARCH_INTERRUPTED] Search was cancelled: " + query;
+            }
             return "Error searching Baidu: " + e.getMessage();
         }
     }
@@ -4,10 +4,17 @@ CREATE TABLE ai_chat_memory (
                                 conversation_id VARCHAR(256) NOT NULL,
                                 content LONGTEXT NOT NULL,
                                 type VARCHAR(100) NOT NULL,
+                                -- 完整消息（含元数据和工具调用）的 Kryo 编码；为空时按 type 和 content 还原
+                                payload LONGBLOB NULL,
                                 timestamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
                                 CONSTRAINT chk_message_type CHECK (type IN ('USER', 'ASSISTANT', 'SYSTEM', 'TOOL'))
 );
 
 -- 创建索引
-CREATE INDEX idx_conversation_id ON ai_chat_memory(conversation_id);
-CREATE INDEX idx_timestamp ON ai_chat_memory(timestamp);
\ No newline at end of file
+-- (conversation_id, id) 复合索引：按会话顺序读取、取最近 N 条（ORDER BY id DESC LIMIT N）
+-- 以及按 id 范围删除被窗口淘汰的消息都只需扫描索引中该会话的一段
+CREATE INDEX idx_conversation_id_id ON ai_chat_memory(conversation_id, id);
+CREATE INDEX idx_timestamp ON ai_chat_memory(timestamp);
+
+-- 已有的表补充 payload 列：
+-- ALTER TABLE ai_chat_memory ADD COLUMN payload LONGBLOB NULL AFTER type;
@@ -0,0 +1,106 @@
+package com.zluolan.zaiagent.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+class AgentContextManagerTest {
+
+    /**
+     * 构造 n 轮“助手工具调用 + 工具响应”，每个工具结果约 2000 字符
+     */
+    private static List<Message> conversation(int turns) {
+        List<Message> messages = new ArrayList<>();
+        messages.add(new SystemMessage("system"));
+        messages.add(new UserMessage("帮我搜索资料"));
+        for (int i = 0; i < turns; i++) {
+            String id = "call-" + i;
+            messages.add(new AssistantMessage("", Map.of(),
+                    List.of(new AssistantMessage.ToolCall(id, "function", "scrapeWebPage", "{\"url\":\"u" + i + "\"}"))));
+            messages.add(new ToolResponseMessage(
+                    List.of(new ToolResponseMessage.ToolResponse(id, "scrapeWebPage", "x".repeat(2000))), Map.of()));
+        }
+        return messages;
+    }
+
+    @Test
+    void keepsMessagesWithinBudget() {
+        AgentContextManager manager = new AgentContextManager(new AgentContextManager.Policy(100_000, 2, 200));
+        List<Message> messages = conversation(3);
+        Assertions.assertSame(messages, manager.compact(messages));
+    }
+
+    @Test
+    void truncatesOlderToolResponses() {
+        // 10 轮约 5000 token，截断较早轮次后可降到预算以内
+        AgentContextManager manager = new AgentContextManager(new AgentContextManager.Policy(2000, 2, 200));
+        List<Message> messages = conversation(10);
+
+        List<Message> compacted = manager.compact(messages);
+
+        Assertions.assertEquals(messages.size(), compacted.size());
+        Assertions.assertTrue(manager.estimateTokens(compacted) <= 2000);
+        ToolResponseMessage oldest = (ToolResponseMessage) compacted.get(3);
+        Assertions.assertTrue(oldest.getResponses().get(0).responseData().contains("已截断"));
+        // 最近两轮保持原样
+        Assertions.assertSame(messages.get(messages.size() - 1), compacted.get(compacted.size() - 1));
+        Assertions.assertSame(messages.get(messages.size() - 3), compacted.get(compacted.size() - 3));
+    }
+
+    @Test
+    void doesNotTruncateAlreadyTruncatedResponsesAgain() {
+        AgentContextManager manager = new AgentContextManager(new AgentContextManager.Policy(2000, 2, 200));
+        List<Message> compacted = new ArrayList<>(manager.compact(conversation(10)));
+        ToolResponseMessage oldest = (ToolResponseMessage) compacted.get(3);
+        Assertions.assertTrue(oldest.getResponses().get(0).responseData().endsWith("...[已截断 1800 字符]"));
+
+        // 压缩结果写回上下文后继续执行两轮，再次超出预算
+        List<Message> next = conversation(12);
+        compacted.addAll(next.subList(compacted.size(), next.size()));
+        List<Message> recompacted = manager.compact(compacted);
+
+        Assertions.assertNotSame(compacted, recompacted);
+        Assertions.assertTrue(manager.estimateTokens(recompacted) <= 2000);
+        // 第一次已截断的结果原样保留，不会生成新对象
+        int truncated = 0;
+        for (int i = 3; i < compacted.size(); i += 2) {
+            if (((ToolResponseMessage) compacted.get(i)).getResponses().get(0).responseData().contains("已截断")) {
+                Assertions.assertSame(compacted.get(i), recompacted.get(i));
+                truncated++;
+            }
+        }
+        Assertions.assertTrue(truncated > 0);
+        Assertions.assertTrue(((ToolResponseMessage) recompacted.get(3)).getResponses().get(0).responseData()
+                .endsWith("...[已截断 1800 字符]"));
+    }
+
+    @Test
+    void dropsOldestToolCallPairsWhenTruncationIsNotEnough() {
+        AgentContextManager manager = new AgentContextManager(new AgentContextManager.Policy(1500, 2, 200));
+        List<Message> messages = conversation(20);
+
+        List<Message> compacted = manager.compact(messages);
+
+        Assertions.assertTrue(manager.estimateTokens(compacted) <= 1500);
+        // 系统消息和任务始终保留，省略说明紧随其后
+        Assertions.assertSame(messages.get(0), compacted.get(0));
+        Assertions.assertSame(messages.get(1), compacted.get(1));
+        Assertions.assertTrue(compacted.get(2).getText().contains("上下文已压缩"));
+        // 每个工具调用后面都紧跟对应的工具响应
+        for (int i = 0; i < compacted.size(); i++) {
+            if (compacted.get(i) instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()) {
+                ToolResponseMessage response = (ToolResponseMessage) compacted.get(i + 1);
+                Assertions.assertEquals(assistantMessage.getToolCalls().get(0).id(), response.getResponses().get(0).id());
+            }
+        }
+        Assertions.assertSame(messages.get(messages.size() - 1), compacted.get(compacted.size() - 1));
+    }
+}
@@ -0,0 +1,78 @@
+package com.zluolan.zaiagent.agent;
+
+import com.zluolan.zaiagent.exception.BusinessException;
+import com.zluolan.zaiagent.exception.ErrorCode;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class AgentRunSchedulerTest {
+
+    private static AgentRunScheduler newScheduler(int maxConcurrentRuns, int queueCapacity) {
+        return new AgentRunScheduler(maxConcurrentRuns, queueCapacity,
+                new DefaultListableBeanFactory().getBeanProvider(MeterRegistry.class));
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws InterruptedException {
+        AgentRunScheduler scheduler = newScheduler(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.submit(() -> {
+        });
+
+        Assertions.assertEquals(1, scheduler.getActiveRuns());
+        Assertions.assertEquals(1, scheduler.getQueueDepth());
+        BusinessException e = Assertions.assertThrows(BusinessException.class, () -> scheduler.submit(() -> {
+        }));
+        Assertions.assertEquals(ErrorCode.TOO_MANY_REQUEST_ERROR.getCode(), e.getCode());
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void runsQueuedTasksInArrivalOrder() throws InterruptedException {
+        AgentRunScheduler scheduler = newScheduler(1, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(5);
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        scheduler.submit(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            int index = i;
+            scheduler.submit(() -> {
+                order.add(index);
+                done.countDown();
+            });
+            // 给虚拟线程时间进入信号量等待队列
+            Thread.sleep(50);
+        }
+        release.countDown();
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(List.of(0, 1, 2, 3, 4), order);
+        scheduler.shutdown();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
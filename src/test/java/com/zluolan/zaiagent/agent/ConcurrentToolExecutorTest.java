@@ -0,0 +1,113 @@
+package com.zluolan.zaiagent.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ConcurrentToolExecutorTest {
+
+    /**
+     * 慢工具：睡眠指定时间后返回参数，并记录最大并发数
+     */
+    static class SlowTool implements ToolCallback {
+        private final String name;
+        private final long sleepMillis;
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        SlowTool(String name, long sleepMillis) {
+            this.name = name;
+            this.sleepMillis = sleepMillis;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return ToolDefinition.builder().name(name).description(name).inputSchema("{}").build();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            return name + ":" + toolInput;
+        }
+    }
+
+    private static ChatResponse responseWithCalls(List<AssistantMessage.ToolCall> calls) {
+        AssistantMessage assistantMessage = new AssistantMessage("", Map.of(), calls);
+        return new ChatResponse(List.of(new Generation(assistantMessage)));
+    }
+
+    @Test
+    void executesCallsConcurrentlyAndKeepsOrder() {
+        SlowTool scrape = new SlowTool("scrapeWebPage", 300);
+        SlowTool search = new SlowTool("searchWeb", 100);
+        ConcurrentToolExecutor executor = new ConcurrentToolExecutor(4, Map.of());
+        List<AssistantMessage.ToolCall> calls = List.of(
+                new AssistantMessage.ToolCall("1", "function", "scrapeWebPage", "{\"url\":\"a\"}"),
+                new AssistantMessage.ToolCall("2", "function", "searchWeb", "{\"query\":\"b\"}"),
+                new AssistantMessage.ToolCall("3", "function", "scrapeWebPage", "{\"url\":\"c\"}"),
+                new AssistantMessage.ToolCall("4", "function", "scrapeWebPage", "{\"url\":\"d\"}"));
+        Prompt prompt = new Prompt(List.of(new UserMessage("hi")));
+
+        long start = System.currentTimeMillis();
+        ToolExecutionResult result = executor.executeToolCalls(prompt, responseWithCalls(calls),
+                new ToolCallback[]{scrape, search});
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 串行需要 1000ms，并发应接近最慢的单个调用
+        Assertions.assertTrue(elapsed < 800, "工具调用应并发执行，实际耗时 " + elapsed + "ms");
+
+        List<Message> history = result.conversationHistory();
+        Assertions.assertEquals(3, history.size());
+        ToolResponseMessage toolResponseMessage = (ToolResponseMessage) history.get(2);
+        List<String> ids = toolResponseMessage.getResponses().stream().map(ToolResponseMessage.ToolResponse::id).toList();
+        Assertions.assertEquals(List.of("1", "2", "3", "4"), ids);
+        Assertions.assertEquals("searchWeb:{\"query\":\"b\"}", toolResponseMessage.getResponses().get(1).responseData());
+    }
+
+    @Test
+    void respectsPerToolConcurrencyLimit() {
+        SlowTool scrape = new SlowTool("scrapeWebPage", 100);
+        ConcurrentToolExecutor executor = new ConcurrentToolExecutor(4, Map.of("scrapeWebPage", 2));
+        List<AssistantMessage.ToolCall> calls = List.of(
+                new AssistantMessage.ToolCall("1", "function", "scrapeWebPage", "{}"),
+                new AssistantMessage.ToolCall("2", "function", "scrapeWebPage", "{}"),
+                new AssistantMessage.ToolCall("3", "function", "scrapeWebPage", "{}"),
+                new AssistantMessage.ToolCall("4", "function", "scrapeWebPage", "{}"),
+                new AssistantMessage.ToolCall("5", "function", "scrapeWebPage", "{}"));
+
+        executor.executeToolCalls(new Prompt(List.of(new UserMessage("hi"))), responseWithCalls(calls),
+                new ToolCallback[]{scrape});
+
+        Assertions.assertEquals(2, scrape.maxRunning.get());
+    }
+
+    @Test
+    void unknownToolFails() {
+        ConcurrentToolExecutor executor = new ConcurrentToolExecutor(4, Map.of());
+        List<AssistantMessage.ToolCall> calls = List.of(
+                new AssistantMessage.ToolCall("1", "function", "missing", "{}"));
+        Assertions.assertThrows(IllegalStateException.class, () -> executor.executeToolCalls(
+                new Prompt(List.of(new UserMessage("hi"))), responseWithCalls(calls), new ToolCallback[0]));
+    }
+}
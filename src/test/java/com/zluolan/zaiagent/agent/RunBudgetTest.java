@@ -0,0 +1,51 @@
+package com.zluolan.zaiagent.agent;
+
+import com.zluolan.zaiagent.agent.modle.FinishReason;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+class RunBudgetTest {
+
+    @Test
+    void reportsWallClockBudget() {
+        AtomicLong clock = new AtomicLong();
+        RunBudget budget = new RunBudget(new RunBudget.Limits(Duration.ofSeconds(100), 0, Duration.ZERO, 0.8),
+                () -> 0, clock::get);
+        budget.start();
+
+        clock.set(Duration.ofSeconds(79).toNanos());
+        Assertions.assertNull(budget.nearlyExhausted());
+        clock.set(Duration.ofSeconds(80).toNanos());
+        Assertions.assertEquals(FinishReason.WALL_CLOCK_BUDGET, budget.nearlyExhausted());
+        Assertions.assertNull(budget.exhausted());
+        clock.set(Duration.ofSeconds(100).toNanos());
+        Assertions.assertEquals(FinishReason.WALL_CLOCK_BUDGET, budget.exhausted());
+    }
+
+    @Test
+    void reportsTokenAndToolTimeBudgets() {
+        AtomicLong tokens = new AtomicLong();
+        RunBudget budget = new RunBudget(new RunBudget.Limits(Duration.ZERO, 1000, Duration.ofSeconds(10), 0.9),
+                tokens::get);
+        budget.start();
+        Assertions.assertNull(budget.nearlyExhausted());
+
+        tokens.set(900);
+        Assertions.assertEquals(FinishReason.TOKEN_BUDGET, budget.nearlyExhausted());
+
+        tokens.set(0);
+        budget.addToolTime(Duration.ofSeconds(9).toNanos());
+        Assertions.assertEquals(FinishReason.TOOL_TIME_BUDGET, budget.nearlyExhausted());
+    }
+
+    @Test
+    void unlimitedNeverExhausts() {
+        RunBudget budget = new RunBudget(RunBudget.Limits.unlimited(), () -> Long.MAX_VALUE);
+        budget.start();
+        budget.addToolTime(Long.MAX_VALUE / 2);
+        Assertions.assertNull(budget.exhausted());
+    }
+}
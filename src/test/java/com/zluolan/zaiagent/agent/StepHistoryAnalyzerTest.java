@@ -0,0 +1,63 @@
+package com.zluolan.zaiagent.agent;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import java.util.List;
+import java.util.Map;
+
+class StepHistoryAnalyzerTest {
+
+    private static final StepHistoryAnalyzer.Policy POLICY = new StepHistoryAnalyzer.Policy(3, 0.9, 3);
+
+    private static AssistantMessage call(String thought, String tool, String arguments) {
+        return new AssistantMessage(thought, Map.of(),
+                List.of(new AssistantMessage.ToolCall("id", "function", tool, arguments)));
+    }
+
+    @Test
+    void detectsRepeatedSameCall() {
+        StepHistoryAnalyzer analyzer = new StepHistoryAnalyzer(POLICY);
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.OK,
+                analyzer.observe(call("先搜索一下", "searchWeb", "{\"query\":\"AI\"}")));
+        // 偶尔重试一次是正常的
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.OK,
+                analyzer.observe(call("再试一次", "searchWeb", "{ \"query\": \"AI\" }")));
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.CYCLE,
+                analyzer.observe(call("继续搜索", "searchWeb", "{\"query\":\"AI\"}")));
+    }
+
+    @Test
+    void detectsAlternatingCycle() {
+        StepHistoryAnalyzer analyzer = new StepHistoryAnalyzer(POLICY);
+        AssistantMessage search = call("搜索", "searchWeb", "{\"query\":\"AI\"}");
+        AssistantMessage scrape = call("抓取", "scrapeWebPage", "{\"url\":\"https://a.com\"}");
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.OK, analyzer.observe(search));
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.OK, analyzer.observe(scrape));
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.OK, analyzer.observe(search));
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.CYCLE, analyzer.observe(scrape));
+    }
+
+    @Test
+    void detectsStalledThoughts() {
+        StepHistoryAnalyzer analyzer = new StepHistoryAnalyzer(POLICY);
+        String thought = "我需要进一步分析用户的问题，然后给出详细的恋爱建议和具体的行动方案";
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.OK, analyzer.observe(new AssistantMessage(thought)));
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.OK, analyzer.observe(new AssistantMessage(thought + "。")));
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.STALL, analyzer.observe(new AssistantMessage(thought + "！")));
+    }
+
+    @Test
+    void progressingStepsAreOk() {
+        StepHistoryAnalyzer analyzer = new StepHistoryAnalyzer(POLICY);
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.OK,
+                analyzer.observe(call("搜索资料", "searchWeb", "{\"query\":\"上海 景点\"}")));
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.OK,
+                analyzer.observe(call("抓取第一个结果", "scrapeWebPage", "{\"url\":\"https://a.com\"}")));
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.OK,
+                analyzer.observe(call("生成报告", "generatePDF", "{\"fileName\":\"report.pdf\"}")));
+        Assertions.assertEquals(StepHistoryAnalyzer.Verdict.OK,
+                analyzer.observe(call("任务完成", "doTerminate", "{}")));
+    }
+}
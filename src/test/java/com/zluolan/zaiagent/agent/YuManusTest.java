@@ -1,6 +1,6 @@
 package com.zluolan.zaiagent.agent;
 
-import com.zluolan.zaiagent.agent.YuManus;
+import com.zluolan.zaiagent.agent.YuManusFactory;
 import jakarta.annotation.Resource;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -14,7 +14,7 @@ import java.io.IOException;
 class YuManusTest {
 
     @Resource
-    private YuManus yuManus;
+    private YuManusFactory yuManusFactory;
 
     @Test
     void run() throws IOException {
@@ -24,7 +24,7 @@ class YuManusTest {
                 并以 PDF 格式输出""";
 
         // 调用方法
-        String pdfPath = yuManus.run(userPrompt);
+        String pdfPath = yuManusFactory.create().run(userPrompt);
 
         // 断言非空
         Assertions.assertNotNull(pdfPath, "生成的 PDF 路径不能为空");
@@ -0,0 +1,193 @@
+package com.zluolan.zaiagent.benchmark;
+
+import com.zluolan.zaiagent.chatmemeory.FileBasedChatMemoryRepository;
+import com.zluolan.zaiagent.chatmemeory.IncrementalJdbcChatMemoryRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * ChatMemoryRepository 基准测试：内存、Kryo 文件、JDBC（嵌入式 H2，MySQL 兼容模式）三种实现
+ * <p>
+ * 每种实现预先写入 {@value #CONVERSATIONS} 个会话，每个会话 historyLength 条消息（用户 / 助手 / 工具结果混合）。
+ * saveAll 模拟窗口滑动：每次保存的列表比上次后移一条，即淘汰最早一条、追加一条新消息。
+ * <p>
+ * 线程数无法作为 @Param，通过 {@link #main} 依次以 1、4、16 个线程运行（可用参数覆盖），
+ * 每个线程数的结果以 JSON 写入 {@code target/jmh/chat-memory-t<线程数>.json}：
+ * <pre>
+ * mvn -Pbenchmark verify -Djmh.main=com.zluolan.zaiagent.benchmark.ChatMemoryRepositoryBenchmark -Djmh.args="1 4 16"
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatMemoryRepositoryBenchmark {
+
+    private static final int CONVERSATIONS = 64;
+
+    // 窗口滑动的最大步数，超过后回到起点
+    private static final int MAX_SHIFT = 1000;
+
+    private static final int[] DEFAULT_THREAD_COUNTS = {1, 4, 16};
+
+    @Param({"memory", "file", "jdbc"})
+    public String repositoryType;
+
+    @Param({"10", "100", "1000"})
+    public int historyLength;
+
+    private ChatMemoryRepository repository;
+
+    private Path dir;
+
+    private SingleConnectionDataSource dataSource;
+
+    // 合成的消息序列，每个会话保存其中长度为 historyLength 的一段
+    private List<Message> messages;
+
+    // 每个会话当前窗口的起点
+    private AtomicIntegerArray offsets;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private int next;
+
+        String nextConversation() {
+            return "c" + (next++ & (CONVERSATIONS - 1));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        messages = new ArrayList<>(historyLength + MAX_SHIFT);
+        for (int i = 0; i < historyLength + MAX_SHIFT; i++) {
+            messages.add(message(i));
+        }
+        repository = switch (repositoryType) {
+            case "memory" -> new InMemoryChatMemoryRepository();
+            case "file" -> {
+                dir = Files.createTempDirectory("chat-memory-bench");
+                yield new FileBasedChatMemoryRepository(dir.toString());
+            }
+            case "jdbc" -> {
+                dataSource = new SingleConnectionDataSource(
+                        "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "", true);
+                new ResourceDatabasePopulator(new ClassPathResource("sql/schema.sql")).execute(dataSource);
+                yield new IncrementalJdbcChatMemoryRepository(new JdbcTemplate(dataSource), Duration.ofMillis(1),
+                        500, CONVERSATIONS * 2);
+            }
+            default -> throw new IllegalArgumentException("Unknown repository type: " + repositoryType);
+        };
+        offsets = new AtomicIntegerArray(CONVERSATIONS);
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            repository.saveAll("c" + c, messages.subList(0, historyLength));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (repository instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        if (dataSource != null) {
+            dataSource.destroy();
+        }
+        if (dir != null) {
+            FileSystemUtils.deleteRecursively(dir);
+        }
+    }
+
+    private static Message message(int i) {
+        String text = "第 " + i + " 条消息：我和对象最近因为周末安排和家务分工有些分歧，"
+                + "想听听建议。The quick brown fox jumps over the lazy dog, seq=" + i;
+        return switch (i % 3) {
+            case 0 -> new UserMessage(text);
+            case 1 -> new AssistantMessage(text, Map.of("model", "qwen-plus"));
+            default -> new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse(
+                    String.valueOf(i), "searchWeb", "{\"results\":[\"" + text + "\"]}")), Map.of());
+        };
+    }
+
+    @Benchmark
+    public void saveAll(ThreadState state) {
+        String conversationId = state.nextConversation();
+        int conversation = Integer.parseInt(conversationId.substring(1));
+        int offset = offsets.updateAndGet(conversation, value -> (value + 1) % MAX_SHIFT);
+        repository.saveAll(conversationId, messages.subList(offset, offset + historyLength));
+    }
+
+    @Benchmark
+    public List<Message> findByConversationId(ThreadState state) {
+        return repository.findByConversationId(state.nextConversation());
+    }
+
+    @Benchmark
+    public List<String> findConversationIds() {
+        return repository.findConversationIds();
+    }
+
+    /**
+     * 依次以不同线程数运行，参数为线程数列表，默认 1 4 16
+     */
+    public static void main(String[] args) throws RunnerException, IOException {
+        int[] threadCounts = DEFAULT_THREAD_COUNTS;
+        if (args.length > 0) {
+            threadCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                threadCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        Path resultDir = Path.of("target", "jmh");
+        Files.createDirectories(resultDir);
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include(ChatMemoryRepositoryBenchmark.class.getName())
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultDir.resolve("chat-memory-t" + threads + ".json").toString())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.zluolan.zaiagent.benchmark;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.zluolan.zaiagent.chatmemeory.KryoMessageSerializer;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息序列化基准测试：旧方案（全局 Kryo + synchronized，写完整类名）对比 {@link KryoMessageSerializer}
+ * <p>
+ * 每条消息的字节数在 setup 时输出；4 个线程并发执行，体现旧方案全局锁的竞争。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class MessageSerializationBenchmark {
+
+    private Kryo legacyKryo;
+
+    private KryoMessageSerializer serializer;
+
+    private List<Message> messages;
+
+    private List<byte[]> legacyPayloads;
+
+    private List<byte[]> payloads;
+
+    @Setup
+    public void setup() {
+        legacyKryo = new Kryo();
+        legacyKryo.setRegistrationRequired(false);
+        legacyKryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        serializer = new KryoMessageSerializer();
+
+        messages = new ArrayList<>();
+        messages.add(new UserMessage("帮我搜索最近的约会地点推荐，预算 500 元以内"));
+        messages.add(new AssistantMessage("", Map.of("finishReason", "TOOL_CALLS"), List.of(
+                new AssistantMessage.ToolCall("call-1", "function", "searchWeb", "{\"query\":\"约会地点 推荐\"}"))));
+        messages.add(new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse("call-1", "searchWeb",
+                "{\"title\":\"十大约会圣地\",\"snippet\":\"公园、美术馆、海边...\"}".repeat(5))), Map.of()));
+        messages.add(new AssistantMessage("根据搜索结果，推荐以下几个地点：公园野餐、美术馆和海边散步。"));
+
+        legacyPayloads = new ArrayList<>();
+        payloads = new ArrayList<>();
+        long legacyBytes = 0;
+        long bytes = 0;
+        for (Message message : messages) {
+            byte[] legacy = legacySerialize(message);
+            byte[] current = serializer.serialize(message);
+            legacyPayloads.add(legacy);
+            payloads.add(current);
+            legacyBytes += legacy.length;
+            bytes += current.length;
+        }
+        System.out.printf("%nbytes per message: legacy=%d, pooled=%d%n",
+                legacyBytes / messages.size(), bytes / messages.size());
+    }
+
+    private byte[] legacySerialize(Message message) {
+        synchronized (legacyKryo) {
+            Output output = new Output(256, -1);
+            legacyKryo.writeClassAndObject(output, message);
+            return output.toBytes();
+        }
+    }
+
+    @Benchmark
+    public int legacyRoundTrip() {
+        int total = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            total += legacySerialize(messages.get(i)).length;
+            synchronized (legacyKryo) {
+                total += ((Message) legacyKryo.readClassAndObject(new Input(legacyPayloads.get(i)))).getText() == null ? 0 : 1;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int pooledRoundTrip() {
+        int total = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            total += serializer.serialize(messages.get(i)).length;
+            total += serializer.deserialize(payloads.get(i)).getText() == null ? 0 : 1;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,88 @@
+package com.zluolan.zaiagent.benchmark;
+
+import com.zluolan.zaiagent.token.TokenCounter;
+import com.zluolan.zaiagent.token.TokenLedger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token 估算基准测试
+ * <p>
+ * 目标：单条消息（约 2KB 中英文混合文本）的估算在几微秒以内，账本缓存命中时接近零开销。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenCounterBenchmark {
+
+    private TokenCounter tokenCounter;
+
+    private Message mixedMessage;
+
+    private List<Message> conversation;
+
+    private TokenLedger warmLedger;
+
+    @Setup
+    public void setup() {
+        tokenCounter = new TokenCounter();
+        mixedMessage = new UserMessage("请帮我总结这篇关于 Spring AI 的文章，重点关注 ToolCallback 和 Advisor 的用法。"
+                .repeat(30));
+        conversation = new ArrayList<>();
+        conversation.add(new UserMessage("帮我搜索最近的 AI 新闻并生成一份 PDF 报告"));
+        for (int i = 0; i < 20; i++) {
+            String id = "call-" + i;
+            conversation.add(new AssistantMessage("", Map.of(), List.of(
+                    new AssistantMessage.ToolCall(id, "function", "searchWeb", "{\"query\":\"AI news " + i + "\"}"))));
+            conversation.add(new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse(id, "searchWeb",
+                    "{\"title\":\"大模型最新进展\",\"snippet\":\"Large language models continue to improve...\"}"
+                            .repeat(20))), Map.of()));
+        }
+        warmLedger = new TokenLedger(tokenCounter);
+        warmLedger.recordPrompt("system", conversation);
+    }
+
+    /**
+     * 单条消息无缓存估算
+     */
+    @Benchmark
+    public int countMessage() {
+        return tokenCounter.count(mixedMessage);
+    }
+
+    /**
+     * 41 条消息的上下文，全部未命中缓存（每轮新建账本）
+     */
+    @Benchmark
+    public int recordPromptCold() {
+        return new TokenLedger(tokenCounter).recordPrompt("system", conversation);
+    }
+
+    /**
+     * 41 条消息的上下文，全部命中缓存（智能体后续步骤的常见情况）
+     */
+    @Benchmark
+    public int recordPromptWarm() {
+        return warmLedger.recordPrompt("system", conversation);
+    }
+}
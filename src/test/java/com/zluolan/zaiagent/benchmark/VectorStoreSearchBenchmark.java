@@ -0,0 +1,171 @@
+package com.zluolan.zaiagent.benchmark;
+
+import com.zluolan.zaiagent.rag.SimdVectorStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 内存向量检索基准测试：Spring AI 的 SimpleVectorStore 与 {@link SimdVectorStore}
+ * <p>
+ * 预先写入 documents 个 {@value #DIMENSIONS} 维随机向量（与 text-embedding-v1 维度一致），嵌入模型返回预先生成的向量，
+ * 只测检索本身：单次 top-10 检索、带元数据过滤的检索，以及 {@value #BATCH_SIZE} 个查询的批量检索
+ * （SimpleVectorStore 逐个检索，SimdVectorStore 走批量接口按查询并行）。
+ * <p>
+ * fork 的 JVM 加载 jdk.incubator.vector 模块，SimdVectorStore 使用 SIMD 内核：
+ * <pre>
+ * mvn -Pbenchmark verify -Djmh.args="VectorStoreSearchBenchmark -rf json -rff target/jmh/vector-store.json"
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class VectorStoreSearchBenchmark {
+
+    private static final int DIMENSIONS = 1536;
+
+    private static final int QUERIES = 64;
+
+    private static final int BATCH_SIZE = 16;
+
+    @Param({"simple", "simd"})
+    public String storeType;
+
+    @Param({"1000", "10000"})
+    public int documents;
+
+    private VectorStore store;
+
+    private final List<SearchRequest> requests = new ArrayList<>();
+
+    private final List<SearchRequest> filteredRequests = new ArrayList<>();
+
+    private int next;
+
+    /**
+     * 按文本中的 doc-N / query-N 标记返回确定性随机向量，生成后缓存，检索时只剩查表开销
+     */
+    static class PrecomputedEmbeddingModel implements EmbeddingModel {
+
+        private static final Pattern KEY = Pattern.compile("(doc|query)-\\d+");
+
+        private final Map<String, float[]> vectors = new ConcurrentHashMap<>();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(vector(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return DIMENSIONS;
+        }
+
+        private float[] vector(String text) {
+            Matcher matcher = KEY.matcher(text);
+            if (!matcher.find()) {
+                throw new IllegalArgumentException("Unknown text: " + text);
+            }
+            return vectors.computeIfAbsent(matcher.group(), key -> {
+                Random random = new Random(key.hashCode());
+                float[] vector = new float[DIMENSIONS];
+                for (int i = 0; i < DIMENSIONS; i++) {
+                    vector[i] = (float) random.nextGaussian();
+                }
+                return vector;
+            });
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        System.out.printf("%nSIMD kernels enabled: %b%n", SimdVectorStore.simdEnabled());
+        PrecomputedEmbeddingModel embeddingModel = new PrecomputedEmbeddingModel();
+        store = switch (storeType) {
+            case "simple" -> SimpleVectorStore.builder(embeddingModel).build();
+            case "simd" -> SimdVectorStore.builder(embeddingModel).build();
+            default -> throw new IllegalArgumentException("Unknown store type: " + storeType);
+        };
+        List<Document> batch = new ArrayList<>();
+        for (int i = 0; i < documents; i++) {
+            batch.add(new Document("doc-" + i, Map.of("group", i % 10)));
+            if (batch.size() == 500) {
+                store.add(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            store.add(batch);
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            requests.add(SearchRequest.builder().query("query-" + i).topK(10).build());
+            filteredRequests.add(SearchRequest.builder().query("query-" + i).topK(10)
+                    .filterExpression("group == 3").build());
+            // 预先生成查询向量
+            embeddingModel.embed("query-" + i);
+        }
+    }
+
+    private int nextQuery() {
+        next = (next + 1) % QUERIES;
+        return next;
+    }
+
+    @Benchmark
+    public List<Document> search() {
+        return store.similaritySearch(requests.get(nextQuery()));
+    }
+
+    @Benchmark
+    public List<Document> filteredSearch() {
+        return store.similaritySearch(filteredRequests.get(nextQuery()));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<List<Document>> batchSearch() {
+        int from = nextQuery() / BATCH_SIZE * BATCH_SIZE;
+        List<SearchRequest> batch = requests.subList(from, from + BATCH_SIZE);
+        if (store instanceof SimdVectorStore simd) {
+            return simd.similaritySearch(batch);
+        }
+        return batch.stream().map(store::similaritySearch).toList();
+    }
+}
@@ -0,0 +1,119 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+class ConcurrentChatMemoryTest {
+
+    private static final int CONVERSATIONS = 16;
+    private static final int THREADS = 32;
+    private static final int TURNS_PER_THREAD = 50;
+
+    @TempDir
+    Path dir;
+
+    private static ChatMemory memory(ChatMemoryRepository repository) {
+        return new ConcurrentChatMemory(MessageWindowChatMemory.builder()
+                .chatMemoryRepository(repository)
+                .maxMessages(Integer.MAX_VALUE)
+                .build());
+    }
+
+    /**
+     * 多个线程同时向同一批会话追加“用户消息 + 回复”，最终每轮对话都必须保留
+     */
+    private static void assertNoLostUpdates(ChatMemory memory) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int turn = 0; turn < TURNS_PER_THREAD; turn++) {
+                        String conversationId = "c" + (thread + turn) % CONVERSATIONS;
+                        String key = thread + "-" + turn;
+                        // 与 MessageChatMemoryAdvisor 一样分两次写入
+                        memory.add(conversationId, List.of(new UserMessage("问题 " + key)));
+                        memory.get(conversationId);
+                        memory.add(conversationId, List.of(new AssistantMessage("回答 " + key)));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Set<String> texts = new HashSet<>();
+        int total = 0;
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            List<Message> messages = memory.get("c" + c);
+            total += messages.size();
+            messages.forEach(message -> texts.add(message.getText()));
+        }
+        Assertions.assertEquals(THREADS * TURNS_PER_THREAD * 2, total);
+        Assertions.assertEquals(THREADS * TURNS_PER_THREAD * 2, texts.size());
+    }
+
+    @Test
+    void noLostUpdatesWithInMemoryRepository() throws Exception {
+        assertNoLostUpdates(memory(new InMemoryChatMemoryRepository()));
+    }
+
+    @Test
+    void noLostUpdatesWithFileRepository() throws Exception {
+        try (FileBasedChatMemoryRepository repository = new FileBasedChatMemoryRepository(dir.toString())) {
+            assertNoLostUpdates(memory(repository));
+        }
+        try (FileBasedChatMemoryRepository reopened = new FileBasedChatMemoryRepository(dir.toString())) {
+            int total = 0;
+            for (String conversationId : reopened.findConversationIds()) {
+                total += reopened.findByConversationId(conversationId).size();
+            }
+            Assertions.assertEquals(THREADS * TURNS_PER_THREAD * 2, total);
+        }
+    }
+
+    @Test
+    void noLostUpdatesWithWriteBehindRepository() throws Exception {
+        try (WriteBehindChatMemoryRepository repository = new WriteBehindChatMemoryRepository(
+                new InMemoryChatMemoryRepository(), 64L * 1024 * 1024,
+                WriteBehindChatMemoryRepository.DurabilityMode.ASYNC, Duration.ofMillis(100))) {
+            assertNoLostUpdates(memory(repository));
+        }
+    }
+
+    @Test
+    void clearIsSerializedWithAdd() throws Exception {
+        ChatMemory memory = memory(new InMemoryChatMemoryRepository());
+        memory.add("c1", List.of(new UserMessage("问题")));
+        memory.clear("c1");
+        Assertions.assertTrue(memory.get("c1").isEmpty());
+    }
+}
@@ -0,0 +1,345 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+class FileBasedChatMemoryRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<Message> conversation(int from, int to) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            messages.add(i % 2 == 0 ? new UserMessage("问题 " + i) : new AssistantMessage("回答 " + i));
+        }
+        return messages;
+    }
+
+    private FileBasedChatMemoryRepository repository() {
+        return new FileBasedChatMemoryRepository(dir.toString());
+    }
+
+    private Path logFile(String conversationId) {
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            return repository.logPath(conversationId);
+        }
+    }
+
+    private Path indexFile(String conversationId) {
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            return repository.indexPath(conversationId);
+        }
+    }
+
+    @Test
+    void roundTripsAllMessageTypes() {
+        List<Message> messages = List.of(
+                new SystemMessage("你是恋爱专家"),
+                new UserMessage("你好"),
+                new AssistantMessage("", Map.of(), List.of(
+                        new AssistantMessage.ToolCall("1", "function", "searchWeb", "{\"query\":\"约会\"}"))),
+                new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse("1", "searchWeb", "结果")), Map.of()),
+                new AssistantMessage("建议如下"));
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            repository.saveAll("c1", messages);
+            Assertions.assertEquals(messages, repository.findByConversationId("c1"));
+        }
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(messages, reopened.findByConversationId("c1"));
+            Assertions.assertEquals(List.of("c1"), reopened.findConversationIds());
+        }
+    }
+
+    @Test
+    void appendsOnlyNewMessages() throws Exception {
+        Path log = logFile("c1");
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            repository.saveAll("c1", conversation(0, 10));
+            long sizeAfterFirst = Files.size(log);
+            repository.saveAll("c1", conversation(0, 12));
+            long appended = Files.size(log) - sizeAfterFirst;
+            // 只追加了两条消息，而不是重写 12 条
+            Assertions.assertTrue(appended > 0 && appended < sizeAfterFirst / 3, "appended " + appended);
+
+            // 窗口滑动：丢弃最早两条，追加两条
+            repository.saveAll("c1", conversation(4, 14));
+            Assertions.assertEquals(conversation(4, 14), repository.findByConversationId("c1"));
+            Assertions.assertEquals(conversation(11, 14), repository.findLastMessages("c1", 3));
+        }
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(conversation(4, 14), reopened.findByConversationId("c1"));
+        }
+    }
+
+    @Test
+    void recoversFromTornWrite() throws Exception {
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            repository.saveAll("c1", conversation(0, 4));
+        }
+        // 模拟写了一半的记录：长度和校验值都不完整
+        Files.write(logFile("c1"), new byte[]{0, 0, 1, 0, 7, 7}, StandardOpenOption.APPEND);
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(conversation(0, 4), reopened.findByConversationId("c1"));
+            reopened.saveAll("c1", conversation(0, 6));
+        }
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(conversation(0, 6), reopened.findByConversationId("c1"));
+        }
+    }
+
+    @Test
+    void rebuildsMissingIndex() throws Exception {
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            repository.saveAll("c1", conversation(0, 4));
+            repository.saveAll("c1", conversation(2, 8));
+        }
+        Files.delete(indexFile("c1"));
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(conversation(2, 8), reopened.findByConversationId("c1"));
+        }
+        Assertions.assertTrue(Files.exists(indexFile("c1")));
+    }
+
+    @Test
+    void rebuildsTruncatedIndex() throws Exception {
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            repository.saveAll("c1", conversation(0, 4));
+            repository.saveAll("c2", conversation(0, 2));
+        }
+        // 模拟索引写了一半就崩溃：只保留文件头和半条记录，两个会话的日志都还在磁盘上
+        Path conversationIndex = dir.resolve("conversations.index");
+        byte[] bytes = Files.readAllBytes(conversationIndex);
+        Files.write(conversationIndex, Arrays.copyOf(bytes, ConversationIndex.HEADER_SIZE + 5));
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(2, reopened.countConversations());
+            Assertions.assertEquals(conversation(0, 4), reopened.findByConversationId("c1"));
+            Assertions.assertEquals(conversation(0, 2), reopened.findByConversationId("c2"));
+        }
+    }
+
+    @Test
+    void dropsIndexEntryWithoutLog() throws Exception {
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            repository.saveAll("c1", conversation(0, 4));
+        }
+        // 模拟写入索引后、创建日志前崩溃
+        Files.delete(logFile("c1"));
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            Assertions.assertNotNull(reopened.getConversationInfo("c1"));
+            Assertions.assertTrue(reopened.findByConversationId("c1").isEmpty());
+            Assertions.assertNull(reopened.getConversationInfo("c1"));
+            reopened.saveAll("c1", conversation(0, 2));
+        }
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(conversation(0, 2), reopened.findByConversationId("c1"));
+        }
+    }
+
+    @Test
+    void compactionReclaimsDeadEntries() throws Exception {
+        Path log = logFile("c1");
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            for (int i = 0; i < 200; i++) {
+                repository.saveAll("c1", conversation(i, i + 10));
+            }
+            long before = Files.size(log);
+            repository.compact("c1");
+            Assertions.assertTrue(Files.size(log) < before / 5, "before " + before + ", after " + Files.size(log));
+            Assertions.assertEquals(conversation(199, 209), repository.findByConversationId("c1"));
+            repository.saveAll("c1", conversation(200, 210));
+        }
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(conversation(200, 210), reopened.findByConversationId("c1"));
+        }
+    }
+
+    @Test
+    void migratesLegacyFile() throws Exception {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        try (Output output = new Output(new FileOutputStream(dir.resolve("old.kryo").toFile()))) {
+            kryo.writeObject(output, new ArrayList<>(conversation(0, 3)));
+        }
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            Assertions.assertEquals(List.of("old"), repository.findConversationIds());
+            Assertions.assertEquals(conversation(0, 3), repository.findByConversationId("old"));
+        }
+        Assertions.assertFalse(Files.exists(dir.resolve("old.kryo")));
+        Assertions.assertTrue(Files.exists(logFile("old")));
+    }
+
+    @Test
+    void upgradesLegacyEncodedLog() throws Exception {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        List<byte[]> payloads = new ArrayList<>();
+        for (Message message : conversation(0, 4)) {
+            Output output = new Output(256, -1);
+            kryo.writeClassAndObject(output, message);
+            payloads.add(output.toBytes());
+        }
+        ConversationLog legacy = ConversationLog.create(dir.resolve("c1.log"), dir.resolve("c1.idx"),
+                KryoMessageSerializer.LEGACY_FORMAT);
+        legacy.sync(payloads, true);
+
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            Assertions.assertEquals(conversation(0, 4), repository.findByConversationId("c1"));
+        }
+        ConversationLog upgraded = ConversationLog.open(logFile("c1"), indexFile("c1"));
+        Assertions.assertEquals(FileBasedChatMemoryRepository.logFormat(PayloadCodec.LZ4_ID, KryoMessageSerializer.FORMAT),
+                upgraded.format());
+        Assertions.assertEquals(4, upgraded.size());
+    }
+
+    @Test
+    void pagesConversationsFromPersistentIndex() {
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            for (int i = 0; i < 25; i++) {
+                repository.saveAll(String.format("c%02d", i), conversation(0, i % 5 + 1));
+            }
+        }
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            List<String> ids = new ArrayList<>();
+            String cursor = null;
+            List<ConversationInfo> page;
+            while (!(page = reopened.findConversations(cursor, 10)).isEmpty()) {
+                Assertions.assertTrue(page.size() <= 10);
+                page.forEach(info -> ids.add(info.conversationId()));
+                cursor = page.get(page.size() - 1).conversationId();
+            }
+            Assertions.assertEquals(25, ids.size());
+            Assertions.assertEquals(ids.stream().sorted().toList(), ids);
+
+            ConversationInfo info = reopened.getConversationInfo("c07");
+            Assertions.assertEquals(3, info.messageCount());
+            Assertions.assertTrue(info.byteSize() > 0);
+
+            reopened.deleteByConversationId("c07");
+            Assertions.assertNull(reopened.getConversationInfo("c07"));
+        }
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(24, reopened.findConversationIds().size());
+            Assertions.assertFalse(reopened.findConversationIds().contains("c07"));
+        }
+    }
+
+    @Test
+    void rewritesIndexWhenMostRecordsAreStale() throws Exception {
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            for (int i = 0; i < 3000; i++) {
+                repository.saveAll("c1", conversation(i, i + 2));
+            }
+            Assertions.assertEquals(2, repository.getConversationInfo("c1").messageCount());
+        }
+        Assertions.assertTrue(Files.size(dir.resolve("conversations.index")) < 1100 * 40);
+        try (FileBasedChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(List.of("c1"), reopened.findConversationIds());
+        }
+    }
+
+    @Test
+    void migratesFlatLayoutIntoShards() throws Exception {
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            repository.saveAll("sharded", conversation(0, 2));
+        }
+        // 旧版平铺目录中的会话
+        ConversationLog flat = ConversationLog.create(dir.resolve("flat.log"), dir.resolve("flat.idx"),
+                KryoMessageSerializer.FORMAT);
+        List<byte[]> payloads = new ArrayList<>();
+        for (Message message : conversation(0, 3)) {
+            payloads.add(KryoMessageSerializer.getInstance().serialize(message));
+        }
+        flat.sync(payloads, true);
+
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            Assertions.assertEquals(List.of("flat", "sharded"), repository.findConversationIds());
+            Assertions.assertEquals(conversation(0, 3), repository.findByConversationId("flat"));
+            Assertions.assertEquals(3, repository.getConversationInfo("flat").messageCount());
+        }
+        Assertions.assertFalse(Files.exists(dir.resolve("flat.log")));
+        Assertions.assertTrue(Files.exists(logFile("flat")));
+        Assertions.assertNotEquals(dir, logFile("flat").getParent());
+    }
+
+    @Test
+    void switchesCodecAndKeepsOldDictionaries() throws Exception {
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            for (int i = 0; i < 40; i++) {
+                repository.saveAll("c" + i, conversation(i, i + 20));
+            }
+        }
+        byte[] dictionary;
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            dictionary = repository.trainDictionary(800, 4096);
+        }
+        ZstdPayloadCodec zstd = new ZstdPayloadCodec(ZstdPayloadCodec.DEFAULT_LEVEL, List.of(dictionary));
+        try (FileBasedChatMemoryRepository repository =
+                     new FileBasedChatMemoryRepository(dir.toString(), Duration.ofMinutes(1), zstd)) {
+            Assertions.assertEquals(conversation(3, 23), repository.findByConversationId("c3"));
+            repository.saveAll("c3", conversation(3, 25));
+        }
+        Assertions.assertEquals(FileBasedChatMemoryRepository.logFormat(PayloadCodec.ZSTD_ID, KryoMessageSerializer.FORMAT),
+                ConversationLog.open(logFile("c3"), indexFile("c3")).format());
+
+        // 不再配置字典也能通过保存的字典文件解压，并转回 LZ4
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            Assertions.assertEquals(conversation(3, 25), repository.findByConversationId("c3"));
+        }
+        Assertions.assertEquals(FileBasedChatMemoryRepository.logFormat(PayloadCodec.LZ4_ID, KryoMessageSerializer.FORMAT),
+                ConversationLog.open(logFile("c3"), indexFile("c3")).format());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedLogs() throws Exception {
+        try (FileBasedChatMemoryRepository repository = new FileBasedChatMemoryRepository(dir.toString(),
+                Duration.ofMinutes(1), new Lz4PayloadCodec(), 4)) {
+            for (int i = 0; i < 20; i++) {
+                repository.saveAll("c" + i, conversation(0, i + 1));
+            }
+            Assertions.assertTrue(repository.openLogCount() <= 4, "open logs " + repository.openLogCount());
+            for (int i = 0; i < 20; i++) {
+                Assertions.assertEquals(conversation(0, i + 1), repository.findByConversationId("c" + i));
+            }
+            // 淘汰后重新打开的日志仍只追加新增的消息
+            long before = Files.size(repository.logPath("c0"));
+            repository.saveAll("c0", conversation(0, 2));
+            Assertions.assertEquals(conversation(0, 2), repository.findByConversationId("c0"));
+            Assertions.assertTrue(Files.size(repository.logPath("c0")) - before < 200);
+            Assertions.assertTrue(repository.openLogCount() <= 4);
+        }
+    }
+
+    @Test
+    void deletesConversation() {
+        try (FileBasedChatMemoryRepository repository = repository()) {
+            repository.saveAll("c1", conversation(0, 2));
+            repository.deleteByConversationId("c1");
+            Assertions.assertTrue(repository.findByConversationId("c1").isEmpty());
+            Assertions.assertTrue(repository.findConversationIds().isEmpty());
+            repository.saveAll("c1", conversation(0, 1));
+            Assertions.assertEquals(conversation(0, 1), repository.findByConversationId("c1"));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class IncrementalJdbcChatMemoryRepositoryTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private IncrementalJdbcChatMemoryRepository repository;
+
+    private static List<Message> conversation(int from, int to) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            messages.add(i % 2 == 0 ? new UserMessage("问题 " + i) : new AssistantMessage("回答 " + i));
+        }
+        return messages;
+    }
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        new ResourceDatabasePopulator(new ClassPathResource("sql/schema.sql")).execute(dataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        repository = repository();
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.close();
+    }
+
+    private IncrementalJdbcChatMemoryRepository repository() {
+        return new IncrementalJdbcChatMemoryRepository(jdbcTemplate, Duration.ofMillis(5), 256, 1000);
+    }
+
+    private long maxId() {
+        Long id = jdbcTemplate.queryForObject("SELECT MAX(id) FROM ai_chat_memory", Long.class);
+        return id == null ? 0 : id;
+    }
+
+    @Test
+    void insertsOnlyNewMessagesAndTrimsWindow() {
+        repository.saveAll("c1", conversation(0, 10));
+        long afterFirst = maxId();
+        repository.saveAll("c1", conversation(0, 12));
+        // 只插入了两行，已有行保持不变
+        Assertions.assertEquals(afterFirst + 2, maxId());
+
+        // 窗口滑动：删除最早两行，插入两行
+        repository.saveAll("c1", conversation(4, 14));
+        Assertions.assertEquals(afterFirst + 4, maxId());
+        Assertions.assertEquals(10, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM ai_chat_memory WHERE conversation_id = 'c1'", Integer.class));
+        Assertions.assertEquals(conversation(4, 14), repository.findByConversationId("c1"));
+        Assertions.assertEquals(conversation(11, 14), repository.findLastMessages("c1", 3));
+
+        // 重复保存相同内容不写数据库
+        repository.saveAll("c1", conversation(4, 14));
+        Assertions.assertEquals(afterFirst + 4, maxId());
+
+        try (IncrementalJdbcChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(conversation(4, 14), reopened.findByConversationId("c1"));
+        }
+    }
+
+    @Test
+    void rewritesWhenThereIsNoOverlap() {
+        repository.saveAll("c1", conversation(0, 4));
+        repository.saveAll("c1", conversation(100, 103));
+        Assertions.assertEquals(conversation(100, 103), repository.findByConversationId("c1"));
+        try (IncrementalJdbcChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(conversation(100, 103), reopened.findByConversationId("c1"));
+        }
+    }
+
+    @Test
+    void roundTripsSupportedMessageTypes() {
+        List<Message> messages = List.of(
+                new SystemMessage("你是恋爱专家"),
+                new UserMessage("你好"),
+                new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse("1", "searchWeb", "结果")), Map.of()),
+                new AssistantMessage("建议如下"));
+        repository.saveAll("c1", messages);
+        try (IncrementalJdbcChatMemoryRepository reopened = repository()) {
+            Assertions.assertEquals(messages, reopened.findByConversationId("c1"));
+        }
+    }
+
+    @Test
+    void batchesWritesAcrossConversations() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < 32; c++) {
+                String conversationId = "c" + c;
+                futures.add(executor.submit(() -> {
+                    for (int turn = 0; turn < 20; turn++) {
+                        repository.saveAll(conversationId, conversation(Math.max(0, turn - 5), turn + 1));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(32, repository.findConversationIds().size());
+        try (IncrementalJdbcChatMemoryRepository reopened = repository()) {
+            for (int c = 0; c < 32; c++) {
+                Assertions.assertEquals(conversation(14, 20), reopened.findByConversationId("c" + c));
+            }
+        }
+        // 每轮只插入一行
+        Assertions.assertEquals(32 * 20, maxId());
+    }
+
+    @Test
+    void conversationsDoNotWaitForEachOthersBatch() throws Exception {
+        try (IncrementalJdbcChatMemoryRepository slow =
+                     new IncrementalJdbcChatMemoryRepository(jdbcTemplate, Duration.ofMillis(300), 256, 1000)) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                long start = System.nanoTime();
+                List<Future<?>> futures = new ArrayList<>();
+                for (int c = 0; c < 8; c++) {
+                    String conversationId = "slow-" + c;
+                    futures.add(executor.submit(() -> slow.saveAll(conversationId, conversation(0, 2))));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                // 8 个会话合并在同一批次，而不是各自等待一个窗口
+                Assertions.assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 900);
+            } finally {
+                executor.shutdownNow();
+            }
+            for (int c = 0; c < 8; c++) {
+                Assertions.assertEquals(conversation(0, 2), slow.findByConversationId("slow-" + c));
+            }
+        }
+    }
+
+    @Test
+    void deletesConversation() {
+        repository.saveAll("c1", conversation(0, 2));
+        repository.deleteByConversationId("c1");
+        Assertions.assertTrue(repository.findByConversationId("c1").isEmpty());
+        Assertions.assertTrue(repository.findConversationIds().isEmpty());
+        repository.saveAll("c1", conversation(0, 1));
+        Assertions.assertEquals(conversation(0, 1), repository.findByConversationId("c1"));
+    }
+}
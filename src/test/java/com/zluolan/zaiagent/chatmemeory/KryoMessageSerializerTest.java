@@ -0,0 +1,110 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.content.Media;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class KryoMessageSerializerTest {
+
+    private final KryoMessageSerializer serializer = new KryoMessageSerializer();
+
+    private static List<Message> sampleMessages() {
+        return List.of(
+                SystemMessage.builder().text("你是恋爱专家").metadata(Map.of("source", "prompt")).build(),
+                UserMessage.builder()
+                        .text("看看这张图")
+                        .metadata(Map.of("chatId", "c1", "round", 3, "tags", List.of("a", "b"),
+                                "extra", Map.of("k", 1.5)))
+                        .media(List.of(Media.builder().mimeType(MimeTypeUtils.IMAGE_PNG)
+                                .data(new byte[]{1, 2, 3}).id("m1").name("photo").build()))
+                        .build(),
+                new AssistantMessage("", Map.of("finishReason", "TOOL_CALLS"), List.of(
+                        new AssistantMessage.ToolCall("1", "function", "searchWeb", "{\"query\":\"约会\"}"))),
+                new ToolResponseMessage(List.of(new ToolResponseMessage.ToolResponse("1", "searchWeb", "结果")),
+                        Map.of("cached", true)),
+                new AssistantMessage("建议如下"));
+    }
+
+    @Test
+    void roundTripsMessagesWithMetadataAndMedia() {
+        for (Message message : sampleMessages()) {
+            Message copy = serializer.deserialize(serializer.serialize(message));
+            Assertions.assertEquals(message, copy);
+            Assertions.assertEquals(message.getClass(), copy.getClass());
+        }
+        UserMessage user = (UserMessage) serializer.deserialize(serializer.serialize(sampleMessages().get(1)));
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3}, user.getMedia().get(0).getDataAsByteArray());
+        Assertions.assertEquals("photo", user.getMedia().get(0).getName());
+    }
+
+    @Test
+    void unregisteredMetadataValuesFallBackToString() {
+        Message message = new AssistantMessage("hi", Map.of("value", new StringBuilder("sb")));
+        Assertions.assertEquals("sb", serializer.deserialize(serializer.serialize(message)).getMetadata().get("value"));
+    }
+
+    @Test
+    void reserializingReadMessageGivesSameBytes() {
+        List<Message> messages = new ArrayList<>(sampleMessages());
+        messages.add(new AssistantMessage("hi", Map.of("value", new StringBuilder("sb"), "round", 2)));
+        for (Message message : messages) {
+            byte[] payload = serializer.serialize(message);
+            Assertions.assertArrayEquals(payload, serializer.serialize(serializer.deserialize(payload)), message.toString());
+        }
+    }
+
+    @Test
+    void isSmallerThanLegacyFormatAndReadsIt() {
+        Kryo legacy = new Kryo();
+        legacy.setRegistrationRequired(false);
+        legacy.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        for (Message message : sampleMessages()) {
+            Output output = new Output(256, -1);
+            legacy.writeClassAndObject(output, message);
+            byte[] legacyBytes = output.toBytes();
+            Assertions.assertTrue(serializer.serialize(message).length < legacyBytes.length);
+            Assertions.assertEquals(message, serializer.deserialize(legacyBytes, KryoMessageSerializer.LEGACY_FORMAT));
+        }
+    }
+
+    @Test
+    void isSafeUnderConcurrency() throws Exception {
+        List<Message> messages = sampleMessages();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        Message message = messages.get(i % messages.size());
+                        if (!message.equals(serializer.deserialize(serializer.serialize(message)))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                Assertions.assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class PayloadCodecTest {
+
+    private static List<byte[]> samples(int count) {
+        KryoMessageSerializer serializer = KryoMessageSerializer.getInstance();
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            samples.add(serializer.serialize(i % 2 == 0
+                    ? new UserMessage("我和女朋友已经在一起 " + i + " 个月了，最近总是因为小事吵架，应该怎么沟通？")
+                    : new AssistantMessage("建议你们先冷静下来，约定一个固定的沟通时间，第 " + i + " 条建议：多倾听少指责。")));
+        }
+        return samples;
+    }
+
+    @Test
+    void roundTripsAndStoresIncompressiblePayloadsRaw() {
+        for (PayloadCodec codec : List.of(new Lz4PayloadCodec(), new ZstdPayloadCodec(ZstdPayloadCodec.DEFAULT_LEVEL))) {
+            byte[] tiny = {1, 2, 3};
+            byte[] encodedTiny = codec.encode(tiny);
+            Assertions.assertEquals(tiny.length + 1, encodedTiny.length);
+            Assertions.assertArrayEquals(tiny, codec.decode(encodedTiny));
+
+            byte[] repetitive = "恋爱大师".repeat(500).getBytes();
+            byte[] encoded = codec.encode(repetitive);
+            Assertions.assertTrue(encoded.length < repetitive.length / 10, codec + " " + encoded.length);
+            Assertions.assertArrayEquals(repetitive, codec.decode(encoded));
+            // 编码结果必须确定，追加时按 crc 比较
+            Assertions.assertArrayEquals(encoded, codec.encode(repetitive));
+        }
+    }
+
+    @Test
+    void dictionaryImprovesSmallRecordRatio() {
+        List<byte[]> samples = samples(1000);
+        byte[] dictionary = ZstdPayloadCodec.trainDictionary(samples, 4096);
+        ZstdPayloadCodec plain = new ZstdPayloadCodec(ZstdPayloadCodec.DEFAULT_LEVEL);
+        ZstdPayloadCodec trained = new ZstdPayloadCodec(ZstdPayloadCodec.DEFAULT_LEVEL, List.of(dictionary));
+
+        long raw = 0;
+        long plainSize = 0;
+        long trainedSize = 0;
+        for (byte[] sample : samples(50)) {
+            raw += sample.length;
+            plainSize += plain.encode(sample).length;
+            byte[] encoded = trained.encode(sample);
+            trainedSize += encoded.length;
+            Assertions.assertArrayEquals(sample, trained.decode(encoded));
+        }
+        Assertions.assertTrue(trainedSize < raw / 2, "raw " + raw + ", trained " + trainedSize);
+        Assertions.assertTrue(trainedSize < plainSize, "plain " + plainSize + ", trained " + trainedSize);
+    }
+
+    @Test
+    void decodesRecordsWrittenWithPreviousDictionary() {
+        byte[] first = ZstdPayloadCodec.trainDictionary(samples(500), 2048);
+        ZstdPayloadCodec old = new ZstdPayloadCodec(ZstdPayloadCodec.DEFAULT_LEVEL, List.of(first));
+        byte[] sample = samples(1).get(0);
+        byte[] encoded = old.encode(sample);
+
+        List<byte[]> moreSamples = new ArrayList<>(samples(500));
+        moreSamples.replaceAll(bytes -> (new String(bytes) + " v2").getBytes());
+        ZstdPayloadCodec rotated = old.withDictionary(ZstdPayloadCodec.trainDictionary(moreSamples, 2048));
+        Assertions.assertArrayEquals(sample, rotated.decode(encoded));
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> new ZstdPayloadCodec(ZstdPayloadCodec.DEFAULT_LEVEL).decode(encoded));
+    }
+}
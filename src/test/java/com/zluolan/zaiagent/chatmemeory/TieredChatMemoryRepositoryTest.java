@@ -0,0 +1,183 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+class TieredChatMemoryRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final InMemoryChatMemoryRepository cold = new InMemoryChatMemoryRepository();
+
+    private static List<Message> conversation(int from, int to) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            messages.add(i % 2 == 0 ? new UserMessage("问题 " + i) : new AssistantMessage("回答 " + i));
+        }
+        return messages;
+    }
+
+    private TieredChatMemoryRepository.Builder builder() {
+        return TieredChatMemoryRepository.builder()
+                .warm(new FileBasedChatMemoryRepository(dir.toString()))
+                .cold(cold)
+                .hotIdle(Duration.ofHours(1))
+                .warmIdle(Duration.ofDays(1))
+                .maintenanceInterval(Duration.ofHours(1))
+                .meterRegistry(registry);
+    }
+
+    private double count(String name, String tag, String value) {
+        return registry.get(name).tag(tag, value).counter().count();
+    }
+
+    @Test
+    void demotesIdleConversationsAndPromotesOnAccess() throws Exception {
+        try (TieredChatMemoryRepository repository = builder().hotIdle(Duration.ofMillis(1)).build()) {
+            repository.saveAll("c1", conversation(0, 4));
+            Assertions.assertEquals(TieredChatMemoryRepository.Tier.HOT, repository.tierOf("c1"));
+
+            Thread.sleep(5);
+            repository.maintain();
+            Assertions.assertEquals(TieredChatMemoryRepository.Tier.WARM, repository.tierOf("c1"));
+            Assertions.assertEquals(0, repository.hotBytes());
+
+            Assertions.assertEquals(conversation(0, 4), repository.findByConversationId("c1"));
+            Assertions.assertEquals(TieredChatMemoryRepository.Tier.HOT, repository.tierOf("c1"));
+            Assertions.assertEquals(1, count("chat.memory.tier.promotions", "from", "warm"));
+            Assertions.assertEquals(1, count("chat.memory.tier.demotions", "to", "warm"));
+        }
+    }
+
+    @Test
+    void enforcesHotCapacityByDemotingLeastRecentlyUsed() {
+        long oneConversation = WriteBehindChatMemoryRepository.estimateBytes(conversation(0, 10));
+        try (TieredChatMemoryRepository repository = builder().hotMaxBytes(oneConversation * 3).build()) {
+            for (int i = 0; i < 10; i++) {
+                repository.saveAll("c" + i, conversation(0, 10));
+            }
+            Assertions.assertTrue(repository.hotBytes() <= oneConversation * 3);
+            Assertions.assertEquals(TieredChatMemoryRepository.Tier.HOT, repository.tierOf("c9"));
+            Assertions.assertEquals(TieredChatMemoryRepository.Tier.WARM, repository.tierOf("c0"));
+            for (int i = 0; i < 10; i++) {
+                Assertions.assertEquals(conversation(0, 10), repository.findByConversationId("c" + i));
+            }
+        }
+    }
+
+    @Test
+    void archivesIdleAndOverCapacityConversationsToCold() {
+        try (TieredChatMemoryRepository repository = builder().warmMaxConversations(2).build()) {
+            for (int i = 0; i < 5; i++) {
+                repository.saveAll("c" + i, conversation(i, i + 3));
+            }
+            // 先全部降级到文件
+            repository.close();
+        }
+        try (TieredChatMemoryRepository repository = builder().warmMaxConversations(2).build()) {
+            repository.maintain();
+            // 超出文件层容量的 3 个最旧会话被归档
+            List<String> archived = cold.findConversationIds();
+            Assertions.assertEquals(3, archived.size());
+            Assertions.assertEquals(5, repository.findConversationIds().size());
+
+            String id = archived.get(0);
+            int i = Integer.parseInt(id.substring(1));
+            Assertions.assertEquals(TieredChatMemoryRepository.Tier.COLD, repository.tierOf(id));
+            Assertions.assertEquals(conversation(i, i + 3), repository.findByConversationId(id));
+            Assertions.assertEquals(1, count("chat.memory.tier.hits", "tier", "cold"));
+
+            // 提升后的更新在降级时写入文件，覆盖冷存储中的旧副本
+            repository.saveAll(id, conversation(0, 5));
+        }
+        try (TieredChatMemoryRepository repository = builder().build()) {
+            String id = cold.findConversationIds().get(0);
+            Assertions.assertEquals(TieredChatMemoryRepository.Tier.WARM, repository.tierOf(id));
+            Assertions.assertEquals(conversation(0, 5), repository.findByConversationId(id));
+            repository.deleteByConversationId(id);
+            Assertions.assertNull(repository.tierOf(id));
+            Assertions.assertTrue(cold.findByConversationId(id).isEmpty());
+        }
+    }
+
+    @Test
+    void clearedConversationDoesNotFallBackToStaleColdCopy() throws Exception {
+        cold.saveAll("c1", conversation(0, 4));
+        try (TieredChatMemoryRepository repository = builder().build()) {
+            Assertions.assertEquals(conversation(0, 4), repository.findByConversationId("c1"));
+            // 提升后清空，再降级到文件
+            repository.saveAll("c1", List.of());
+        }
+        try (TieredChatMemoryRepository repository = builder().build()) {
+            Assertions.assertEquals(TieredChatMemoryRepository.Tier.WARM, repository.tierOf("c1"));
+            Assertions.assertTrue(repository.findByConversationId("c1").isEmpty());
+            Assertions.assertEquals(1, count("chat.memory.tier.hits", "tier", "cold"));
+        }
+        try (TieredChatMemoryRepository repository = builder().warmIdle(Duration.ofMillis(1)).build()) {
+            // 归档空会话时同时清掉冷存储中的旧副本
+            Thread.sleep(5);
+            repository.maintain();
+            Assertions.assertNull(repository.tierOf("c1"));
+            Assertions.assertTrue(repository.findByConversationId("c1").isEmpty());
+        }
+    }
+
+    @Test
+    void keepsSummaryMetadataThroughJdbcColdTier() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        new ResourceDatabasePopulator(new ClassPathResource("sql/schema.sql")).execute(dataSource);
+        List<Message> summarized = new ArrayList<>();
+        summarized.add(SystemMessage.builder().text("此前对话摘要：用户在准备第一次约会")
+                .metadata(Map.of(TokenWindowChatMemory.SUMMARY_METADATA_KEY, true)).build());
+        summarized.add(new AssistantMessage("", Map.of(), List.of(
+                new AssistantMessage.ToolCall("1", "function", "searchWeb", "{\"query\":\"约会\"}"))));
+        summarized.addAll(conversation(0, 2));
+        try (IncrementalJdbcChatMemoryRepository jdbc = new IncrementalJdbcChatMemoryRepository(
+                new JdbcTemplate(dataSource), Duration.ofMillis(5), 256, 1000)) {
+            try (TieredChatMemoryRepository repository = builder().cold(jdbc).warmIdle(Duration.ofMillis(1)).build()) {
+                repository.saveAll("c1", summarized);
+            }
+            try (TieredChatMemoryRepository repository = builder().cold(jdbc).warmIdle(Duration.ofMillis(1)).build()) {
+                repository.maintain();
+                Assertions.assertEquals(TieredChatMemoryRepository.Tier.COLD, repository.tierOf("c1"));
+
+                List<Message> promoted = repository.findByConversationId("c1");
+                Assertions.assertEquals(summarized, promoted);
+                Assertions.assertTrue(TokenWindowChatMemory.isSummary(promoted));
+                Assertions.assertEquals("searchWeb", ((AssistantMessage) promoted.get(1)).getToolCalls().get(0).name());
+            }
+        }
+    }
+
+    @Test
+    void flushesHotConversationsOnClose() {
+        try (TieredChatMemoryRepository repository = builder().build()) {
+            repository.saveAll("c1", conversation(0, 3));
+        }
+        try (FileBasedChatMemoryRepository file = new FileBasedChatMemoryRepository(dir.toString())) {
+            Assertions.assertEquals(conversation(0, 3), file.findByConversationId("c1"));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import com.zluolan.zaiagent.token.TokenCounter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TokenWindowChatMemoryTest {
+
+    private static final int BUDGET = 200;
+
+    private final TokenCounter tokenCounter = new TokenCounter();
+
+    private final InMemoryChatMemoryRepository repository = new InMemoryChatMemoryRepository();
+
+    // 手动执行的折叠任务
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private final AtomicInteger summarizeCalls = new AtomicInteger();
+
+    private final List<String> previousSummaries = new ArrayList<>();
+
+    private TokenWindowChatMemory memory(TokenWindowChatMemory.ConversationSummarizer summarizer) {
+        return new TokenWindowChatMemory(repository, tokenCounter, summarizer, tasks::add, BUDGET);
+    }
+
+    private TokenWindowChatMemory memory() {
+        return memory((previous, messages) -> {
+            summarizeCalls.incrementAndGet();
+            previousSummaries.add(previous);
+            return "摘要" + summarizeCalls.get() + "（" + messages.size() + " 条）";
+        });
+    }
+
+    private static void turn(TokenWindowChatMemory memory, int i) {
+        memory.add("c1", List.of(new UserMessage("第 " + i + " 轮，我和对象因为周末安排吵架了，她想去看展我想打球")));
+        memory.add("c1", List.of(new AssistantMessage("第 " + i + " 轮回复：可以轮流安排周末活动，提前一起商量计划")));
+    }
+
+    private int tokens(List<Message> messages) {
+        return messages.stream().mapToInt(tokenCounter::count).sum();
+    }
+
+    private static boolean isSummary(Message message) {
+        return message instanceof SystemMessage
+                && Boolean.TRUE.equals(message.getMetadata().get(TokenWindowChatMemory.SUMMARY_METADATA_KEY));
+    }
+
+    @Test
+    void windowStaysWithinBudget() {
+        TokenWindowChatMemory memory = memory();
+        for (int i = 0; i < 20; i++) {
+            turn(memory, i);
+            Assertions.assertTrue(tokens(memory.get("c1")) <= BUDGET);
+        }
+        List<Message> window = memory.get("c1");
+        Assertions.assertTrue(window.get(window.size() - 1).getText().startsWith("第 19 轮回复"));
+        // 折叠任务只提交一次，直到执行完成
+        Assertions.assertEquals(1, tasks.size());
+    }
+
+    @Test
+    void foldsOlderTurnsIntoRollingSummary() {
+        TokenWindowChatMemory memory = memory();
+        for (int i = 0; i < 6; i++) {
+            turn(memory, i);
+        }
+        Assertions.assertFalse(tasks.isEmpty());
+        tasks.poll().run();
+        Assertions.assertEquals(1, summarizeCalls.get());
+        Assertions.assertEquals("", previousSummaries.get(0));
+
+        List<Message> stored = repository.findByConversationId("c1");
+        Assertions.assertTrue(isSummary(stored.get(0)));
+        Assertions.assertTrue(tokens(stored.subList(1, stored.size())) <= BUDGET / 2);
+        Assertions.assertInstanceOf(UserMessage.class, stored.get(1));
+        Assertions.assertTrue(isSummary(memory.get("c1").get(0)));
+
+        // 再次超出预算时，已有摘要参与合并
+        for (int i = 6; i < 12; i++) {
+            turn(memory, i);
+        }
+        tasks.poll().run();
+        Assertions.assertEquals(2, summarizeCalls.get());
+        Assertions.assertTrue(previousSummaries.get(1).startsWith("摘要1"));
+        Assertions.assertTrue(repository.findByConversationId("c1").get(0).getText().contains("摘要2"));
+    }
+
+    @Test
+    void keepsMessagesWrittenDuringFold() {
+        TokenWindowChatMemory[] holder = new TokenWindowChatMemory[1];
+        TokenWindowChatMemory memory = memory((previous, messages) -> {
+            // 模型调用期间用户又发来一轮
+            turn(holder[0], 100);
+            return "摘要";
+        });
+        holder[0] = memory;
+        for (int i = 0; i < 6; i++) {
+            turn(memory, i);
+        }
+        tasks.poll().run();
+        List<Message> stored = repository.findByConversationId("c1");
+        Assertions.assertTrue(isSummary(stored.get(0)));
+        Assertions.assertTrue(stored.get(stored.size() - 1).getText().startsWith("第 100 轮回复"));
+    }
+
+    @Test
+    void failedSummaryKeepsHistoryAndBoundsGrowth() {
+        TokenWindowChatMemory memory = memory((previous, messages) -> {
+            throw new IllegalStateException("模型不可用");
+        });
+        for (int i = 0; i < 60; i++) {
+            turn(memory, i);
+            Runnable task = tasks.poll();
+            if (task != null) {
+                task.run();
+            }
+        }
+        List<Message> stored = repository.findByConversationId("c1");
+        Assertions.assertFalse(isSummary(stored.get(0)));
+        Assertions.assertTrue(tokens(stored) <= BUDGET * 4 + 100, "stored " + tokens(stored));
+        Assertions.assertTrue(stored.get(stored.size() - 1).getText().startsWith("第 59 轮回复"));
+    }
+
+    @Test
+    void clearRemovesSummaryToo() {
+        TokenWindowChatMemory memory = memory();
+        for (int i = 0; i < 6; i++) {
+            turn(memory, i);
+        }
+        tasks.poll().run();
+        memory.clear("c1");
+        Assertions.assertTrue(memory.get("c1").isEmpty());
+    }
+}
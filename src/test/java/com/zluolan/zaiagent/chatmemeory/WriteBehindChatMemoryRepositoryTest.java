@@ -0,0 +1,141 @@
+package com.zluolan.zaiagent.chatmemeory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class WriteBehindChatMemoryRepositoryTest {
+
+    /**
+     * 统计读写次数的底层存储，可以让写入阻塞
+     */
+    static class CountingRepository implements ChatMemoryRepository {
+
+        final InMemoryChatMemoryRepository store = new InMemoryChatMemoryRepository();
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger writes = new AtomicInteger();
+        volatile CountDownLatch writeGate = new CountDownLatch(0);
+
+        @Override
+        public List<String> findConversationIds() {
+            return store.findConversationIds();
+        }
+
+        @Override
+        public List<Message> findByConversationId(String conversationId) {
+            reads.incrementAndGet();
+            return store.findByConversationId(conversationId);
+        }
+
+        @Override
+        public void saveAll(String conversationId, List<Message> messages) {
+            try {
+                writeGate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writes.incrementAndGet();
+            store.saveAll(conversationId, messages);
+        }
+
+        @Override
+        public void deleteByConversationId(String conversationId) {
+            store.deleteByConversationId(conversationId);
+        }
+    }
+
+    private static List<Message> messages(int n) {
+        return IntStream.range(0, n)
+                .<Message>mapToObj(i -> new UserMessage("消息 " + i))
+                .toList();
+    }
+
+    @Test
+    void servesActiveConversationsFromMemory() {
+        CountingRepository delegate = new CountingRepository();
+        try (WriteBehindChatMemoryRepository repository = new WriteBehindChatMemoryRepository(delegate,
+                1024 * 1024, WriteBehindChatMemoryRepository.DurabilityMode.SYNC, Duration.ofSeconds(1))) {
+            Assertions.assertTrue(repository.findByConversationId("c1").isEmpty());
+            repository.saveAll("c1", messages(2));
+            for (int i = 0; i < 5; i++) {
+                Assertions.assertEquals(messages(2), repository.findByConversationId("c1"));
+            }
+            Assertions.assertEquals(1, delegate.reads.get());
+            Assertions.assertEquals(1, delegate.writes.get());
+            Assertions.assertEquals(messages(2), delegate.store.findByConversationId("c1"));
+        }
+    }
+
+    @Test
+    void coalescesAsyncWritesAndFlushesOnClose() throws Exception {
+        CountingRepository delegate = new CountingRepository();
+        CountDownLatch gate = new CountDownLatch(1);
+        WriteBehindChatMemoryRepository repository = new WriteBehindChatMemoryRepository(delegate,
+                1024 * 1024, WriteBehindChatMemoryRepository.DurabilityMode.ASYNC, Duration.ofMillis(50));
+        // 第一次写回阻塞期间的多次写入只保留最新一份
+        delegate.writeGate = gate;
+        repository.saveAll("c1", messages(1));
+        TimeUnit.MILLISECONDS.sleep(50);
+        for (int i = 2; i <= 10; i++) {
+            repository.saveAll("c1", messages(i));
+        }
+        Assertions.assertEquals(messages(10), repository.findByConversationId("c1"));
+        gate.countDown();
+        repository.close();
+
+        Assertions.assertTrue(delegate.writes.get() <= 2, "writes " + delegate.writes.get());
+        Assertions.assertEquals(messages(10), delegate.store.findByConversationId("c1"));
+        Assertions.assertEquals(0, repository.pendingCount());
+    }
+
+    @Test
+    void periodicModeWritesInBatches() throws Exception {
+        CountingRepository delegate = new CountingRepository();
+        try (WriteBehindChatMemoryRepository repository = new WriteBehindChatMemoryRepository(delegate,
+                1024 * 1024, WriteBehindChatMemoryRepository.DurabilityMode.PERIODIC, Duration.ofMillis(100))) {
+            for (int i = 1; i <= 5; i++) {
+                repository.saveAll("c1", messages(i));
+                repository.saveAll("c2", messages(i));
+            }
+            Assertions.assertEquals(0, delegate.writes.get());
+            Assertions.assertEquals(2, repository.pendingCount());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (repository.pendingCount() > 0 && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(20);
+            }
+            Assertions.assertEquals(2, delegate.writes.get());
+            Assertions.assertEquals(messages(5), delegate.store.findByConversationId("c2"));
+        }
+    }
+
+    @Test
+    void evictsByMemoryBudgetWithoutLosingPendingWrites() {
+        CountingRepository delegate = new CountingRepository();
+        long budget = WriteBehindChatMemoryRepository.estimateBytes(messages(10)) * 3;
+        try (WriteBehindChatMemoryRepository repository = new WriteBehindChatMemoryRepository(delegate,
+                budget, WriteBehindChatMemoryRepository.DurabilityMode.PERIODIC, Duration.ofHours(1))) {
+            for (int i = 0; i < 20; i++) {
+                repository.saveAll("c" + i, messages(10));
+            }
+            repository.findByConversationId("c0");
+            Assertions.assertTrue(repository.estimatedMemoryBytes() <= budget);
+            Assertions.assertEquals(20, repository.pendingCount());
+            Assertions.assertEquals(20, repository.findConversationIds().size());
+            Assertions.assertEquals(0, delegate.reads.get());
+
+            repository.deleteByConversationId("c3");
+            Assertions.assertEquals(19, repository.findConversationIds().size());
+        }
+        Assertions.assertEquals(19, delegate.findConversationIds().size());
+    }
+}
@@ -0,0 +1,128 @@
+package com.zluolan.zaiagent.rag;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+class CachingEmbeddingModelTest {
+
+    @TempDir
+    Path dir;
+
+    private final RecordingEmbeddingModel delegate = new RecordingEmbeddingModel();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    /**
+     * 向量第一维为文本长度，记录每次请求的文本
+     */
+    static class RecordingEmbeddingModel implements EmbeddingModel {
+
+        final List<List<String>> requests = new ArrayList<>();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            requests.add(List.copyOf(request.getInstructions()));
+            List<Embedding> embeddings = new ArrayList<>();
+            // 倒序返回，验证按 index 对齐
+            for (int i = request.getInstructions().size() - 1; i >= 0; i--) {
+                String text = request.getInstructions().get(i);
+                embeddings.add(new Embedding(new float[]{text.length(), text.hashCode(), 1f}, i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private CachingEmbeddingModel model() {
+        return new CachingEmbeddingModel(delegate, "text-embedding-v1", MetadataMode.EMBED, 100, dir, registry);
+    }
+
+    private static float[] expected(String text) {
+        return new float[]{text.length(), text.hashCode(), 1f};
+    }
+
+    @Test
+    void sendsOnlyDistinctMissesToModel() {
+        try (CachingEmbeddingModel model = model()) {
+            model.embed("如何沟通");
+            List<float[]> vectors = model.embed(List.of("如何沟通", "周末安排", "家务分工", "周末安排"));
+
+            Assertions.assertEquals(List.of(List.of("如何沟通"), List.of("周末安排", "家务分工")), delegate.requests);
+            List<String> texts = List.of("如何沟通", "周末安排", "家务分工", "周末安排");
+            for (int i = 0; i < texts.size(); i++) {
+                Assertions.assertArrayEquals(expected(texts.get(i)), vectors.get(i));
+            }
+
+            // 全部命中时不调用模型
+            model.embed(List.of("家务分工", "如何沟通"));
+            Assertions.assertEquals(2, delegate.requests.size());
+            Assertions.assertEquals(3, registry.get("rag.embedding.model.texts").counter().count());
+        }
+    }
+
+    @Test
+    void persistsVectorsAcrossInstances() {
+        try (CachingEmbeddingModel model = model()) {
+            model.embed(List.of("如何沟通", "周末安排"));
+        }
+        try (CachingEmbeddingModel model = model()) {
+            Assertions.assertArrayEquals(expected("周末安排"), model.embed("周末安排"));
+            Assertions.assertArrayEquals(expected("如何沟通"), model.embed("如何沟通"));
+            Assertions.assertEquals(1, delegate.requests.size());
+            Assertions.assertEquals(2, registry.get("rag.embedding.cache.disk.hits").counter().count());
+        }
+    }
+
+    @Test
+    void separatesModelsFromRequestOptions() {
+        try (CachingEmbeddingModel model = model()) {
+            model.embed("如何沟通");
+            EmbeddingOptions options = EmbeddingOptionsBuilder.builder().withModel("text-embedding-v3").build();
+            model.call(new EmbeddingRequest(List.of("如何沟通"), options));
+            Assertions.assertEquals(2, delegate.requests.size());
+        }
+        Assertions.assertTrue(Files.exists(dir.resolve("text-embedding-v1.emb")));
+        Assertions.assertTrue(Files.exists(dir.resolve("text-embedding-v3.emb")));
+    }
+
+    @Test
+    void recoversFromTruncatedFile() throws Exception {
+        try (CachingEmbeddingModel model = model()) {
+            model.embed(List.of("如何沟通", "周末安排"));
+        }
+        Path file = dir.resolve("text-embedding-v1.emb");
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+        try (CachingEmbeddingModel model = model()) {
+            Assertions.assertArrayEquals(expected("如何沟通"), model.embed("如何沟通"));
+            Assertions.assertArrayEquals(expected("周末安排"), model.embed("周末安排"));
+            // 被截断的最后一条重新嵌入并追加
+            Assertions.assertEquals(List.of(List.of("周末安排")), delegate.requests.subList(1, 2));
+        }
+        try (CachingEmbeddingModel model = model()) {
+            model.embed(List.of("如何沟通", "周末安排"));
+            Assertions.assertEquals(2, delegate.requests.size());
+        }
+    }
+}
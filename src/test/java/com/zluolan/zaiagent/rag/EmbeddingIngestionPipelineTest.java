@@ -0,0 +1,156 @@
+package com.zluolan.zaiagent.rag;
+
+import com.zluolan.zaiagent.token.TokenCounter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+class EmbeddingIngestionPipelineTest {
+
+    /**
+     * 记录每次 add 的批次，可注入延迟和失败
+     */
+    static class RecordingVectorStore implements VectorStore {
+
+        final List<List<Document>> batches = new CopyOnWriteArrayList<>();
+
+        final Map<String, Document> documents = new ConcurrentHashMap<>();
+
+        final AtomicInteger active = new AtomicInteger();
+
+        final AtomicInteger maxActive = new AtomicInteger();
+
+        Consumer<List<Document>> beforeAdd = batch -> {
+        };
+
+        @Override
+        public void add(List<Document> batch) {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                beforeAdd.accept(batch);
+                batches.add(batch);
+                batch.forEach(document -> documents.put(document.getId(), document));
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+            idList.forEach(documents::remove);
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            return List.of();
+        }
+    }
+
+    private static List<Document> documents(int count, int chars) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            documents.add(new Document(i + "恋".repeat(chars)));
+        }
+        return documents;
+    }
+
+    private static EmbeddingIngestionPipeline.Builder builder() {
+        return EmbeddingIngestionPipeline.builder()
+                .tokenCounter(new TokenCounter())
+                .initialBackoff(Duration.ofMillis(1))
+                .maxBackoff(Duration.ofMillis(5));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void splitsIntoTokenAndSizeBoundedBatches() {
+        RecordingVectorStore store = new RecordingVectorStore();
+        EmbeddingIngestionPipeline.Result bySize = builder().maxBatchSize(3).build().ingest(documents(10, 10), store);
+        Assertions.assertEquals(new EmbeddingIngestionPipeline.Result(10, 4, 0), bySize);
+        List<Integer> sizes = new ArrayList<>(store.batches.stream().map(List::size).toList());
+        Collections.sort(sizes);
+        Assertions.assertEquals(List.of(1, 3, 3, 3), sizes);
+
+        // 每个文档约 101 tokens，每批最多容纳 2 个
+        store = new RecordingVectorStore();
+        EmbeddingIngestionPipeline.Result byTokens = builder().maxBatchTokens(250).build().ingest(documents(5, 100), store);
+        Assertions.assertEquals(new EmbeddingIngestionPipeline.Result(5, 3, 0), byTokens);
+        Assertions.assertEquals(5, store.documents.size());
+
+        // 单个文档超出上限时单独成批
+        store = new RecordingVectorStore();
+        Assertions.assertEquals(2, builder().maxBatchTokens(50).build().ingest(documents(2, 100), store).batches());
+    }
+
+    @Test
+    void limitsBatchesInFlight() {
+        RecordingVectorStore store = new RecordingVectorStore();
+        store.beforeAdd = batch -> sleep(20);
+        EmbeddingIngestionPipeline.Result result = builder().maxBatchSize(1).concurrency(3).build()
+                .ingest(documents(12, 5), store);
+        Assertions.assertEquals(12, result.documents());
+        Assertions.assertEquals(3, store.maxActive.get());
+    }
+
+    @Test
+    void retriesFailedBatchesAndIsolatesPermanentFailures() {
+        RecordingVectorStore store = new RecordingVectorStore();
+        Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        store.beforeAdd = batch -> {
+            String first = batch.get(0).getText();
+            int attempt = attempts.computeIfAbsent(first, key -> new AtomicInteger()).incrementAndGet();
+            if (first.startsWith("0") && attempt <= 2) {
+                throw new IllegalStateException("429 Too Many Requests");
+            }
+            if (first.startsWith("2")) {
+                throw new IllegalStateException("invalid input");
+            }
+        };
+        EmbeddingIngestionPipeline.Result result = builder().maxBatchSize(2).maxAttempts(3).build()
+                .ingest(documents(6, 5), store);
+
+        Assertions.assertEquals(new EmbeddingIngestionPipeline.Result(4, 3, 2), result);
+        // 第一批重试两次后成功，第二批重试用尽，第三批一次成功
+        Assertions.assertEquals(3, attempts.get("0" + "恋".repeat(5)).get());
+        Assertions.assertEquals(3, attempts.get("2" + "恋".repeat(5)).get());
+        Assertions.assertEquals(1, attempts.get("4" + "恋".repeat(5)).get());
+        Assertions.assertFalse(store.documents.values().stream().anyMatch(document -> document.getText().startsWith("3")));
+    }
+
+    @Test
+    void tokenBucketThrottlesAfterBurst() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(10, Duration.ofMillis(200));
+        long start = System.nanoTime();
+        bucket.acquire(10);
+        Assertions.assertTrue(System.nanoTime() - start < Duration.ofMillis(50).toNanos());
+        bucket.acquire(5);
+        bucket.acquire(5);
+        long elapsed = System.nanoTime() - start;
+        Assertions.assertTrue(elapsed >= Duration.ofMillis(180).toNanos(), "elapsed " + elapsed);
+    }
+}
@@ -0,0 +1,181 @@
+package com.zluolan.zaiagent.rag;
+
+import com.zluolan.zaiagent.token.TokenCounter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+class IncrementalDocumentSyncTest {
+
+    private final SingleConnectionDataSource dataSource = new SingleConnectionDataSource(
+            "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "", true);
+
+    private final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+    private final JdbcVectorStore vectorStore = new JdbcVectorStore();
+
+    private final EmbeddingIngestionPipeline pipeline = EmbeddingIngestionPipeline.builder()
+            .tokenCounter(new TokenCounter())
+            .maxBatchSize(2)
+            .maxAttempts(1)
+            .initialBackoff(Duration.ofMillis(1))
+            .build();
+
+    private final IncrementalDocumentSync sync;
+
+    IncrementalDocumentSyncTest() {
+        jdbcTemplate.execute("CREATE TABLE vector_store (id UUID PRIMARY KEY, content TEXT, content_hash VARCHAR(64), "
+                + "filename VARCHAR(255))");
+        sync = new IncrementalDocumentSync(jdbcTemplate, "vector_store", "content_hash", "filename", vectorStore, pipeline);
+    }
+
+    /**
+     * 把文档按 id upsert 到表中，记录写入的文本，可注入失败
+     */
+    class JdbcVectorStore implements VectorStore {
+
+        final List<String> added = new CopyOnWriteArrayList<>();
+
+        volatile String failOn;
+
+        @Override
+        public void add(List<Document> documents) {
+            for (Document document : documents) {
+                if (document.getText().equals(failOn)) {
+                    throw new IllegalStateException("embedding failed");
+                }
+            }
+            for (Document document : documents) {
+                added.add(document.getText());
+                jdbcTemplate.update("MERGE INTO vector_store (id, content, content_hash, filename) KEY (id) VALUES (?, ?, ?, ?)",
+                        UUID.fromString(document.getId()), document.getText(),
+                        document.getMetadata().get(IncrementalDocumentSync.CONTENT_HASH_KEY),
+                        document.getMetadata().get(IncrementalDocumentSync.SOURCE_KEY));
+            }
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+            for (String id : idList) {
+                jdbcTemplate.update("DELETE FROM vector_store WHERE id = ?", UUID.fromString(id));
+            }
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            return List.of();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.destroy();
+    }
+
+    private static Document chunk(String file, String text) {
+        return new Document(text, Map.of(IncrementalDocumentSync.SOURCE_KEY, file));
+    }
+
+    private List<Document> knowledgeBase() {
+        return new ArrayList<>(List.of(
+                chunk("单身篇.md", "如何扩大社交圈"),
+                chunk("单身篇.md", "第一次约会注意什么"),
+                chunk("恋爱篇.md", "异地恋如何维持"),
+                chunk("已婚篇.md", "婚后家务如何分工")));
+    }
+
+    private List<String> storedContents() {
+        return jdbcTemplate.queryForList("SELECT content FROM vector_store ORDER BY content", String.class);
+    }
+
+    @Test
+    void embedsOnlyNewChunks() {
+        Assertions.assertEquals(new IncrementalDocumentSync.Result(0, 4, 0, 0), sync.sync(knowledgeBase().stream()));
+        Assertions.assertEquals(4, vectorStore.added.size());
+
+        // 重新读取的文档 id 随机，内容未变则不再嵌入
+        Assertions.assertEquals(new IncrementalDocumentSync.Result(4, 0, 0, 0), sync.sync(knowledgeBase().stream()));
+        Assertions.assertEquals(4, vectorStore.added.size());
+        Assertions.assertEquals(4, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM vector_store WHERE content_hash IS NOT NULL", Integer.class));
+    }
+
+    @Test
+    void upsertsChangedAndDeletesRemovedChunks() {
+        sync.sync(knowledgeBase().stream());
+        vectorStore.added.clear();
+
+        List<Document> edited = knowledgeBase();
+        edited.set(2, chunk("恋爱篇.md", "异地恋如何维持信任"));
+        edited.remove(3);
+        edited.add(chunk("恋爱篇.md", "吵架后如何和好"));
+
+        Assertions.assertEquals(new IncrementalDocumentSync.Result(2, 2, 2, 0), sync.sync(edited.stream()));
+        Assertions.assertEquals(new HashSet<>(List.of("异地恋如何维持信任", "吵架后如何和好")), new HashSet<>(vectorStore.added));
+        Assertions.assertEquals(List.of("吵架后如何和好", "如何扩大社交圈", "异地恋如何维持信任", "第一次约会注意什么"),
+                storedContents());
+    }
+
+    @Test
+    void sameTextInDifferentFilesIsKeptSeparately() {
+        sync.sync(List.of(chunk("a.md", "相同段落"), chunk("b.md", "相同段落"), chunk("a.md", "相同段落")).stream());
+        Assertions.assertEquals(2, storedContents().size());
+    }
+
+    @Test
+    void keepsOldChunksWhenEmbeddingFails() {
+        sync.sync(knowledgeBase().stream());
+        List<Document> edited = knowledgeBase();
+        edited.set(0, chunk("单身篇.md", "如何扩大社交圈，线上线下"));
+        vectorStore.failOn = "如何扩大社交圈，线上线下";
+
+        IncrementalDocumentSync.Result result = sync.sync(edited.stream());
+        Assertions.assertEquals(1, result.failed());
+        Assertions.assertEquals(0, result.deleted());
+        Assertions.assertTrue(storedContents().contains("如何扩大社交圈"));
+
+        vectorStore.failOn = null;
+        Assertions.assertEquals(new IncrementalDocumentSync.Result(3, 1, 1, 0), sync.sync(edited.stream()));
+        Assertions.assertFalse(storedContents().contains("如何扩大社交圈"));
+    }
+
+    @Test
+    void replacesLegacyRowsWithoutContentHash() {
+        jdbcTemplate.update("INSERT INTO vector_store (id, content, filename) VALUES (?, ?, ?)",
+                UUID.randomUUID(), "旧版本数据", "恋爱篇.md");
+        Assertions.assertEquals(new IncrementalDocumentSync.Result(0, 4, 1, 0), sync.sync(knowledgeBase().stream()));
+        Assertions.assertFalse(storedContents().contains("旧版本数据"));
+    }
+
+    @Test
+    void keepsRowsNotManagedBySync() {
+        jdbcTemplate.update("INSERT INTO vector_store (id, content, filename) VALUES (?, ?, ?)",
+                UUID.randomUUID(), "其他来源", "faq.md");
+        jdbcTemplate.update("INSERT INTO vector_store (id, content) VALUES (?, ?)", UUID.randomUUID(), "手工写入");
+        sync.sync(knowledgeBase().stream());
+
+        // 删除全部文档时只删除同步写入的行
+        Assertions.assertEquals(new IncrementalDocumentSync.Result(0, 0, 4, 0), sync.sync(Stream.empty()));
+        Assertions.assertEquals(List.of("其他来源", "手工写入"), storedContents());
+    }
+}
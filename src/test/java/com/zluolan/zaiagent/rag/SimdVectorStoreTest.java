@@ -0,0 +1,180 @@
+package com.zluolan.zaiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class SimdVectorStoreTest {
+
+    private static final int DIMENSIONS = 37;
+
+    /**
+     * 按文本中的 doc-N / query-N 标记生成确定性随机向量，与元数据格式无关
+     */
+    static class RandomEmbeddingModel implements EmbeddingModel {
+
+        private static final Pattern KEY = Pattern.compile("(doc|query)-\\d+");
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(vector(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return DIMENSIONS;
+        }
+
+        static float[] vector(String text) {
+            Matcher matcher = KEY.matcher(text);
+            Assertions.assertTrue(matcher.find(), text);
+            Random random = new Random(matcher.group().hashCode());
+            float[] vector = new float[DIMENSIONS];
+            for (int i = 0; i < DIMENSIONS; i++) {
+                vector[i] = (float) random.nextGaussian() * (i + 1);
+            }
+            return vector;
+        }
+    }
+
+    private final RandomEmbeddingModel embeddingModel = new RandomEmbeddingModel();
+
+    private static List<Document> documents(int count) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            documents.add(Document.builder()
+                    .id("id-" + i)
+                    .text("doc-" + i)
+                    .metadata(Map.of("group", i % 3, "filename", "f" + i + ".md"))
+                    .build());
+        }
+        return documents;
+    }
+
+    private static SearchRequest.Builder query(int n) {
+        return SearchRequest.builder().query("query-" + n).topK(10);
+    }
+
+    private static void assertSameResults(List<Document> expected, List<Document> actual) {
+        Assertions.assertEquals(expected.stream().map(Document::getId).toList(),
+                actual.stream().map(Document::getId).toList());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 1e-4);
+            Assertions.assertEquals(expected.get(i).getText(), actual.get(i).getText());
+            Assertions.assertEquals(expected.get(i).getMetadata().get("filename"), actual.get(i).getMetadata().get("filename"));
+        }
+    }
+
+    @Test
+    void matchesSimpleVectorStore() {
+        VectorStore simple = SimpleVectorStore.builder(embeddingModel).build();
+        SimdVectorStore simd = SimdVectorStore.builder(embeddingModel).build();
+        simple.add(documents(500));
+        simd.add(documents(500));
+        Assertions.assertEquals(500, simd.size());
+
+        for (int n = 0; n < 5; n++) {
+            assertSameResults(simple.similaritySearch(query(n).build()), simd.similaritySearch(query(n).build()));
+            SearchRequest filtered = query(n).filterExpression("group == 1 && filename != 'f4.md'").build();
+            List<Document> results = simd.similaritySearch(filtered);
+            Assertions.assertEquals(10, results.size());
+            Assertions.assertTrue(results.stream().allMatch(document -> document.getMetadata().get("group").equals(1)));
+            assertSameResults(simple.similaritySearch(filtered), results);
+            SearchRequest thresholded = query(n).topK(50).similarityThreshold(0.1).build();
+            assertSameResults(simple.similaritySearch(thresholded), simd.similaritySearch(thresholded));
+        }
+        Document top = simd.similaritySearch(query(0).build()).get(0);
+        Assertions.assertEquals(1 - top.getScore(), ((Number) top.getMetadata().get("distance")).doubleValue(), 1e-6);
+    }
+
+    @Test
+    void parallelAndBatchSearchMatchSequential() {
+        SimdVectorStore sequential = SimdVectorStore.builder(embeddingModel).build();
+        SimdVectorStore parallel = SimdVectorStore.builder(embeddingModel).parallelThreshold(64).build();
+        sequential.add(documents(1000));
+        parallel.add(documents(1000));
+
+        List<SearchRequest> requests = new ArrayList<>();
+        for (int n = 0; n < 8; n++) {
+            requests.add(query(n).build());
+            requests.add(query(n).topK(3).filterExpression("group in [0, 2]").build());
+        }
+        List<List<Document>> batch = sequential.similaritySearch(requests);
+        Assertions.assertEquals(requests.size(), batch.size());
+        for (int i = 0; i < requests.size(); i++) {
+            List<Document> expected = sequential.similaritySearch(requests.get(i));
+            assertSameResults(expected, parallel.similaritySearch(requests.get(i)));
+            assertSameResults(expected, batch.get(i));
+        }
+    }
+
+    @Test
+    void deletesAndOverwritesDocuments() {
+        SimdVectorStore store = SimdVectorStore.builder(embeddingModel).build();
+        store.add(documents(100));
+        store.delete(List.of("id-0", "id-50", "missing"));
+        Assertions.assertEquals(98, store.size());
+
+        store.delete("group == 1");
+        Assertions.assertEquals(65, store.size());
+        List<SimdVectorStore.Entry> remaining = store.entries();
+        Assertions.assertEquals(65, remaining.size());
+        Assertions.assertTrue(remaining.stream().noneMatch(entry -> entry.metadata().get("group").equals(1)
+                || entry.id().equals("id-0") || entry.id().equals("id-50")));
+        // 填补空位后的行仍可按 id 检索到原向量
+        Document moved = store.similaritySearch(SearchRequest.builder().query("doc-99").topK(1).build()).get(0);
+        Assertions.assertEquals("id-99", moved.getId());
+
+        // 同一 id 再次写入时覆盖文本与向量
+        store.add(List.of(Document.builder().id("id-3").text("query-1").metadata(Map.of("group", 0)).build()));
+        Assertions.assertEquals(65, store.size());
+        Document top = store.similaritySearch(query(1).topK(1).build()).get(0);
+        Assertions.assertEquals("id-3", top.getId());
+        Assertions.assertEquals(1.0, top.getScore(), 1e-5);
+
+        // id-0、id-1 已删除，重新写入；id-2 覆盖
+        store.add(documents(3));
+        Assertions.assertEquals(67, store.size());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> store.put("bad", "doc-1", Map.of(), new float[DIMENSIONS + 1]));
+    }
+
+    @Test
+    void simdKernelMatchesScalar() {
+        Random random = new Random(42);
+        for (int length = 0; length < 80; length++) {
+            float[] a = new float[length + 3];
+            float[] b = new float[length + 5];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = random.nextFloat() - 0.5f;
+            }
+            for (int i = 0; i < b.length; i++) {
+                b[i] = random.nextFloat() - 0.5f;
+            }
+            Assertions.assertEquals(VectorKernels.scalarDot(a, 3, b, 5, length), VectorKernels.dot(a, 3, b, 5, length), 1e-4);
+        }
+    }
+}
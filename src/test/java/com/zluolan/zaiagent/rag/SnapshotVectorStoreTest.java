@@ -0,0 +1,142 @@
+package com.zluolan.zaiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class SnapshotVectorStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final CountingEmbeddingModel embeddingModel = new CountingEmbeddingModel();
+
+    /**
+     * 按字符生成确定性向量，并记录嵌入的文本数
+     */
+    static class CountingEmbeddingModel implements EmbeddingModel {
+
+        final AtomicInteger embedded = new AtomicInteger();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embedded.incrementAndGet();
+                embeddings.add(new Embedding(vector(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return 8;
+        }
+
+        private static float[] vector(String text) {
+            float[] vector = new float[8];
+            for (char c : text.toCharArray()) {
+                vector[c % 8] += 1;
+            }
+            return vector;
+        }
+    }
+
+    private static List<Document> documents(String suffix) {
+        return List.of(
+                new Document("恋爱中如何沟通周末安排" + suffix, Map.of("filename", "a.md", "category", "沟通")),
+                new Document("单身时如何扩大社交圈", Map.of("filename", "b.md")),
+                new Document("婚后家务分工的常见分歧", Map.of("filename", "c.md", "category", "婚后")));
+    }
+
+    private SnapshotVectorStore store(String modelId) {
+        return new SnapshotVectorStore(embeddingModel, dir.resolve("test.vss"), modelId);
+    }
+
+    private static List<String> search(SnapshotVectorStore store) {
+        return store.similaritySearch(SearchRequest.builder().query("如何沟通").topK(3).build())
+                .stream().map(document -> document.getText() + document.getMetadata().get("filename")).toList();
+    }
+
+    @Test
+    void loadsSnapshotWithoutEmbedding() {
+        SnapshotVectorStore first = store("m1");
+        Assertions.assertFalse(first.addOrLoad(documents("")));
+        Assertions.assertEquals(3, embeddingModel.embedded.get());
+        Assertions.assertTrue(Files.exists(dir.resolve("test.vss")));
+
+        // 重新读取的文档 id 不同，不影响快照命中
+        SnapshotVectorStore second = store("m1");
+        Assertions.assertTrue(second.addOrLoad(documents("")));
+        Assertions.assertEquals(3, embeddingModel.embedded.get());
+        Assertions.assertEquals(search(first), search(second));
+    }
+
+    @Test
+    void rebuildsWhenDocumentsOrModelChange() {
+        store("m1").addOrLoad(documents(""));
+
+        Assertions.assertFalse(store("m1").addOrLoad(documents("，补充")));
+        Assertions.assertEquals(6, embeddingModel.embedded.get());
+
+        Assertions.assertFalse(store("m2").addOrLoad(documents("，补充")));
+        Assertions.assertEquals(9, embeddingModel.embedded.get());
+
+        // 重建后写入了新快照
+        Assertions.assertTrue(store("m2").addOrLoad(documents("，补充")));
+        Assertions.assertEquals(9, embeddingModel.embedded.get());
+    }
+
+    @Test
+    void rebuildsCorruptedSnapshot() throws Exception {
+        store("m1").addOrLoad(documents(""));
+        Path file = dir.resolve("test.vss");
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+
+        SnapshotVectorStore store = store("m1");
+        Assertions.assertFalse(store.addOrLoad(documents("")));
+        Assertions.assertEquals(3, search(store).size());
+        Assertions.assertTrue(store("m1").addOrLoad(documents("")));
+    }
+
+    @Test
+    void rebuildsSnapshotWithCorruptedLengths() throws Exception {
+        store("m1").addOrLoad(documents(""));
+        Path file = dir.resolve("test.vss");
+        byte[] original = Files.readAllBytes(file);
+        // 文档数、维度和第一个 id 的长度字段在魔数、版本和 32 字节指纹之后
+        int[][] corruptions = {{40, -1}, {40, Integer.MAX_VALUE}, {44, -1}, {44, Integer.MAX_VALUE},
+                {48, -1}, {48, Integer.MAX_VALUE}};
+        for (int[] corruption : corruptions) {
+            byte[] bytes = original.clone();
+            ByteBuffer.wrap(bytes).putInt(corruption[0], corruption[1]);
+            Files.write(file, bytes);
+
+            SnapshotVectorStore store = store("m1");
+            Assertions.assertFalse(store.addOrLoad(documents("")), Arrays.toString(corruption));
+            Assertions.assertEquals(3, store.size());
+        }
+        Assertions.assertTrue(store("m1").addOrLoad(documents("")));
+    }
+}
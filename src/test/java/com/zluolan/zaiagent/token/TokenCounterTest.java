@@ -0,0 +1,63 @@
+package com.zluolan.zaiagent.token;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import java.util.List;
+import java.util.Map;
+
+class TokenCounterTest {
+
+    private final TokenCounter tokenCounter = new TokenCounter();
+
+    @Test
+    void countsMixedText() {
+        Assertions.assertEquals(0, tokenCounter.count(""));
+        // 中文按字计数
+        Assertions.assertEquals(4, tokenCounter.count("你好世界"));
+        // 短单词各 1 个，空白不计
+        Assertions.assertEquals(3, tokenCounter.count("hello big world"));
+        // 中英混合：4 个汉字 + 1 个单词 + 1 个全角标点
+        Assertions.assertEquals(6, tokenCounter.count("我在学习Java。"));
+        // 长文本数量级合理
+        int tokens = tokenCounter.count("The quick brown fox jumps over the lazy dog. ".repeat(100));
+        Assertions.assertTrue(tokens > 900 && tokens < 1500, "tokens = " + tokens);
+    }
+
+    @Test
+    void countsToolCallsAndResponses() {
+        AssistantMessage assistantMessage = new AssistantMessage("", Map.of(),
+                List.of(new AssistantMessage.ToolCall("1", "function", "searchWeb", "{\"query\":\"天气\"}")));
+        ToolResponseMessage toolResponseMessage = new ToolResponseMessage(
+                List.of(new ToolResponseMessage.ToolResponse("1", "searchWeb", "晴".repeat(100))), Map.of());
+
+        Assertions.assertTrue(tokenCounter.count(assistantMessage) > TokenCounter.MESSAGE_OVERHEAD_TOKENS);
+        Assertions.assertTrue(tokenCounter.count(toolResponseMessage) >= 100);
+    }
+
+    @Test
+    void ledgerCachesAndAccumulates() {
+        TokenLedger ledger = new TokenLedger(tokenCounter);
+        UserMessage first = new UserMessage("你好");
+        UserMessage second = new UserMessage("介绍一下你自己");
+
+        int prompt1 = ledger.recordPrompt("system", List.of(first));
+        int prompt2 = ledger.recordPrompt("system", List.<Message>of(first, second));
+
+        Assertions.assertEquals(prompt1 + tokenCounter.count(second), prompt2);
+        Assertions.assertEquals(prompt2, ledger.getLastPromptTokens());
+        Assertions.assertEquals(prompt1 + prompt2, ledger.getTotalPromptTokens());
+        Assertions.assertEquals(2, ledger.getRequests());
+
+        int completion = ledger.recordCompletion(
+                new ChatResponse(List.of(new Generation(new AssistantMessage("我是助手")))));
+        Assertions.assertTrue(completion > 0);
+        Assertions.assertEquals(prompt1 + prompt2 + completion, ledger.getTotalTokens());
+    }
+}
@@ -0,0 +1,67 @@
+package com.zluolan.zaiagent.tools;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CachingToolCallbackTest {
+
+    /**
+     * 计数工具：返回固定结果并记录调用次数
+     */
+    static class CountingTool implements ToolCallback {
+        final AtomicInteger calls = new AtomicInteger();
+        volatile String result = "[TOOL_EXECUTION_RESULT][WEB_SCRAPING_SUCCESS] ok";
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return ToolDefinition.builder().name("scrapeWebPage").description("scrape").inputSchema("{}").build();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            calls.incrementAndGet();
+            return result;
+        }
+    }
+
+    @Test
+    void cachesEquivalentArguments() {
+        CountingTool tool = new CountingTool();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CachingToolCallback caching = new CachingToolCallback(tool, Duration.ofMinutes(1), 100, registry);
+
+        caching.call("{\"url\":\"https://a.com\",\"depth\":1}");
+        caching.call("{ \"depth\": 1, \"url\": \"https://a.com\" }");
+        caching.call("{\"url\":\"https://b.com\",\"depth\":1}");
+
+        Assertions.assertEquals(2, tool.calls.get());
+        Assertions.assertEquals(1.0, registry.get("cache.gets")
+                .tag("cache", "agent.tool.cache").tag("tool", "scrapeWebPage").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void doesNotCacheFailures() {
+        CountingTool tool = new CountingTool();
+        tool.result = "[TOOL_EXECUTION_RESULT][WEB_SCRAPING_ERROR] Web scraping failed: timeout";
+        CachingToolCallback caching = new CachingToolCallback(tool, Duration.ofMinutes(1), 100, null);
+
+        caching.call("{\"url\":\"https://a.com\"}");
+        caching.call("{\"url\":\"https://a.com\"}");
+
+        Assertions.assertEquals(2, tool.calls.get());
+        Assertions.assertEquals(0, caching.estimatedSize());
+    }
+
+    @Test
+    void normalizesArguments() {
+        Assertions.assertEquals("{\"a\":1,\"b\":[2,3]}", CachingToolCallback.normalize("{\"b\": [2, 3], \"a\": 1}"));
+        Assertions.assertEquals("{}", CachingToolCallback.normalize(" "));
+        Assertions.assertEquals("not json", CachingToolCallback.normalize(" not json "));
+    }
+}
@@ -5,6 +5,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 public class TerminalOperationToolTest {
@@ -51,4 +52,24 @@ public class TerminalOperationToolTest {
         System.out.println("Output:");
         System.out.println(result);
     }
+
+    @Test
+    public void testInterruptKillsCommand() throws InterruptedException {
+        // 仅在类 Unix 系统上验证
+        if (System.getProperty("os.name").toLowerCase().contains("win")) {
+            return;
+        }
+        TerminalOperationTool tool = new TerminalOperationTool();
+        String[] result = new String[1];
+        Thread runner = Thread.ofVirtual().start(() -> result[0] = tool.executeTerminalCommand("sleep 30"));
+
+        Thread.sleep(500);
+        long start = System.currentTimeMillis();
+        runner.interrupt();
+        runner.join(5000);
+
+        assertFalse(runner.isAlive(), "中断后命令应立即结束");
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(result[0].contains("COMMAND_INTERRUPTED"), result[0]);
+    }
 }